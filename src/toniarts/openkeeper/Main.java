@@ -77,6 +77,7 @@ import toniarts.openkeeper.setup.DKFolderSelector;
 import toniarts.openkeeper.setup.IFrameClosingBehavior;
 import toniarts.openkeeper.tools.convert.AssetsConverter;
 import toniarts.openkeeper.tools.convert.ConversionUtils;
+import toniarts.openkeeper.tools.convert.archive.AssetArchiveLocator;
 import toniarts.openkeeper.tools.modelviewer.SoundsLoader;
 import toniarts.openkeeper.utils.PathUtils;
 import toniarts.openkeeper.utils.SettingUtils;
@@ -331,7 +332,10 @@ public class Main extends SimpleApplication {
     @Override
     public void simpleInitApp() {
 
-        // Distribution locator
+        // Distribution locator, the packed assets first if we have them
+        if (Files.exists(Paths.get(AssetsConverter.getAssetArchive()))) {
+            getAssetManager().registerLocator(AssetsConverter.getAssetArchive(), AssetArchiveLocator.class);
+        }
         getAssetManager().registerLocator(AssetsConverter.getAssetsFolder(), FileLocator.class);
 
         // Init nifty while in render thread so it will get initialized before it is updated, otherwise we might hit a rare race-condition
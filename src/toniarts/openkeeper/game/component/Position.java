@@ -16,16 +16,29 @@
  */
 package toniarts.openkeeper.game.component;
 
+import com.jme3.math.FastMath;
 import com.jme3.math.Vector3f;
 import com.simsilica.es.EntityComponent;
 
 /**
- * Simple entity position class
+ * Simple entity position class. For networking the position is quantised,
+ * see {@link #quantizePosition(float)} and {@link #quantizeRotation(float)}
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
 public class Position implements EntityComponent {
 
+    /**
+     * Precision of the coordinates, power of two so that the quantised values
+     * are exact
+     */
+    public static final float POSITION_QUANTUM = 1 / 64f;
+
+    /**
+     * Precision of the rotation, 16 bits for the full circle
+     */
+    public static final float ROTATION_QUANTUM = FastMath.TWO_PI / 65536;
+
     public float rotation; // We are essentially 2D game, so around y-axis
     public Vector3f position;
 
@@ -38,4 +51,12 @@ public class Position implements EntityComponent {
         this.position = position;
     }
 
+    public static float quantizePosition(float coordinate) {
+        return Math.round(coordinate / POSITION_QUANTUM) * POSITION_QUANTUM;
+    }
+
+    public static float quantizeRotation(float rotation) {
+        return Math.round(rotation / ROTATION_QUANTUM) * ROTATION_QUANTUM;
+    }
+
 }
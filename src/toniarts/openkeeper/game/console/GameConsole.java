@@ -22,12 +22,15 @@ import de.lessvoid.nifty.controls.ConsoleCommands;
 import de.lessvoid.nifty.controls.ConsoleCommands.ConsoleCommand;
 import de.lessvoid.nifty.tools.Color;
 import java.util.Collection;
+import toniarts.openkeeper.game.controller.GameController;
 import toniarts.openkeeper.game.data.Keeper;
 import toniarts.openkeeper.game.state.CheatState;
 import toniarts.openkeeper.game.state.GameClientState;
+import toniarts.openkeeper.game.state.GameServerState;
 import toniarts.openkeeper.game.state.GameState;
 import toniarts.openkeeper.game.state.PlayerState;
 import toniarts.openkeeper.tools.convert.map.Creature;
+import toniarts.openkeeper.utils.GameLoopMetrics;
 import toniarts.openkeeper.world.WorldState;
 
 /**
@@ -64,6 +67,7 @@ public class GameConsole {
         LOOSE_LEVEL,
         LEVEL_MAX,
         SPAWN_IMP,
+        STATS,
         UNLOCK_ROOMS,
         UNLOCK_SPELLS,
         UNLOCK_ROOMS_TRAPS,
@@ -138,6 +142,9 @@ public class GameConsole {
                 case SPAWN_IMP:
                     spawnImp();
                     break;
+                case STATS:
+                    showStats();
+                    break;
                 case EXIT:
                     stateManager.getState(ConsoleState.class).setEnabled(false);
                     break;
@@ -219,6 +226,19 @@ public class GameConsole {
         }
     }
 
+    private void showStats() {
+        GameServerState gameServerState = stateManager.getState(GameServerState.class);
+        GameController gameController = gameServerState != null ? gameServerState.getGameController() : null;
+        if (gameController == null) {
+            console.outputError("Statistics are only available on the host");
+            return;
+        }
+
+        for (GameLoopMetrics metrics : gameController.getMetrics()) {
+            console.output(metrics.getReport(), messageOutputColor);
+        }
+    }
+
     private void spawnImps(final int amount) {
         for (int i = 0; i < amount; i++) {
             spawnImp();
@@ -18,7 +18,9 @@ package toniarts.openkeeper.game.controller;
 
 import com.badlogic.gdx.ai.GdxAI;
 import com.jme3.util.SafeArrayList;
+import com.simsilica.es.EntityComponentListener;
 import com.simsilica.es.EntityData;
+import com.simsilica.es.ObservableEntityData;
 import java.io.IOException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -28,6 +30,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import toniarts.openkeeper.Main;
@@ -81,7 +84,9 @@ import toniarts.openkeeper.tools.convert.map.Player;
 import toniarts.openkeeper.tools.convert.map.Thing;
 import toniarts.openkeeper.tools.convert.map.Variable;
 import toniarts.openkeeper.utils.GameLoop;
+import toniarts.openkeeper.utils.GameLoopMetrics;
 import toniarts.openkeeper.utils.PathUtils;
+import toniarts.openkeeper.utils.PhasedGameLoopManager;
 
 /**
  * The game controller, runs the game simulation itself
@@ -108,6 +113,7 @@ public class GameController implements IGameLogicUpdatable, AutoCloseable, IGame
     private GameLoop gameAnimationLoop;
     private GameLogicManager gameAnimationThread;
     private GameLogicManager gameLogicThread;
+    private EntityComponentListener entityChangeCounter;
     private TriggerControl triggerControl = null;
     private CreatureTriggerLogicController creatureTriggerState;
     private ObjectTriggerLogicController objectTriggerState;
@@ -122,8 +128,11 @@ public class GameController implements IGameLogicUpdatable, AutoCloseable, IGame
     private int levelScore = 0;
     private boolean campaign;
     private GameWorldController gameWorldController;
-    private INavigationService navigationService;
+    private NavigationService navigationService;
     private PositionSystem positionSystem;
+    private PlayerActionQueue playerActionQueue;
+    private boolean unifiedGameLoop = false;
+    private ScheduledExecutorService gameLoopExecutor;
 
     private GameResult gameResult = null;
     private Float timeLimit = null;
@@ -191,6 +200,21 @@ public class GameController implements IGameLogicUpdatable, AutoCloseable, IGame
         }
     }
 
+    /**
+     * Run all the game systems from a single game loop instead of a loop per
+     * system group. The movement, logic and animation are then run in phases,
+     * each at their own rate, and never concurrently. Must be set before
+     * creating the game.
+     *
+     * @param unifiedGameLoop use a single game loop
+     * @param executor executor to run the loop on, shared with other games.
+     * {@code null} to run the loop on an own thread
+     */
+    public void setUnifiedGameLoop(boolean unifiedGameLoop, ScheduledExecutorService executor) {
+        this.unifiedGameLoop = unifiedGameLoop;
+        this.gameLoopExecutor = executor;
+    }
+
     public void createNewGame() {
 
         // Load the level data
@@ -217,11 +241,12 @@ public class GameController implements IGameLogicUpdatable, AutoCloseable, IGame
         // The world
         gameWorldController = new GameWorldController(kwdFile, entityData, gameSettings, players, playerControllers, this);
         gameWorldController.createNewGame(this, this);
+        playerActionQueue = new PlayerActionQueue(gameWorldController);
 
         positionSystem = new PositionSystem(gameWorldController.getMapController(), entityData, gameWorldController.getCreaturesController(), gameWorldController.getDoorsController(), gameWorldController.getObjectsController());
 
         // Navigation
-        navigationService = new NavigationService(gameWorldController.getMapController(), positionSystem);
+        navigationService = new NavigationService(gameWorldController, positionSystem, entityData);
 
         // Initialize tasks
         taskManager = new TaskManager(entityData, gameWorldController, gameWorldController.getMapController(), gameWorldController.getObjectsController(), gameWorldController.getCreaturesController(), navigationService, playerControllers.values(), this, positionSystem);
@@ -249,21 +274,23 @@ public class GameController implements IGameLogicUpdatable, AutoCloseable, IGame
         }
 
         // Create the game loops ready to start
-        // Game logic
-        gameLogicThread = new GameLogicManager(positionSystem,
+        // Game logic, the systems that don't share data are kept next to each other so that they run in parallel
+        gameLogicThread = new GameLogicManager(playerActionQueue,
+                positionSystem,
+                navigationService,
                 gameWorldController.getMapController(),
                 new DecaySystem(entityData),
                 new CreatureExperienceSystem(entityData, kwdFile, gameSettings, gameWorldController.getCreaturesController()),
+                new ManaCalculatorLogic(playerControllers.values(), entityData),
                 new SlapSystem(entityData, kwdFile, playerControllers.values(), gameSettings),
                 new HealthSystem(entityData, kwdFile, positionSystem, gameSettings, gameWorldController.getCreaturesController(), this, playerControllers.values(), gameWorldController.getMapController()),
                 new CreatureTorturingSystem(entityData, gameSettings),
+                new PlayerSpellbookSystem(entityData, kwdFile, playerControllers.values()),
                 new DeathSystem(entityData, gameSettings, positionSystem),
                 new PlayerCreatureSystem(entityData, kwdFile, playerControllers.values()),
-                new PlayerSpellbookSystem(entityData, kwdFile, playerControllers.values()),
                 this,
                 new CreatureSpawnSystem(gameWorldController.getCreaturesController(), playerControllers.values(), gameSettings, this, gameWorldController.getMapController()),
                 new ChickenSpawnSystem(gameWorldController.getObjectsController(), playerControllers.values(), gameSettings, this, gameWorldController.getMapController()),
-                new ManaCalculatorLogic(playerControllers.values(), entityData),
                 new CreatureAiSystem(entityData, gameWorldController.getCreaturesController()),
                 new ChickenAiSystem(entityData, gameWorldController.getObjectsController()),
                 new CreatureViewSystem(entityData),
@@ -271,22 +298,53 @@ public class GameController implements IGameLogicUpdatable, AutoCloseable, IGame
                 new LooseObjectSystem(entityData, gameWorldController.getMapController(), playerControllers, positionSystem),
                 new HaulingSystem(entityData),
                 taskManager);
-        gameLogicLoop = new GameLoop(gameLogicThread, 1000000000 / kwdFile.getGameLevel().getTicksPerSec(), "GameLogic");
+        long gameLogicUpdateRate = 1000000000 / kwdFile.getGameLevel().getTicksPerSec();
 
         // Animation systems
         gameAnimationThread = new GameLogicManager(new DungeonHeartConstruction(entityData, getLevelVariable(Variable.MiscVariable.MiscType.TIME_BEFORE_DUNGEON_HEART_CONSTRUCTION_BEGINS)), new CreatureFallSystem(entityData));
-        gameAnimationLoop = new GameLoop(gameAnimationThread, GameLoop.INTERVAL_FPS_60, "GameAnimation");
 
         // Steering
-        steeringCalculatorLoop = new GameLoop(new GameLogicManager(new MovementSystem(entityData)), GameLoop.INTERVAL_FPS_60, "SteeringCalculator");
+        GameLogicManager steeringCalculatorThread = new GameLogicManager(new MovementSystem(entityData));
+
+        if (unifiedGameLoop) {
+
+            // Movement, logic and animation in phases from the same loop
+            PhasedGameLoopManager phasedGameLoopManager = new PhasedGameLoopManager()
+                    .addPhase(steeringCalculatorThread, GameLoop.INTERVAL_FPS_60)
+                    .addPhase(gameLogicThread, gameLogicUpdateRate)
+                    .addPhase(gameAnimationThread, GameLoop.INTERVAL_FPS_60);
+            gameLogicLoop = new GameLoop(phasedGameLoopManager, phasedGameLoopManager.getUpdateRate(), "Game", gameLoopExecutor);
+        } else {
+            gameLogicLoop = new GameLoop(gameLogicThread, gameLogicUpdateRate, "GameLogic");
+            gameAnimationLoop = new GameLoop(gameAnimationThread, GameLoop.INTERVAL_FPS_60, "GameAnimation");
+            steeringCalculatorLoop = new GameLoop(steeringCalculatorThread, GameLoop.INTERVAL_FPS_60, "SteeringCalculator");
+            steeringCalculatorLoop.setFixedTimestep(true, GameLoop.DEFAULT_MAX_CATCH_UP_STEPS, GameLoop.OverloadPolicy.DROP_BACKLOG);
+        }
+        gameLogicLoop.setFixedTimestep(true, GameLoop.DEFAULT_MAX_CATCH_UP_STEPS, GameLoop.OverloadPolicy.DROP_BACKLOG);
+
+        // Count the entity changes for the metrics, to the loop that made them
+        // Changes made outside the game loops (i.e. network) are not counted
+        if (entityData instanceof ObservableEntityData) {
+            entityChangeCounter = (change) -> {
+                GameLoopMetrics metrics = GameLoopMetrics.getCurrent();
+                if (metrics != null) {
+                    metrics.recordEntityChange(change.getType());
+                }
+            };
+            ((ObservableEntityData) entityData).addEntityComponentListener(entityChangeCounter);
+        }
     }
 
     public void startGame() {
 
         // Game logic thread & movement
         gameLogicLoop.start();
-        gameAnimationLoop.start();
-        steeringCalculatorLoop.start();
+        if (gameAnimationLoop != null) {
+            gameAnimationLoop.start();
+        }
+        if (steeringCalculatorLoop != null) {
+            steeringCalculatorLoop.start();
+        }
     }
 
     private void setupPlayers() {
@@ -664,6 +722,26 @@ public class GameController implements IGameLogicUpdatable, AutoCloseable, IGame
             gameLogicLoop.stop();
             gameLogicLoop = null;
         }
+        if (entityChangeCounter != null) {
+            ((ObservableEntityData) entityData).removeEntityComponentListener(entityChangeCounter);
+            entityChangeCounter = null;
+        }
+    }
+
+    /**
+     * Get the performance metrics of the game loops
+     *
+     * @return the metrics of each running loop
+     */
+    public List<GameLoopMetrics> getMetrics() {
+        List<GameLoopMetrics> metrics = new ArrayList<>(3);
+        for (GameLoop gameLoop : new GameLoop[]{gameLogicLoop, gameAnimationLoop, steeringCalculatorLoop}) {
+            if (gameLoop != null) {
+                metrics.add(gameLoop.getMetrics());
+            }
+        }
+
+        return metrics;
     }
 
     @Override
@@ -671,6 +749,17 @@ public class GameController implements IGameLogicUpdatable, AutoCloseable, IGame
         return gameWorldController;
     }
 
+    /**
+     * Get the player actions, the actions are executed on the game logic
+     * thread. Use this for any player actions coming from outside of the game
+     * loop
+     *
+     * @return the player action queue
+     */
+    public PlayerActionQueue getPlayerActionQueue() {
+        return playerActionQueue;
+    }
+
     @Override
     public void start() {
 
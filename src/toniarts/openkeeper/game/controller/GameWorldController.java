@@ -79,19 +79,14 @@ import toniarts.openkeeper.tools.convert.map.Variable;
 import toniarts.openkeeper.utils.WorldUtils;
 
 /**
- * Game world controller, controls the game world related actions
+ * Game world controller, controls the game world related actions. Not thread
+ * safe, the player actions coming from other threads are queued to the game
+ * logic thread with {@link PlayerActionQueue}.
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
 public class GameWorldController implements IGameWorldController, IPlayerActions {
 
-    /**
-     * When dealing with gold... We currently better lock it. Logic stuff
-     * happens in single thread. But player actions are prosessed in real time
-     * by possibly other threads. We must not lose any gold from the world.
-     */
-    public static final Object GOLD_LOCK = new Object();
-
     private final KwdFile kwdFile;
     private final EntityData entityData;
     private IObjectsController objectsController;
@@ -184,9 +179,7 @@ public class GameWorldController implements IGameWorldController, IPlayerActions
      */
     @Override
     public int addGold(short playerId, int sum) {
-        synchronized (GOLD_LOCK) {
-            return addGold(playerId, null, sum);
-        }
+        return addGold(playerId, null, sum);
     }
 
     /**
@@ -201,40 +194,37 @@ public class GameWorldController implements IGameWorldController, IPlayerActions
     @Override
     public int addGold(short playerId, Point p, int sum) {
 
-        synchronized (GOLD_LOCK) {
-
-            // Gold to specified point/room
-            int moneyLeft = sum;
-            if (p != null) {
+        // Gold to specified point/room
+        int moneyLeft = sum;
+        if (p != null) {
 
-                // Get a room in point
-                RoomInstance roomInstance = mapController.getRoomInstanceByCoordinates(p);
-                if (roomInstance != null) {
-                    IRoomController room = mapController.getRoomController(roomInstance);
-                    if (room.canStoreGold()) {
-                        RoomGoldControl control = room.getObjectControl(ObjectType.GOLD);
-                        moneyLeft = control.addItem(sum, p);
-                    }
+            // Get a room in point
+            RoomInstance roomInstance = mapController.getRoomInstanceByCoordinates(p);
+            if (roomInstance != null) {
+                IRoomController room = mapController.getRoomController(roomInstance);
+                if (room.canStoreGold()) {
+                    RoomGoldControl control = room.getObjectControl(ObjectType.GOLD);
+                    moneyLeft = control.addItem(sum, p);
                 }
-            } else {
+            }
+        } else {
 
-                // Distribute the gold
-                for (IRoomController roomController : mapController.getRoomControllers()) {
-                    if (roomController.getRoomInstance().getOwnerId() == playerId && roomController.canStoreGold()) {
-                        RoomGoldControl control = roomController.getObjectControl(ObjectType.GOLD);
-                        moneyLeft = control.addItem(sum, p);
-                        if (moneyLeft == 0) {
-                            break;
-                        }
+            // Distribute the gold
+            for (IRoomController roomController : mapController.getRoomControllers()) {
+                if (roomController.getRoomInstance().getOwnerId() == playerId && roomController.canStoreGold()) {
+                    RoomGoldControl control = roomController.getObjectControl(ObjectType.GOLD);
+                    moneyLeft = control.addItem(sum, p);
+                    if (moneyLeft == 0) {
+                        break;
                     }
                 }
             }
+        }
 
-            // Add to the player
-            playerControllers.get(playerId).getGoldControl().addGold(sum - moneyLeft);
+        // Add to the player
+        playerControllers.get(playerId).getGoldControl().addGold(sum - moneyLeft);
 
-            return moneyLeft;
-        }
+        return moneyLeft;
     }
 
     /**
@@ -247,60 +237,53 @@ public class GameWorldController implements IGameWorldController, IPlayerActions
     @Override
     public int substractGold(int amount, short playerId) {
 
-        synchronized (GOLD_LOCK) {
-
-            // See if the player has any gold even
-            Keeper keeper = players.get(playerId);
-            if (keeper.getGold() == 0) {
-                return amount;
-            }
-
-            // The gold is subtracted evenly from all treasuries
-            int moneyToSubstract = amount;
-            List<IRoomController> playersTreasuries = mapController.getRoomsByFunction(ObjectType.GOLD, playerId);
-            while (moneyToSubstract > 0 && !playersTreasuries.isEmpty()) {
-                Iterator<IRoomController> iter = playersTreasuries.iterator();
-                int goldToRemove = (int) Math.ceil((float) moneyToSubstract / playersTreasuries.size());
-                while (iter.hasNext()) {
-                    IRoomController room = iter.next();
-                    RoomGoldControl control = room.getObjectControl(ObjectType.GOLD);
-                    goldToRemove = Math.min(moneyToSubstract, goldToRemove); // Rounding...
-                    moneyToSubstract -= goldToRemove - control.removeGold(goldToRemove);
-                    if (control.getCurrentCapacity() == 0) {
-                        iter.remove();
-                    }
-                    if (moneyToSubstract == 0) {
-                        break;
-                    }
+        // See if the player has any gold even
+        Keeper keeper = players.get(playerId);
+        if (keeper.getGold() == 0) {
+            return amount;
+        }
+
+        // The gold is subtracted evenly from all treasuries
+        int moneyToSubstract = amount;
+        List<IRoomController> playersTreasuries = mapController.getRoomsByFunction(ObjectType.GOLD, playerId);
+        while (moneyToSubstract > 0 && !playersTreasuries.isEmpty()) {
+            Iterator<IRoomController> iter = playersTreasuries.iterator();
+            int goldToRemove = (int) Math.ceil((float) moneyToSubstract / playersTreasuries.size());
+            while (iter.hasNext()) {
+                IRoomController room = iter.next();
+                RoomGoldControl control = room.getObjectControl(ObjectType.GOLD);
+                goldToRemove = Math.min(moneyToSubstract, goldToRemove); // Rounding...
+                moneyToSubstract -= goldToRemove - control.removeGold(goldToRemove);
+                if (control.getCurrentCapacity() == 0) {
+                    iter.remove();
+                }
+                if (moneyToSubstract == 0) {
+                    break;
                 }
             }
+        }
 
-            // Substract from the player
-            playerControllers.get(playerId).getGoldControl().subGold(amount - moneyToSubstract);
+        // Substract from the player
+        playerControllers.get(playerId).getGoldControl().subGold(amount - moneyToSubstract);
 
-            return moneyToSubstract;
-        }
+        return moneyToSubstract;
     }
 
     private void substractGoldCapacityFromPlayer(RoomInstance instance) {
-        synchronized (GOLD_LOCK) {
-            IRoomController roomController = mapController.getRoomController(instance);
-            if (roomController.canStoreGold()) {
-                RoomGoldControl roomGoldControl = roomController.getObjectControl(ObjectType.GOLD);
-                PlayerGoldControl playerGoldControl = playerControllers.get(instance.getOwnerId()).getGoldControl();
-                playerGoldControl.setGoldMax(playerGoldControl.getGoldMax() - roomGoldControl.getMaxCapacity());
-            }
+        IRoomController roomController = mapController.getRoomController(instance);
+        if (roomController.canStoreGold()) {
+            RoomGoldControl roomGoldControl = roomController.getObjectControl(ObjectType.GOLD);
+            PlayerGoldControl playerGoldControl = playerControllers.get(instance.getOwnerId()).getGoldControl();
+            playerGoldControl.setGoldMax(playerGoldControl.getGoldMax() - roomGoldControl.getMaxCapacity());
         }
     }
 
     private void addGoldCapacityToPlayer(RoomInstance instance) {
-        synchronized (GOLD_LOCK) {
-            IRoomController roomController = mapController.getRoomController(instance);
-            if (roomController.canStoreGold()) {
-                RoomGoldControl roomGoldControl = roomController.getObjectControl(ObjectType.GOLD);
-                PlayerGoldControl playerGoldControl = playerControllers.get(instance.getOwnerId()).getGoldControl();
-                playerGoldControl.setGoldMax(playerGoldControl.getGoldMax() + roomGoldControl.getMaxCapacity());
-            }
+        IRoomController roomController = mapController.getRoomController(instance);
+        if (roomController.canStoreGold()) {
+            RoomGoldControl roomGoldControl = roomController.getObjectControl(ObjectType.GOLD);
+            PlayerGoldControl playerGoldControl = playerControllers.get(instance.getOwnerId()).getGoldControl();
+            playerGoldControl.setGoldMax(playerGoldControl.getGoldMax() + roomGoldControl.getMaxCapacity());
         }
     }
 
@@ -337,13 +320,11 @@ public class GameWorldController implements IGameWorldController, IPlayerActions
         }
 
         // See that can we afford the building
-        synchronized (GOLD_LOCK) {
-            int cost = instancePlots.size() * room.getCost();
-            if (instancePlots.size() * room.getCost() > players.get(playerId).getGold()) {
-                return;
-            }
-            substractGold(cost, playerId);
+        int cost = instancePlots.size() * room.getCost();
+        if (instancePlots.size() * room.getCost() > players.get(playerId).getGold()) {
+            return;
         }
+        substractGold(cost, playerId);
 
         // Build & mark
         List<Point> buildTiles = new ArrayList<>(instancePlots.size());
@@ -500,14 +481,12 @@ public class GameWorldController implements IGameWorldController, IPlayerActions
 
         // Finally we have all the rooms and such, return the revenue to the player
         // Do it this point to avoid placing the profit to the actual room we were selling
-        synchronized (GOLD_LOCK) {
-            for (Map.Entry<Point, Integer> moneyToReturn : moneyToReturnByPoint) {
-                int goldLeft = addGold(playerId, moneyToReturn.getValue());
-                if (goldLeft > 0) {
+        for (Map.Entry<Point, Integer> moneyToReturn : moneyToReturnByPoint) {
+            int goldLeft = addGold(playerId, moneyToReturn.getValue());
+            if (goldLeft > 0) {
 
-                    // Add loose gold to this tile
-                    objectsController.addLooseGold(playerId, moneyToReturn.getKey().x, moneyToReturn.getKey().y, goldLeft, (int) gameSettings.get(Variable.MiscVariable.MiscType.MAX_GOLD_PILE_OUTSIDE_TREASURY).getValue());
-                }
+                // Add loose gold to this tile
+                objectsController.addLooseGold(playerId, moneyToReturn.getKey().x, moneyToReturn.getKey().y, goldLeft, (int) gameSettings.get(Variable.MiscVariable.MiscType.MAX_GOLD_PILE_OUTSIDE_TREASURY).getValue());
             }
         }
 
@@ -585,13 +564,6 @@ public class GameWorldController implements IGameWorldController, IPlayerActions
     private void putToKeeperHand(PlayerHandControl playerHandControl, EntityId entity, short playerId) {
         playerHandControl.push(entity);
 
-        /**
-         * TODO: Basically here we can have a concurrency problem, especially
-         * visible with things that have AI. The AI or other systems may be
-         * still processing and manipulating stuff. One way to fix would be to
-         * add this to game loop queue to be executed. That would introduce a
-         * delay though...
-         */
         // Lose the position component on the entity, do it here since we have the knowledge on locations etc. keep the "hand" simple
         // And also no need to create a system for this which saves resources
         Position position = entityData.getComponent(entity, Position.class);
@@ -616,9 +588,7 @@ public class GameWorldController implements IGameWorldController, IPlayerActions
 
             // If it was gold... substract it from the player
             if (roomStorage.objectType == ObjectType.GOLD) {
-                synchronized (GOLD_LOCK) {
-                    playerControllers.get(playerId).getGoldControl().subGold(entityData.getComponent(entity, Gold.class).gold);
-                }
+                playerControllers.get(playerId).getGoldControl().subGold(entityData.getComponent(entity, Gold.class).gold);
             }
         }
     }
@@ -837,13 +807,11 @@ public class GameWorldController implements IGameWorldController, IPlayerActions
         int realAmount = Math.min(amount, maxGold);
         PlayerHandControl playerHandControl = playerControllers.get(playerId).getHandControl();
         if (!playerHandControl.isFull()) {
-            synchronized (GOLD_LOCK) {
-                int leftOverRequest = substractGold(realAmount, playerId);
-                realAmount -= leftOverRequest;
-                if (realAmount > 0) {
-                    EntityId goldEntity = objectsController.addLooseGold(playerId, 0, 0, realAmount, maxGold);
-                    putToKeeperHand(playerHandControl, goldEntity, playerId);
-                }
+            int leftOverRequest = substractGold(realAmount, playerId);
+            realAmount -= leftOverRequest;
+            if (realAmount > 0) {
+                EntityId goldEntity = objectsController.addLooseGold(playerId, 0, 0, realAmount, maxGold);
+                putToKeeperHand(playerHandControl, goldEntity, playerId);
             }
         }
     }
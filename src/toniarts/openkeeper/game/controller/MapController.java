@@ -42,7 +42,6 @@ import toniarts.openkeeper.game.map.IMapTileController;
 import toniarts.openkeeper.game.map.IMapTileInformation;
 import toniarts.openkeeper.game.map.MapData;
 import toniarts.openkeeper.game.map.MapInformation;
-import toniarts.openkeeper.game.map.MapTileController;
 import toniarts.openkeeper.tools.convert.map.KwdFile;
 import toniarts.openkeeper.tools.convert.map.Player;
 import toniarts.openkeeper.tools.convert.map.Terrain;
@@ -60,7 +59,6 @@ public final class MapController extends Container implements IMapController {
     private final IGameTimer gameTimer;
     private final IObjectsController objectsController;
     private final Map<Variable.MiscVariable.MiscType, Variable.MiscVariable> gameSettings;
-    private final EntityData entityData;
     private final IMapInformation<IMapTileController> mapInformation;
     private final ILevelInfo levelInfo;
 
@@ -86,7 +84,6 @@ public final class MapController extends Container implements IMapController {
         this.mapData = new MapData(kwdFile, entityData, levelInfo.getPlayers());
         this.gameSettings = gameSettings;
         this.gameTimer = gameTimer;
-        this.entityData = entityData;
         this.mapInformation = new MapInformation(mapData, kwdFile, levelInfo.getPlayers());
         this.levelInfo = levelInfo;
 
@@ -239,26 +236,16 @@ public final class MapController extends Container implements IMapController {
 
     @Override
     public void selectTiles(Vector2f start, Vector2f end, boolean select, short playerId) {
-        List<Point> updatableTiles = new ArrayList<>();
-        for (int x = (int) Math.max(0, start.x); x < Math.min(kwdFile.getMap().getWidth(), end.x + 1); x++) {
-            for (int y = (int) Math.max(0, start.y); y < Math.min(kwdFile.getMap().getHeight(), end.y + 1); y++) {
-                IMapTileController tile = getMapData().getTile(x, y);
-                if (tile == null) {
-                    continue;
-                }
-                Terrain terrain = kwdFile.getTerrain(tile.getTerrainId());
-                if (!terrain.getFlags().contains(Terrain.TerrainFlag.TAGGABLE)) {
-                    continue;
-                }
-                tile.setSelected(select, playerId);
-                updatableTiles.add(tile.getLocation());
-            }
-        }
-        //Point[] tiles = updatableTiles.toArray(new Point[updatableTiles.size()]);
-        //mapLoader.updateTiles(tiles);
+
+        // The whole area at once, only the tiles that actually changed are notified
+        List<Point> updatableTiles = mapData.setSelected((int) Math.max(0, start.x), (int) Math.max(0, start.y),
+                (int) Math.ceil(end.x), (int) Math.ceil(end.y), select, playerId,
+                (tile) -> getTerrain(tile).getFlags().contains(Terrain.TerrainFlag.TAGGABLE));
 
         // Notify
-        notifyTileChange(updatableTiles);
+        if (!updatableTiles.isEmpty()) {
+            notifyTileChange(updatableTiles);
+        }
     }
 
     @Override
@@ -655,7 +642,7 @@ public final class MapController extends Container implements IMapController {
     private void changeTerrain(IMapTileController tile, short terrainId) {
         tile.setTerrainId(terrainId);
         Terrain terrain = getTerrain(tile);
-        MapTileController.setAttributesFromTerrain(entityData, tile, terrain);
+        tile.setAttributesFromTerrain(terrain);
 
         // If the terrain is not taggable anymore, reset the tagging data
         if (!terrain.getFlags().contains(Terrain.TerrainFlag.TAGGABLE)) {
@@ -690,15 +677,9 @@ public final class MapController extends Container implements IMapController {
 
     @Override
     public void flashTiles(List<Point> points, short playerId, int time) {
-        List<Point> tilesToUpdate = new ArrayList<>(points.size());
 
         // Mark the tiles as being flashed
-        for (Point point : points) {
-            if (!getMapData().getTile(point).isFlashed(playerId)) {
-                getMapData().getTile(point).setFlashed(true, playerId);
-                tilesToUpdate.add(point);
-            }
-        }
+        List<Point> tilesToUpdate = mapData.setFlashed(points, true, playerId);
 
         // Set a control that will turn them off at some point if they are timed
         if (time > 0) {
@@ -715,17 +696,11 @@ public final class MapController extends Container implements IMapController {
 
     @Override
     public void unFlashTiles(List<Point> points, short playerId) {
-        List<Point> tilesToUpdate = new ArrayList<>(points.size());
 
         // Mark the tiles as being unflashed
         // Hmm, we don't really keep track, so it is entirely possible that we still have a flash control for given tile
         // But technically it shouldn't matter, as it will just eventually set the flashing false and die out
-        for (Point point : points) {
-            if (getMapData().getTile(point).isFlashed(playerId)) {
-                getMapData().getTile(point).setFlashed(false, playerId);
-                tilesToUpdate.add(point);
-            }
-        }
+        List<Point> tilesToUpdate = mapData.setFlashed(points, false, playerId);
 
         // Notify listeners
         if (!tilesToUpdate.isEmpty()) {
@@ -747,6 +722,9 @@ public final class MapController extends Container implements IMapController {
     @Override
     public void processTick(float tpf, double gameTime) {
         this.update(tpf);
+
+        // Everything changed on the map since the last tick to the tile entities
+        mapData.publishChanges();
     }
 
     @Override
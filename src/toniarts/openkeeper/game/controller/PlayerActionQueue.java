@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.controller;
+
+import com.jme3.math.Vector2f;
+import com.simsilica.es.EntityId;
+import java.awt.Point;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import toniarts.openkeeper.game.logic.IGameLogicUpdatable;
+
+/**
+ * Queues the player actions to be executed on the game logic thread. The
+ * actions arrive from the network threads at any time, they are executed in
+ * the order they arrived at the start of the next game tick. So the game world
+ * is only ever modified from the game logic thread and the world doesn't need
+ * to be locked.<br>
+ * Safe to use from multiple threads.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class PlayerActionQueue implements IPlayerActions, IGameLogicUpdatable {
+
+    private final GameWorldController gameWorldController;
+    private final Queue<PlayerAction> actions = new ConcurrentLinkedQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private static final Logger LOGGER = Logger.getLogger(PlayerActionQueue.class.getName());
+
+    public PlayerActionQueue(GameWorldController gameWorldController) {
+        this.gameWorldController = gameWorldController;
+    }
+
+    @Override
+    public void build(Vector2f start, Vector2f end, short playerId, short roomId) {
+        execute(playerId, () -> gameWorldController.build(start, end, playerId, roomId));
+    }
+
+    @Override
+    public void sell(Vector2f start, Vector2f end, short playerId) {
+        execute(playerId, () -> gameWorldController.sell(start, end, playerId));
+    }
+
+    @Override
+    public void selectTiles(Vector2f start, Vector2f end, boolean select, short playerId) {
+        execute(playerId, () -> gameWorldController.selectTiles(start, end, select, playerId));
+    }
+
+    public void interact(EntityId entity, short playerId) {
+        execute(playerId, () -> gameWorldController.interact(entity, playerId));
+    }
+
+    public void pickUp(EntityId entity, short playerId) {
+        execute(playerId, () -> gameWorldController.pickUp(entity, playerId));
+    }
+
+    public void drop(EntityId entity, Point tile, Vector2f coordinates, EntityId dropOnEntity, short playerId) {
+        execute(playerId, () -> gameWorldController.drop(entity, tile, coordinates, dropOnEntity, playerId));
+    }
+
+    public void getGold(int amount, short playerId) {
+        execute(playerId, () -> gameWorldController.getGold(amount, playerId));
+    }
+
+    /**
+     * Queue any player action to be executed on the next game tick
+     *
+     * @param playerId the player doing the action
+     * @param action the action
+     */
+    public void execute(short playerId, Runnable action) {
+        actions.add(new PlayerAction(sequence.incrementAndGet(), System.nanoTime(), playerId, action));
+    }
+
+    @Override
+    public void processTick(float tpf, double gameTime) {
+
+        // Only the actions queued before this tick, the rest wait for the next one
+        long lastSequence = sequence.get();
+        PlayerAction action;
+        while ((action = actions.peek()) != null && action.sequence <= lastSequence) {
+            actions.poll();
+            try {
+                action.action.run();
+            } catch (Exception e) {
+                LOGGER.log(Level.SEVERE, "Failed to execute player " + action.playerId + " action queued " + (System.nanoTime() - action.timestamp) / 1000000 + " ms ago!", e);
+            }
+        }
+    }
+
+    @Override
+    public void start() {
+
+    }
+
+    @Override
+    public void stop() {
+        actions.clear();
+    }
+
+    private static final class PlayerAction {
+
+        private final long sequence;
+        private final long timestamp;
+        private final short playerId;
+        private final Runnable action;
+
+        public PlayerAction(long sequence, long timestamp, short playerId, Runnable action) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.playerId = playerId;
+            this.action = action;
+        }
+
+    }
+
+}
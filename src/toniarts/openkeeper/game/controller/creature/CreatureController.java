@@ -19,6 +19,7 @@ package toniarts.openkeeper.game.controller.creature;
 import com.badlogic.gdx.ai.fsm.DefaultStateMachine;
 import com.badlogic.gdx.ai.fsm.StateMachine;
 import com.badlogic.gdx.ai.pfa.GraphPath;
+import com.badlogic.gdx.math.Vector2;
 import com.jme3.math.FastMath;
 import com.jme3.math.Vector2f;
 import com.jme3.math.Vector3f;
@@ -28,6 +29,7 @@ import java.awt.Point;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import toniarts.openkeeper.game.component.Attack;
@@ -106,6 +108,10 @@ public class CreatureController extends EntityController implements ICreatureCon
     private float taskDuration = 0.0f;
     private boolean taskStarted = false;
     private float motionless = 0;
+    private CompletableFuture<GraphPath<IMapTileInformation>> pendingPath;
+    private Point pendingPathStart;
+    private Point pendingPathDestination;
+    private Point pendingPathFaceTarget;
 
     private static final Logger LOGGER = Logger.getLogger(CreatureController.class.getName());
 
@@ -420,7 +426,9 @@ public class CreatureController extends EntityController implements ICreatureCon
 
     @Override
     public boolean isStopped() {
-        return entityData.getComponent(entityId, Navigation.class) == null;
+
+        // We are still on the move if we are waiting for a path
+        return pendingPath == null && entityData.getComponent(entityId, Navigation.class) == null;
     }
 
     @Override
@@ -439,14 +447,51 @@ public class CreatureController extends EntityController implements ICreatureCon
         }
     }
 
-    private boolean createNavigation(Point currentLocation, Point destination, Point faceTarget) {
-        GraphPath<IMapTileInformation> path = navigationService.findPath(currentLocation, destination, this);
+    private void createNavigation(Point currentLocation, Point destination, Point faceTarget) {
+
+        // The path is searched in the background, we keep on our current path (if any) and wait for it in our ticks
+        pendingPath = navigationService.requestPath(currentLocation, destination, this);
+        pendingPathStart = currentLocation;
+        pendingPathDestination = destination;
+        pendingPathFaceTarget = faceTarget;
+        updatePendingNavigation();
+    }
+
+    private void updatePendingNavigation() {
+        if (pendingPath == null || !pendingPath.isDone()) {
+            return;
+        }
+
+        GraphPath<IMapTileInformation> path = null;
+        try {
+            path = pendingPath.getNow(null);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Path finding failed from " + pendingPathStart + " to " + pendingPathDestination + "!", e);
+        }
+        pendingPath = null;
+
+        // We might have been moved or knocked out while waiting, moving on our previous path for a tile is fine
+        Point currentLocation = entityData.getComponent(entityId, Position.class) != null ? getCreatureCoordinates() : null;
+        if (isIncapacitated() || currentLocation == null || !isWithinTile(pendingPathStart, currentLocation)) {
+            entityData.removeComponent(entityId, Navigation.class);
+            return;
+        }
         if (path == null) {
-            LOGGER.log(Level.WARNING, "No path from {0} to {1}", new Object[]{getCreatureCoordinates(), destination});
-            return true;
+            LOGGER.log(Level.WARNING, "No path from {0} to {1}", new Object[]{pendingPathStart, pendingPathDestination});
+            entityData.removeComponent(entityId, Navigation.class);
+            return;
         }
-        entityData.setComponent(entityId, new Navigation(destination, faceTarget, SteeringUtils.pathToList(path)));
-        return false;
+        List<Vector2> pathList = SteeringUtils.pathToList(path);
+        if (path.getCount() > 1 && path.get(1).getLocation().equals(currentLocation)) {
+
+            // Already past the start
+            pathList.remove(0);
+        }
+        entityData.setComponent(entityId, new Navigation(pendingPathDestination, pendingPathFaceTarget, pathList));
+    }
+
+    private static boolean isWithinTile(Point p1, Point p2) {
+        return Math.abs(p1.x - p2.x) <= 1 && Math.abs(p1.y - p2.y) <= 1;
     }
 
     @Override
@@ -520,7 +565,7 @@ public class CreatureController extends EntityController implements ICreatureCon
         Point ourPos = WorldUtils.vectorToPoint(getPosition());
         Point theirPos = WorldUtils.vectorToPoint(getPosition(entityData, entity));
 
-        return ourPos.equals(theirPos) || navigationService.findPath(ourPos, theirPos, this) != null;
+        return ourPos.equals(theirPos) || navigationService.isReachable(ourPos, theirPos, this);
     }
 
     private void setAttackTarget(EntityId entity) {
@@ -591,10 +636,11 @@ public class CreatureController extends EntityController implements ICreatureCon
         Vector3f targetPosition = getPosition(entityData, attackTarget);
         if (targetPosition != null) {
 
-            // Check if we are already going there
+            // Check if we are already going there, or next to it, no need to search a new path for every step the target takes
             Point destination = WorldUtils.vectorToPoint(targetPosition);
             Navigation currentNavigation = entityData.getComponent(entityId, Navigation.class);
-            if (currentNavigation != null && currentNavigation.target.equals(destination)) {
+            if ((currentNavigation != null && isWithinTile(currentNavigation.target, destination))
+                    || (pendingPath != null && isWithinTile(pendingPathDestination, destination))) {
                 return;
             }
 
@@ -813,6 +859,9 @@ public class CreatureController extends EntityController implements ICreatureCon
             initState();
         }
 
+        // See if the path we asked for has arrived
+        updatePendingNavigation();
+
         /**
          * The creatures have these time motionless stuff in different states,
          * they seem to equal to kind of re-evaluate what to do. We should
@@ -920,6 +969,7 @@ public class CreatureController extends EntityController implements ICreatureCon
 
     @Override
     public void stopCreature() {
+        pendingPath = null;
         entityData.removeComponent(entityId, Navigation.class);
     }
 
@@ -18,9 +18,6 @@ package toniarts.openkeeper.game.controller.creature;
 
 import java.util.Collection;
 import java.util.Set;
-import toniarts.openkeeper.game.controller.IMapController;
-import toniarts.openkeeper.game.logic.IEntityPositionLookup;
-import toniarts.openkeeper.game.map.IMapTileInformation;
 import toniarts.openkeeper.game.navigation.pathfinding.INavigable;
 import toniarts.openkeeper.tools.convert.map.Thing;
 
@@ -97,10 +94,4 @@ public interface IPartyController extends INavigable {
      */
     void create();
 
-    @Override
-    default public Float getCost(IMapTileInformation from, IMapTileInformation to, IMapController mapController, IEntityPositionLookup entityPositionLookup) {
-        return INavigable.super.getCost(from, to, mapController, entityPositionLookup);
-    }
-
-
 }
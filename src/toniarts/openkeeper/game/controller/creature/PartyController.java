@@ -226,30 +226,32 @@ public class PartyController implements IPartyController {
     }
 
     @Override
-    public Float getCost(IMapTileInformation from, IMapTileInformation to, IMapController mapController, IEntityPositionLookup entityPositionLookup) {
-        Float cost = IPartyController.super.getCost(from, to, mapController, entityPositionLookup);
-        if (cost == null) {
-
-            // No path by ordinary means, but we might want to tunnel or smash our way through obstacles
-            Terrain terrain = mapController.getTerrain(to);
-            if (terrain.getFlags().contains(Terrain.TerrainFlag.SOLID) && isWorkersAvailable()) {
-                if (terrain.getFlags().contains(Terrain.TerrainFlag.DWARF_CAN_DIG_THROUGH)) {
-                    return 5f; // Dig our selves in
-                }
-                if (terrain.getFlags().contains(Terrain.TerrainFlag.ATTACKABLE)) {
-                    return 6f; // It seems that everybody can attack reinforced walls i.e. ?
-                }
+    public boolean canPassObstacles() {
+        return true;
+    }
+
+    @Override
+    public Float getObstacleCost(IMapTileInformation from, IMapTileInformation to, IMapController mapController, IEntityPositionLookup entityPositionLookup) {
+
+        // No path by ordinary means, but we might want to tunnel or smash our way through obstacles
+        Terrain terrain = mapController.getTerrain(to);
+        if (terrain.getFlags().contains(Terrain.TerrainFlag.SOLID) && isWorkersAvailable()) {
+            if (terrain.getFlags().contains(Terrain.TerrainFlag.DWARF_CAN_DIG_THROUGH)) {
+                return 5f; // Dig our selves in
+            }
+            if (terrain.getFlags().contains(Terrain.TerrainFlag.ATTACKABLE)) {
+                return 6f; // It seems that everybody can attack reinforced walls i.e. ?
             }
+        }
 
-            // Check if any obstacles lies in our path, we can smash through enemy doors but not our own locked doors
-            // FIXME: now just doors
-            for (IDoorController doorController : entityPositionLookup.getEntityTypesInLocation(to, IDoorController.class)) {
-                if (doorController.getOwnerId() != getOwnerId()) {
-                    return 3f;
-                }
+        // Check if any obstacles lies in our path, we can smash through enemy doors but not our own locked doors
+        // FIXME: now just doors
+        for (IDoorController doorController : entityPositionLookup.getEntityTypesInLocation(to, IDoorController.class)) {
+            if (doorController.getOwnerId() != getOwnerId()) {
+                return 3f;
             }
         }
-        return cost;
+        return null;
     }
 
     @Override
@@ -28,6 +28,12 @@ import java.util.Set;
 import toniarts.openkeeper.game.component.CreatureAi;
 import toniarts.openkeeper.game.component.CreatureComponent;
 import toniarts.openkeeper.game.component.CreatureExperience;
+import toniarts.openkeeper.game.component.CreatureMeleeAttack;
+import toniarts.openkeeper.game.component.Gold;
+import toniarts.openkeeper.game.component.Health;
+import toniarts.openkeeper.game.component.Regeneration;
+import toniarts.openkeeper.game.component.Senses;
+import toniarts.openkeeper.game.component.Threat;
 import toniarts.openkeeper.game.controller.ICreaturesController;
 import toniarts.openkeeper.game.controller.creature.CreatureState;
 import toniarts.openkeeper.tools.convert.map.KwdFile;
@@ -44,6 +50,15 @@ import toniarts.openkeeper.utils.Utils;
  */
 public class CreatureExperienceSystem implements IGameLogicUpdatable {
 
+    private static final Set<Class<?>> READS = Set.of(CreatureComponent.class, CreatureExperience.class, CreatureAi.class, Health.class,
+            Gold.class, Senses.class, Threat.class, CreatureMeleeAttack.class, Regeneration.class);
+
+    /**
+     * Leveling up rewrites all the stats
+     */
+    private static final Set<Class<?>> WRITES = Set.of(CreatureComponent.class, CreatureExperience.class, Health.class,
+            Gold.class, Senses.class, Threat.class, CreatureMeleeAttack.class, Regeneration.class);
+
     private final KwdFile kwdFile;
     private final EntitySet experienceEntities;
     private final EntityData entityData;
@@ -153,4 +168,14 @@ public class CreatureExperienceSystem implements IGameLogicUpdatable {
         timeWorkingByEntityId.clear();
     }
 
+    @Override
+    public Set<Class<?>> getReads() {
+        return READS;
+    }
+
+    @Override
+    public Set<Class<?>> getWrites() {
+        return WRITES;
+    }
+
 }
@@ -19,7 +19,9 @@ package toniarts.openkeeper.game.logic;
 import com.simsilica.es.Entity;
 import com.simsilica.es.EntityData;
 import com.simsilica.es.EntitySet;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
 import toniarts.openkeeper.game.component.CreatureComponent;
 import toniarts.openkeeper.game.component.CreatureTortured;
 import toniarts.openkeeper.game.component.Health;
@@ -34,6 +36,8 @@ import toniarts.openkeeper.tools.convert.map.Variable;
  */
 public class CreatureTorturingSystem implements IGameLogicUpdatable {
 
+    private static final Set<Class<?>> READS = Set.of(CreatureTortured.class, CreatureComponent.class, Position.class, Health.class);
+
     private final EntityData entityData;
     private final EntitySet torturedEntities;
 
@@ -70,4 +74,14 @@ public class CreatureTorturingSystem implements IGameLogicUpdatable {
         torturedEntities.release();
     }
 
+    @Override
+    public Set<Class<?>> getReads() {
+        return READS;
+    }
+
+    @Override
+    public Set<Class<?>> getWrites() {
+        return Collections.emptySet();
+    }
+
 }
@@ -42,6 +42,10 @@ import toniarts.openkeeper.tools.convert.map.Creature;
  */
 public class CreatureViewSystem implements IGameLogicUpdatable {
 
+    private static final Set<Class<?>> READS = Set.of(CreatureViewState.class, Position.class, Navigation.class, Death.class,
+            Unconscious.class, TaskComponent.class, CreatureAi.class);
+    private static final Set<Class<?>> WRITES = Set.of(CreatureViewState.class);
+
     private final EntityData entityData;
     private final EntitySet creatureViewEntities;
 
@@ -123,6 +127,16 @@ public class CreatureViewSystem implements IGameLogicUpdatable {
         creatureEntities.clear();
     }
 
+    @Override
+    public Set<Class<?>> getReads() {
+        return READS;
+    }
+
+    @Override
+    public Set<Class<?>> getWrites() {
+        return WRITES;
+    }
+
     private static Creature.AnimationType getAnimation(CreatureState creatureState) {
         switch (creatureState) {
             case IDLE:
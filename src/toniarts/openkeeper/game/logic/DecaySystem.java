@@ -18,12 +18,14 @@ package toniarts.openkeeper.game.logic;
 
 import com.jme3.util.SafeArrayList;
 import com.simsilica.es.Entity;
+import com.simsilica.es.EntityComponent;
 import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
 import com.simsilica.es.EntitySet;
 import java.util.Collections;
 import java.util.Set;
 import java.util.logging.Logger;
+import toniarts.openkeeper.game.component.Damage;
 import toniarts.openkeeper.game.component.Decay;
 import toniarts.openkeeper.game.component.Health;
 import toniarts.openkeeper.game.component.Position;
@@ -36,6 +38,9 @@ import toniarts.openkeeper.game.controller.entity.EntityController;
  */
 public class DecaySystem implements IGameLogicUpdatable {
 
+    private static final Set<Class<?>> READS = Set.of(Decay.class, Position.class, Health.class, Damage.class);
+    private static final Set<Class<?>> WRITES = Set.of(Decay.class, Damage.class, EntityComponent.class);
+
     private final EntitySet decayEntities;
     private final EntityData entityData;
     private final SafeArrayList<EntityId> entityIds;
@@ -106,4 +111,14 @@ public class DecaySystem implements IGameLogicUpdatable {
         entityIds.clear();
     }
 
+    @Override
+    public Set<Class<?>> getReads() {
+        return READS;
+    }
+
+    @Override
+    public Set<Class<?>> getWrites() {
+        return WRITES;
+    }
+
 }
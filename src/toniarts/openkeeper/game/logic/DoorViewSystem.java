@@ -23,6 +23,7 @@ import com.simsilica.es.EntityId;
 import com.simsilica.es.EntitySet;
 import com.simsilica.es.filter.AndFilter;
 import com.simsilica.es.filter.FieldFilter;
+import java.awt.Point;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
@@ -42,6 +43,13 @@ import toniarts.openkeeper.utils.WorldUtils;
  */
 public class DoorViewSystem implements IGameLogicUpdatable {
 
+    /**
+     * The entities on the door tile are looked up from the position lookup
+     */
+    private static final Set<Class<?>> READS = Set.of(DoorViewState.class, DoorComponent.class, Position.class, Owner.class,
+            CreatureComponent.class, IEntityPositionLookup.class);
+    private static final Set<Class<?>> WRITES = Set.of(DoorViewState.class);
+
     private final EntitySet doorEntities;
 
     private final EntityData entityData;
@@ -76,8 +84,9 @@ public class DoorViewSystem implements IGameLogicUpdatable {
             Entity doorEntity = doorEntities.getEntity(doorEntityId);
             boolean shouldBeOpen = false;
             Position position = doorEntity.get(Position.class);
-            List<EntityId> entitiesInSameTile = entityPositionLookup.getEntitiesInLocation(WorldUtils.vectorToPoint(position.position));
-            if (entitiesInSameTile.size() > 1) {
+            Point p = WorldUtils.vectorToPoint(position.position);
+            if (entityPositionLookup.getEntityCountInLocation(p.x, p.y) > 1) {
+                List<EntityId> entitiesInSameTile = entityPositionLookup.getEntitiesInLocation(p);
                 Owner owner = doorEntity.get(Owner.class);
                 for (EntityId entityId : entitiesInSameTile) {
                     if (doorEntityId != entityId) {
@@ -128,4 +137,14 @@ public class DoorViewSystem implements IGameLogicUpdatable {
         doorEntityIds.clear();
     }
 
+    @Override
+    public Set<Class<?>> getReads() {
+        return READS;
+    }
+
+    @Override
+    public Set<Class<?>> getWrites() {
+        return WRITES;
+    }
+
 }
@@ -16,13 +16,28 @@
  */
 package toniarts.openkeeper.game.logic;
 
+import com.simsilica.es.EntityComponent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import toniarts.openkeeper.utils.GameLoopMetrics;
 import toniarts.openkeeper.utils.IGameLoopManager;
+import toniarts.openkeeper.utils.TickStatistics;
 
 /**
- * Runs the game logic tasks, well, doesn't literally run them but wraps them up
+ * Runs the game logic tasks, well, doesn't literally run them but wraps them
+ * up.<br>
+ * The updatables are scheduled in stages by the data they declare to read and
+ * write. Updatables in the same stage don't share any written data and are run
+ * in parallel. The ones that do share are run in the given order, as are all
+ * the updatables that don't declare anything. All the managers share the same
+ * thread pool.
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
@@ -31,10 +46,76 @@ public class GameLogicManager implements IGameLoopManager {
     private long ticks = 0;
     private double timeElapsed = 0.0;
     protected final IGameLogicUpdatable[] updatables;
+    private final List<int[]> stages;
+    private TickStatistics[] systemStatistics;
+    private GameLoopMetrics metrics;
+    private ForkJoinPool forkJoinPool;
     private static final Logger LOGGER = Logger.getLogger(GameLogicManager.class.getName());
 
     public GameLogicManager(IGameLogicUpdatable... updatables) {
         this.updatables = updatables;
+        this.stages = createStages(updatables);
+    }
+
+    private static List<int[]> createStages(IGameLogicUpdatable[] updatables) {
+
+        // Each updatable goes to the earliest stage after all the conflicting ones before it
+        int[] stageIndices = new int[updatables.length];
+        List<List<Integer>> stageList = new ArrayList<>();
+        for (int i = 0; i < updatables.length; i++) {
+            int stageIndex = 0;
+            for (int j = 0; j < i; j++) {
+                if (isConflicting(updatables[i], updatables[j])) {
+                    stageIndex = Math.max(stageIndex, stageIndices[j] + 1);
+                }
+            }
+            stageIndices[i] = stageIndex;
+            if (stageIndex == stageList.size()) {
+                stageList.add(new ArrayList<>());
+            }
+            stageList.get(stageIndex).add(i);
+        }
+
+        List<int[]> result = new ArrayList<>(stageList.size());
+        for (List<Integer> stage : stageList) {
+            result.add(stage.stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        return result;
+    }
+
+    private static boolean isConflicting(IGameLogicUpdatable updatable, IGameLogicUpdatable other) {
+        Set<Class<?>> reads = updatable.getReads();
+        Set<Class<?>> writes = updatable.getWrites();
+        Set<Class<?>> otherReads = other.getReads();
+        Set<Class<?>> otherWrites = other.getWrites();
+        if (reads == null || writes == null || otherReads == null || otherWrites == null) {
+            return true;
+        }
+
+        return isOverlapping(writes, otherReads) || isOverlapping(writes, otherWrites) || isOverlapping(otherWrites, reads);
+    }
+
+    private static boolean isOverlapping(Set<Class<?>> writes, Set<Class<?>> accessed) {
+        if (!Collections.disjoint(writes, accessed)) {
+            return true;
+        }
+
+        // Creating and removing entities touches all the components
+        if (writes.contains(EntityComponent.class)) {
+            for (Class<?> type : accessed) {
+                if (EntityComponent.class.isAssignableFrom(type)) {
+                    return true;
+                }
+            }
+        }
+        for (Class<?> type : writes) {
+            if (EntityComponent.class.isAssignableFrom(type) && accessed.contains(EntityComponent.class)) {
+                return true;
+            }
+        }
+
+        return false;
     }
 
     @Override
@@ -42,6 +123,14 @@ public class GameLogicManager implements IGameLoopManager {
         for (IGameLogicUpdatable updatable : updatables) {
             updatable.start();
         }
+
+        // Only bother with the threads if there is something to run in parallel
+        for (int[] stage : stages) {
+            if (stage.length > 1) {
+                forkJoinPool = SharedPool.POOL;
+                break;
+            }
+        }
     }
 
     @Override
@@ -52,11 +141,23 @@ public class GameLogicManager implements IGameLoopManager {
         float tpf = delta / 1000000000f;
 
         // Update updatables
-        for (IGameLogicUpdatable updatable : updatables) {
-            try {
-                updatable.processTick(tpf, timeElapsed);
-            } catch (Exception e) {
-                LOGGER.log(Level.SEVERE, "Error in game logic tick on " + updatable.getClass() + "!", e);
+        for (int[] stage : stages) {
+            if (stage.length == 1 || forkJoinPool == null) {
+                for (int index : stage) {
+                    processTick(index, tpf);
+                }
+                continue;
+            }
+
+            // Fork the rest and do the first one ourselves
+            ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[stage.length - 1];
+            for (int i = 1; i < stage.length; i++) {
+                int index = stage[i];
+                tasks[i - 1] = forkJoinPool.submit(() -> processForkedTick(index, tpf));
+            }
+            processTick(stage[0], tpf);
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
             }
         }
 
@@ -69,8 +170,47 @@ public class GameLogicManager implements IGameLoopManager {
         ticks++;
     }
 
+    /**
+     * Tick a system on a pool thread. The loop metrics are bound to the pool
+     * thread meanwhile, like they are to the loop thread
+     */
+    private void processForkedTick(int index, float tpf) {
+        GameLoopMetrics previous = GameLoopMetrics.setCurrent(metrics);
+        try {
+            processTick(index, tpf);
+        } finally {
+            GameLoopMetrics.setCurrent(previous);
+        }
+    }
+
+    private void processTick(int index, float tpf) {
+        IGameLogicUpdatable updatable = updatables[index];
+        TickStatistics statistics = systemStatistics != null ? systemStatistics[index] : null;
+        long start = statistics != null ? System.nanoTime() : 0;
+        long allocated = statistics != null ? TickStatistics.getAllocatedBytes() : 0;
+        try {
+            updatable.processTick(tpf, timeElapsed);
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Error in game logic tick on " + updatable.getClass() + "!", e);
+        }
+        if (statistics != null) {
+            statistics.record(System.nanoTime() - start, allocated >= 0 ? TickStatistics.getAllocatedBytes() - allocated : -1);
+        }
+    }
+
+    @Override
+    public void setMetrics(GameLoopMetrics metrics) {
+        TickStatistics[] statistics = new TickStatistics[updatables.length];
+        for (int i = 0; i < updatables.length; i++) {
+            statistics[i] = metrics.createSystemStatistics(updatables[i].getClass().getSimpleName());
+        }
+        systemStatistics = statistics;
+        this.metrics = metrics;
+    }
+
     @Override
     public void stop() {
+        forkJoinPool = null;
         for (IGameLogicUpdatable updatable : updatables) {
             updatable.stop();
         }
@@ -141,4 +281,15 @@ public class GameLogicManager implements IGameLoopManager {
     public long getTicks() {
         return ticks;
     }
+
+    /**
+     * The pool for the parallel stages, shared by all the game loops and games
+     * so that they don't oversubscribe the cores. Created on first use, the
+     * threads are daemons and idle ones die off by themselves.
+     */
+    private static final class SharedPool {
+
+        private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+
+    }
 }
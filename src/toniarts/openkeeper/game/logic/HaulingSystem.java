@@ -20,6 +20,7 @@ import com.jme3.math.Vector3f;
 import com.simsilica.es.Entity;
 import com.simsilica.es.EntityData;
 import com.simsilica.es.EntitySet;
+import java.util.Set;
 import toniarts.openkeeper.game.component.HauledBy;
 import toniarts.openkeeper.game.component.Position;
 
@@ -30,6 +31,9 @@ import toniarts.openkeeper.game.component.Position;
  */
 public class HaulingSystem implements IGameLogicUpdatable {
 
+    private static final Set<Class<?>> READS = Set.of(HauledBy.class, Position.class);
+    private static final Set<Class<?>> WRITES = Set.of(HauledBy.class, Position.class);
+
     private final EntityData entityData;
     private final EntitySet hauledEntities;
 
@@ -71,4 +75,14 @@ public class HaulingSystem implements IGameLogicUpdatable {
         hauledEntities.release();
     }
 
+    @Override
+    public Set<Class<?>> getReads() {
+        return READS;
+    }
+
+    @Override
+    public Set<Class<?>> getWrites() {
+        return WRITES;
+    }
+
 }
@@ -20,6 +20,7 @@ import com.simsilica.es.EntityId;
 import java.awt.Point;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 import toniarts.openkeeper.game.controller.entity.IEntityController;
 import toniarts.openkeeper.game.map.IMapTileInformation;
 
@@ -55,6 +56,54 @@ public interface IEntityPositionLookup {
      */
     List<EntityId> getEntitiesInLocation(IMapTileInformation mapTile);
 
+    /**
+     * Get the number of entities in specified map point
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the number of entities in given location
+     */
+    int getEntityCountInLocation(int x, int y);
+
+    /**
+     * Visit the entities in specified map point. No result list is built,
+     * unlike with the list returning variants, but a capturing visitor is
+     * still an allocation of its own. Don't move entities while visiting.
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @param visitor called for each entity in given location
+     */
+    void visitEntitiesInLocation(int x, int y, Consumer<EntityId> visitor);
+
+    /**
+     * Visit the entities in specified map area. No result list is built. Don't
+     * move entities while visiting.
+     *
+     * @param x1 the start x coordinate
+     * @param y1 the start y coordinate
+     * @param x2 the end x coordinate, inclusive
+     * @param y2 the end y coordinate, inclusive
+     * @param visitor called for each entity in given area
+     */
+    void visitEntitiesInArea(int x1, int y1, int x2, int y2, Consumer<EntityId> visitor);
+
+    /**
+     * Visit the entities of given type in specified map area, i.e. the
+     * creatures inside an action point. No result list is built, but a
+     * controller is created for each entity visited. Don't move entities while
+     * visiting.
+     *
+     * @param <T> the controller class type
+     * @param x1 the start x coordinate
+     * @param y1 the start y coordinate
+     * @param x2 the end x coordinate, inclusive
+     * @param y2 the end y coordinate, inclusive
+     * @param clazz the controller class
+     * @param visitor called for each entity of given type in given area
+     */
+    <T extends IEntityController> void visitEntityTypesInArea(int x1, int y1, int x2, int y2, Class<T> clazz, Consumer<T> visitor);
+
     /**
      * Get the map tile of an entity
      *
@@ -16,6 +16,8 @@
  */
 package toniarts.openkeeper.game.logic;
 
+import java.util.Set;
+
 /**
  * Simple interface for enabling game logic update
  *
@@ -43,4 +45,31 @@ public interface IGameLogicUpdatable {
      */
     public void processTick(float tpf, double gameTime);
 
+    /**
+     * The data this updatable reads during a tick. Entity component classes,
+     * or classes standing for some other shared state. Updatables that don't
+     * touch the same data may be run in parallel.
+     *
+     * @return the classes read, {@code null} if not known. Then the updatable
+     * is always run alone
+     * @see GameLogicManager
+     */
+    default Set<Class<?>> getReads() {
+        return null;
+    }
+
+    /**
+     * The data this updatable writes during a tick. Entity component classes,
+     * or classes standing for some other shared state. Creating or removing
+     * entities is marked with the {@link com.simsilica.es.EntityComponent}
+     * class itself.
+     *
+     * @return the classes written, {@code null} if not known. Then the
+     * updatable is always run alone
+     * @see GameLogicManager
+     */
+    default Set<Class<?>> getWrites() {
+        return null;
+    }
+
 }
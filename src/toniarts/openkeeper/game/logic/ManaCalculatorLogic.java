@@ -36,6 +36,9 @@ import toniarts.openkeeper.game.controller.player.PlayerManaControl;
  */
 public class ManaCalculatorLogic implements IGameLogicUpdatable {
 
+    private static final Set<Class<?>> READS = Set.of(Mana.class, Owner.class);
+    private static final Set<Class<?>> WRITES = Set.of(PlayerManaControl.class);
+
     private float tick = 0;
     private final EntitySet manaEntities;
     private final Map<EntityId, Short> ownerIdsByEntityId = new HashMap<>();
@@ -85,6 +88,16 @@ public class ManaCalculatorLogic implements IGameLogicUpdatable {
         manaEntities.release();
     }
 
+    @Override
+    public Set<Class<?>> getReads() {
+        return READS;
+    }
+
+    @Override
+    public Set<Class<?>> getWrites() {
+        return WRITES;
+    }
+
     private void updateManaSources() {
         if (manaEntities.applyChanges()) {
 
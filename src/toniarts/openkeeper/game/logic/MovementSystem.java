@@ -18,6 +18,8 @@ package toniarts.openkeeper.game.logic;
 
 import com.badlogic.gdx.ai.steer.SteeringAcceleration;
 import com.badlogic.gdx.math.Vector2;
+import com.jme3.math.FastMath;
+import com.jme3.math.Vector3f;
 import com.jme3.util.SafeArrayList;
 import com.simsilica.es.Entity;
 import com.simsilica.es.EntityData;
@@ -63,6 +65,12 @@ public class MovementSystem implements IGameLogicUpdatable {
 
     private final static boolean INDEPENDENT_FACING = false;
 
+    /**
+     * Turning alone publishes a new position only after this much, the
+     * steering adjusts the facing by tiny bits all the time
+     */
+    private final static float ROTATION_THRESHOLD = FastMath.PI / 32;
+
     private static final Logger LOGGER = Logger.getLogger(MovementSystem.class.getName());
 
     public MovementSystem(EntityData entityData) {
@@ -207,14 +215,16 @@ public class MovementSystem implements IGameLogicUpdatable {
             steerableEntity.setOrientation(newOrientation);
         }
 
-        // Also update the real components
+        // Also update the real components, but only when the quantised position
+        // changes. Saves a lot of change events and network traffic with the slow movers
         Position oldPosition = entityData.getComponent(entityId, Position.class);
         if (oldPosition != null) {
-
-            // Re-use the vector, the position might be already removed from another thread
-            oldPosition.position.x = steerableEntity.getPosition().x;
-            oldPosition.position.z = steerableEntity.getPosition().y;
-            entityData.setComponent(entityId, new Position(-steerableEntity.getOrientation(), oldPosition.position));
+            float x = Position.quantizePosition(steerableEntity.getPosition().x);
+            float z = Position.quantizePosition(steerableEntity.getPosition().y);
+            float rotation = Position.quantizeRotation(-steerableEntity.getOrientation());
+            if (x != oldPosition.position.x || z != oldPosition.position.z || Math.abs(rotation - oldPosition.rotation) >= ROTATION_THRESHOLD) {
+                entityData.setComponent(entityId, new Position(rotation, new Vector3f(x, oldPosition.position.y, z)));
+            }
         }
     }
 
@@ -38,6 +38,9 @@ import toniarts.openkeeper.tools.convert.map.KwdFile;
  */
 public class PlayerCreatureSystem implements IGameLogicUpdatable {
 
+    private static final Set<Class<?>> READS = Set.of(CreatureComponent.class, Health.class, Owner.class);
+    private static final Set<Class<?>> WRITES = Set.of(PlayerCreatureControl.class);
+
     private final KwdFile kwdFile;
     private final EntitySet creatureEntities;
     private final Map<Short, PlayerCreatureControl> creatureControls = new HashMap<>(4);
@@ -115,4 +118,14 @@ public class PlayerCreatureSystem implements IGameLogicUpdatable {
         creatureEntities.release();
     }
 
+    @Override
+    public Set<Class<?>> getReads() {
+        return READS;
+    }
+
+    @Override
+    public Set<Class<?>> getWrites() {
+        return WRITES;
+    }
+
 }
@@ -41,6 +41,9 @@ import toniarts.openkeeper.tools.convert.map.KwdFile;
  */
 public class PlayerSpellbookSystem implements IGameLogicUpdatable {
 
+    private static final Set<Class<?>> READS = Set.of(Spellbook.class, RoomStorage.class, Owner.class);
+    private static final Set<Class<?>> WRITES = Set.of(AbstractResearchablePlayerControl.class);
+
     private final KwdFile kwdFile;
     private final EntitySet spellbookEntities;
     private final Map<Short, IPlayerController> playerControllersByPlayerId = new HashMap<>(4);
@@ -122,6 +125,16 @@ public class PlayerSpellbookSystem implements IGameLogicUpdatable {
         spellbookEntities.release();
     }
 
+    @Override
+    public Set<Class<?>> getReads() {
+        return READS;
+    }
+
+    @Override
+    public Set<Class<?>> getWrites() {
+        return WRITES;
+    }
+
     private static AbstractResearchablePlayerControl getResearchablePlayerControl(Map<Short, IPlayerController> playerControllersByPlayerId, short ownerId, Spellbook spellbook) {
         IPlayerController playerController = playerControllersByPlayerId.get(ownerId);
         if (playerController != null) {
@@ -17,17 +17,26 @@
 package toniarts.openkeeper.game.logic;
 
 import com.simsilica.es.Entity;
+import com.simsilica.es.EntityComponent;
 import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
 import com.simsilica.es.EntitySet;
 import java.awt.Point;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import toniarts.openkeeper.game.component.CreatureComponent;
 import toniarts.openkeeper.game.component.DoorComponent;
 import toniarts.openkeeper.game.component.Owner;
 import toniarts.openkeeper.game.component.Position;
@@ -41,12 +50,16 @@ import toniarts.openkeeper.game.controller.creature.ICreatureController;
 import toniarts.openkeeper.game.controller.door.IDoorController;
 import toniarts.openkeeper.game.controller.entity.EntityController;
 import toniarts.openkeeper.game.controller.entity.IEntityController;
+import toniarts.openkeeper.game.listener.MapListener;
 import toniarts.openkeeper.game.map.IMapTileInformation;
-import toniarts.openkeeper.tools.convert.map.Terrain;
 import toniarts.openkeeper.utils.WorldUtils;
 
 /**
- * Maintains a tile based position map of all the entities for a quick lookup
+ * Maintains a tile based position map of all the entities for a quick lookup.
+ * The entities are kept in a grid indexed by the map tile index, with separate
+ * grids for the entity types we have wrappers for. The visitor style queries
+ * don't build result lists. Entities positioned outside the map are not on
+ * any tile.
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
@@ -56,11 +69,18 @@ public class PositionSystem implements IGameLogicUpdatable, IEntityPositionLooku
     private final IMapController mapController;
     private final IObjectsController objectsController;
     private final EntitySet positionedEntities;
-    private final Map<IMapTileInformation, Set<EntityId>> entitiesByMapTile = new HashMap<>();
-    private final Map<IMapTileInformation, Set<EntityId>> obstaclesByMapTile = new HashMap<>();
+    private final TileEntityGrid entityGrid;
+    private final Map<Class, EntityTypeGrid> entityTypeGrids = new HashMap<>();
+    /**
+     * Obstacles are queried by the path finding, possibly from other threads
+     */
+    private final Map<IMapTileInformation, Set<EntityId>> obstaclesByMapTile = new ConcurrentHashMap<>();
     private final Map<EntityId, IMapTileInformation> mapTilesByEntities = new HashMap<>();
     private final Map<Class, IEntityWrapper<?>> entityWrappers = new HashMap<>();
 
+    private final SenseNeighbourhoods senseNeighbourhoods;
+    private final Queue<List<Point>> updatedTiles = new ConcurrentLinkedQueue<>();
+    private final Map<Long, Set<EntityId>> sensedEntitiesByTile = new HashMap<>();
     private final Map<EntityId, Set<EntityId>> sensedEntitiesByEntity = new HashMap<>();
 
     public PositionSystem(IMapController mapController, EntityData entityData, ICreaturesController creaturesController, IDoorsController doorsController, IObjectsController objectsController) {
@@ -70,6 +90,29 @@ public class PositionSystem implements IGameLogicUpdatable, IEntityPositionLooku
         entityWrappers.put(ICreatureController.class, creaturesController);
         entityWrappers.put(IDoorController.class, doorsController);
 
+        int width = mapController.getMapData().getWidth();
+        int height = mapController.getMapData().getHeight();
+        entityGrid = new TileEntityGrid(width, height);
+        entityTypeGrids.put(ICreatureController.class, new EntityTypeGrid(CreatureComponent.class, width, height));
+        entityTypeGrids.put(IDoorController.class, new EntityTypeGrid(DoorComponent.class, width, height));
+
+        senseNeighbourhoods = new SenseNeighbourhoods(mapController);
+        mapController.addListener(new MapListener() {
+
+            @Override
+            public void onTilesChange(List<Point> tiles) {
+
+                // Might not come from the game logic thread
+                updatedTiles.add(tiles);
+            }
+
+            @Override
+            public void onTileFlash(List<Point> points, boolean enabled, short keeperId) {
+                // Not interested
+            }
+
+        });
+
         positionedEntities = entityData.getEntities(Position.class);
         processAddedEntities(positionedEntities);
     }
@@ -78,8 +121,14 @@ public class PositionSystem implements IGameLogicUpdatable, IEntityPositionLooku
     public void processTick(float tpf, double gameTime) {
 
         // This is just a cache for a tick
+        sensedEntitiesByTile.clear();
         sensedEntitiesByEntity.clear();
 
+        List<Point> tiles;
+        while ((tiles = updatedTiles.poll()) != null) {
+            senseNeighbourhoods.updateTiles(tiles);
+        }
+
         if (positionedEntities.applyChanges()) {
 
             processAddedEntities(positionedEntities.getAddedEntities());
@@ -88,6 +137,10 @@ public class PositionSystem implements IGameLogicUpdatable, IEntityPositionLooku
 
             processChangedEntities(positionedEntities.getChangedEntities());
         }
+
+        for (EntityTypeGrid entityTypeGrid : entityTypeGrids.values()) {
+            entityTypeGrid.update();
+        }
     }
 
     private void processChangedEntities(Set<Entity> entities) {
@@ -98,38 +151,39 @@ public class PositionSystem implements IGameLogicUpdatable, IEntityPositionLooku
             IMapTileInformation currentMapTile = mapController.getMapData().getTile(p);
 
             IMapTileInformation previousMapTile = mapTilesByEntities.get(entity.getId());
-            if (!currentMapTile.equals(previousMapTile)) {
+            if (currentMapTile == null ? previousMapTile != null : !currentMapTile.equals(previousMapTile)) {
 
                 // Moved
-                mapTilesByEntities.put(entity.getId(), currentMapTile);
-                entitiesByMapTile.get(previousMapTile).remove(entity.getId());
-
-                // Obstacles
-                if (obstaclesByMapTile.containsKey(previousMapTile)) {
-                    obstaclesByMapTile.get(previousMapTile).remove(entity.getId());
+                if (previousMapTile != null) {
+                    removeEntityFromTile(previousMapTile, entity.getId());
+                }
+                if (currentMapTile != null) {
+                    mapTilesByEntities.put(entity.getId(), currentMapTile);
+                    addEntityToTile(currentMapTile, entity);
+                } else {
+                    mapTilesByEntities.remove(entity.getId());
                 }
-
-                addEntityToTile(currentMapTile, entity);
             }
         }
     }
 
     private void addEntityToTile(IMapTileInformation mapTile, Entity entity) {
-        Set<EntityId> entitiesInTile = entitiesByMapTile.get(mapTile);
-        if (entitiesInTile == null) {
-            entitiesInTile = new HashSet<>();
-        }
-        entitiesInTile.add(entity.getId());
-        entitiesByMapTile.put(mapTile, entitiesInTile);
+        entityGrid.add(mapTile.getIndex(), entity.getId());
 
         // Obstacles
         if (isObstacle(entityData, entity.getId())) {
-            Set<EntityId> obstaclesInTile = entitiesByMapTile.get(mapTile);
-            if (obstaclesInTile == null) {
-                obstaclesInTile = new HashSet<>();
-            }
+            Set<EntityId> obstaclesInTile = obstaclesByMapTile.computeIfAbsent(mapTile, (tile) -> ConcurrentHashMap.newKeySet());
             obstaclesInTile.add(entity.getId());
-            obstaclesByMapTile.put(mapTile, obstaclesInTile);
+        }
+    }
+
+    private void removeEntityFromTile(IMapTileInformation mapTile, EntityId entityId) {
+        entityGrid.remove(mapTile.getIndex(), entityId);
+
+        // Obstacles
+        Set<EntityId> obstacles = obstaclesByMapTile.get(mapTile);
+        if (obstacles != null) {
+            obstacles.remove(entityId);
         }
     }
 
@@ -138,10 +192,8 @@ public class PositionSystem implements IGameLogicUpdatable, IEntityPositionLooku
         // Remove
         for (Entity entity : entities) {
             IMapTileInformation mapTile = mapTilesByEntities.remove(entity.getId());
-            entitiesByMapTile.get(mapTile).remove(entity.getId());
-            Set<EntityId> obstacles = obstaclesByMapTile.get(mapTile);
-            if (obstacles != null) {
-                obstacles.remove(entity.getId());
+            if (mapTile != null) {
+                removeEntityFromTile(mapTile, entity.getId());
             }
         }
     }
@@ -152,6 +204,9 @@ public class PositionSystem implements IGameLogicUpdatable, IEntityPositionLooku
         for (Entity entity : entities) {
             Point p = WorldUtils.vectorToPoint(entity.get(Position.class).position);
             IMapTileInformation mapTile = mapController.getMapData().getTile(p);
+            if (mapTile == null) {
+                continue;
+            }
             mapTilesByEntities.put(entity.getId(), mapTile);
 
             addEntityToTile(mapTile, entity);
@@ -172,12 +227,62 @@ public class PositionSystem implements IGameLogicUpdatable, IEntityPositionLooku
 
     @Override
     public List<EntityId> getEntitiesInLocation(IMapTileInformation mapTile) {
-        Set<EntityId> entityId = entitiesByMapTile.get(mapTile);
-        if (entityId != null) {
-            return new ArrayList<>(entityId);
+        if (mapTile == null) {
+            return Collections.emptyList();
+        }
+        int index = mapTile.getIndex();
+        int count = entityGrid.getCount(index);
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+
+        List<EntityId> entities = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entities.add(entityGrid.get(index, i));
         }
+        return entities;
+    }
+
+    @Override
+    public int getEntityCountInLocation(int x, int y) {
+        IMapTileInformation mapTile = mapController.getMapData().getTile(x, y);
+        return mapTile != null ? entityGrid.getCount(mapTile.getIndex()) : 0;
+    }
+
+    @Override
+    public void visitEntitiesInLocation(int x, int y, Consumer<EntityId> visitor) {
+        IMapTileInformation mapTile = mapController.getMapData().getTile(x, y);
+        if (mapTile != null) {
+            entityGrid.visit(mapTile.getIndex(), visitor);
+        }
+    }
+
+    @Override
+    public void visitEntitiesInArea(int x1, int y1, int x2, int y2, Consumer<EntityId> visitor) {
+        entityGrid.visit(x1, y1, x2, y2, visitor);
+    }
 
-        return Collections.emptyList();
+    @Override
+    public <T extends IEntityController> void visitEntityTypesInArea(int x1, int y1, int x2, int y2, Class<T> clazz, Consumer<T> visitor) {
+        IEntityWrapper<T> entityWrapper = getEntityWrapper(clazz);
+        TileEntityGrid entityTypeGrid = entityTypeGrids.get(clazz).grid;
+        int width = mapController.getMapData().getWidth();
+        int height = mapController.getMapData().getHeight();
+        int startX = Math.max(0, Math.min(x1, x2));
+        int startY = Math.max(0, Math.min(y1, y2));
+        int endX = Math.min(width - 1, Math.max(x1, x2));
+        int endY = Math.min(height - 1, Math.max(y1, y2));
+        for (int y = startY; y <= endY; y++) {
+            for (int x = startX; x <= endX; x++) {
+                int index = y * width + x;
+                for (int i = entityTypeGrid.getCount(index) - 1; i >= 0; i--) {
+                    EntityId entityId = entityTypeGrid.get(index, i);
+                    if (entityWrapper.isValidEntity(entityId)) {
+                        visitor.accept(entityWrapper.createController(entityId));
+                    }
+                }
+            }
+        }
     }
 
     @Override
@@ -199,20 +304,25 @@ public class PositionSystem implements IGameLogicUpdatable, IEntityPositionLooku
 
     @Override
     public <T extends IEntityController> List<T> getEntityTypesInLocation(IMapTileInformation mapTile, Class<T> clazz) {
-        Set<EntityId> entityIds = entitiesByMapTile.get(mapTile);
-        if (entityIds != null) {
-            IEntityWrapper<T> entityWrapper = getEntityWrapper(clazz);
+        IEntityWrapper<T> entityWrapper = getEntityWrapper(clazz);
+        if (mapTile == null) {
+            return Collections.emptyList();
+        }
+        TileEntityGrid entityTypeGrid = entityTypeGrids.get(clazz).grid;
+        int index = mapTile.getIndex();
+        int count = entityTypeGrid.getCount(index);
+        if (count == 0) {
+            return Collections.emptyList();
+        }
 
-            List<T> entities = new ArrayList<>(entityIds.size());
-            for (EntityId entityId : new ArrayList<>(entityIds)) {
-                if (entityWrapper.isValidEntity(entityId)) {
-                    entities.add(entityWrapper.createController(entityId));
-                }
+        List<T> entities = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            EntityId entityId = entityTypeGrid.get(index, i);
+            if (entityWrapper.isValidEntity(entityId)) {
+                entities.add(entityWrapper.createController(entityId));
             }
-            return entities;
         }
-
-        return Collections.emptyList();
+        return entities;
     }
 
     @Override
@@ -253,7 +363,14 @@ public class PositionSystem implements IGameLogicUpdatable, IEntityPositionLooku
     @Override
     public void stop() {
         positionedEntities.release();
-        entitiesByMapTile.clear();
+        entityGrid.clear();
+        for (EntityTypeGrid entityTypeGrid : entityTypeGrids.values()) {
+            entityTypeGrid.release();
+        }
+        entityTypeGrids.clear();
+        senseNeighbourhoods.clear();
+        sensedEntitiesByTile.clear();
+        sensedEntitiesByEntity.clear();
         mapTilesByEntities.clear();
         obstaclesByMapTile.clear();
         entityWrappers.clear();
@@ -311,35 +428,153 @@ public class PositionSystem implements IGameLogicUpdatable, IEntityPositionLooku
         }
 
         return sensedEntitiesByEntity.computeIfAbsent(entityId, (id) -> {
-            Set<EntityId> sensedEntities = new HashSet<>();
-
-            // Get creatures we sense
             IMapTileInformation tile = getEntityLocation(id);
-            // TODO: Every creature has hearing & vision 4, so I can just cheat this in, but should fix eventually
-            // https://github.com/tonihele/OpenKeeper/issues/261
-            if (tile != null) {
-                addSensedEntities(tile, (int) Math.max(senses.distanceCanHear, senses.distanceCanSee), sensedEntities);
+            if (tile == null) {
+                return Collections.emptySet();
             }
 
-            // Remove us, the caller
-            sensedEntities.remove(id);
+            // Both vision and hearing are blocked by solid terrain, so the sensed area is just the wider of them
+            int radius = (int) Math.max(senses.distanceCanHear, senses.distanceCanSee);
 
-            return sensedEntities;
+            // Everybody on the same tile senses the same things
+            long key = ((long) radius << 32) | tile.getIndex();
+            Set<EntityId> sensedEntities = sensedEntitiesByTile.computeIfAbsent(key, (k) -> getEntitiesInNeighbourhood(tile.getIndex(), radius));
+
+            return new SensedEntities(sensedEntities, id);
         });
     }
 
-    private void addSensedEntities(IMapTileInformation tile, int range, Set<EntityId> sensedEntities) {
-        if (tile == null || mapController.getTerrain(tile).getFlags().contains(Terrain.TerrainFlag.SOLID)
-                || range-- < 0) {
-            return;
+    private Set<EntityId> getEntitiesInNeighbourhood(int index, int radius) {
+        Set<EntityId> entities = new HashSet<>();
+        for (int tileIndex : senseNeighbourhoods.getNeighbourhood(index, radius)) {
+            for (int i = entityGrid.getCount(tileIndex) - 1; i >= 0; i--) {
+                entities.add(entityGrid.get(tileIndex, i));
+            }
+        }
+
+        return entities;
+    }
+
+    /**
+     * Tile grid of the entities of a single type. Follows the component that
+     * makes the type, so the entities join and leave the grid also when they
+     * gain or lose the type, not only when they move
+     */
+    private final class EntityTypeGrid {
+
+        private final EntitySet entities;
+        private final TileEntityGrid grid;
+        private final Map<EntityId, Integer> tilesByEntity = new HashMap<>();
+
+        public EntityTypeGrid(Class<? extends EntityComponent> typeComponent, int width, int height) {
+            this.entities = entityData.getEntities(Position.class, typeComponent);
+            this.grid = new TileEntityGrid(width, height);
+            for (Entity entity : entities) {
+                add(entity);
+            }
+        }
+
+        public void update() {
+            if (entities.applyChanges()) {
+                for (Entity entity : entities.getRemovedEntities()) {
+                    remove(entity.getId());
+                }
+                for (Entity entity : entities.getChangedEntities()) {
+                    remove(entity.getId());
+                    add(entity);
+                }
+                for (Entity entity : entities.getAddedEntities()) {
+                    add(entity);
+                }
+            }
         }
 
-        sensedEntities.addAll(getEntitiesInLocation(tile));
+        private void add(Entity entity) {
+            Point p = WorldUtils.vectorToPoint(entity.get(Position.class).position);
+            IMapTileInformation mapTile = mapController.getMapData().getTile(p);
+            if (mapTile != null) {
+                grid.add(mapTile.getIndex(), entity.getId());
+                tilesByEntity.put(entity.getId(), mapTile.getIndex());
+            }
+        }
+
+        private void remove(EntityId entityId) {
+            Integer index = tilesByEntity.remove(entityId);
+            if (index != null) {
+                grid.remove(index, entityId);
+            }
+        }
+
+        public void release() {
+            entities.release();
+            grid.clear();
+            tilesByEntity.clear();
+        }
+
+    }
+
+    /**
+     * Sensed entities of an entity, a view to the entities sensed from the
+     * tile, without the entity itself
+     */
+    private static final class SensedEntities extends AbstractSet<EntityId> {
+
+        private final Set<EntityId> sensedEntities;
+        private final EntityId entityId;
+
+        public SensedEntities(Set<EntityId> sensedEntities, EntityId entityId) {
+            this.sensedEntities = sensedEntities;
+            this.entityId = entityId;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return !entityId.equals(o) && sensedEntities.contains(o);
+        }
+
+        @Override
+        public int size() {
+            return sensedEntities.contains(entityId) ? sensedEntities.size() - 1 : sensedEntities.size();
+        }
+
+        @Override
+        public Iterator<EntityId> iterator() {
+            Iterator<EntityId> iter = sensedEntities.iterator();
+
+            return new Iterator<EntityId>() {
+
+                private EntityId next = findNext();
+
+                private EntityId findNext() {
+                    while (iter.hasNext()) {
+                        EntityId candidate = iter.next();
+                        if (!entityId.equals(candidate)) {
+                            return candidate;
+                        }
+                    }
+
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public EntityId next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    EntityId result = next;
+                    next = findNext();
+
+                    return result;
+                }
+
+            };
+        }
 
-        addSensedEntities(mapController.getMapData().getTile(tile.getX() + 1, tile.getY()), range, sensedEntities);
-        addSensedEntities(mapController.getMapData().getTile(tile.getX() - 1, tile.getY()), range, sensedEntities);
-        addSensedEntities(mapController.getMapData().getTile(tile.getX(), tile.getY() + 1), range, sensedEntities);
-        addSensedEntities(mapController.getMapData().getTile(tile.getX(), tile.getY() - 1), range, sensedEntities);
     }
 
 }
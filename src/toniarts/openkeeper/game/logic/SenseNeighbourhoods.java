@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.logic;
+
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import toniarts.openkeeper.game.controller.IMapController;
+import toniarts.openkeeper.game.map.IMapTileInformation;
+import toniarts.openkeeper.tools.convert.map.Terrain;
+
+/**
+ * Precomputed sensing neighbourhoods of the map tiles. A neighbourhood is all
+ * the tiles within the given number of steps from a tile, not passing through
+ * solid terrain. They are calculated on first use per radius and thrown away
+ * when the tiles around change.<br>
+ * Not thread safe.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+final class SenseNeighbourhoods {
+
+    private static final int[] EMPTY = new int[0];
+    private static final int[] DIRECTION_X = {0, 1, 0, -1};
+    private static final int[] DIRECTION_Y = {-1, 0, 1, 0};
+
+    private final IMapController mapController;
+    private final int width;
+    private final int height;
+    private final Map<Integer, int[][]> neighbourhoodsByRadius = new HashMap<>();
+
+    // Search state
+    private final int[] visited;
+    private final int[] queue;
+    private final int[] distances;
+    private int searchId = 0;
+
+    SenseNeighbourhoods(IMapController mapController) {
+        this.mapController = mapController;
+        this.width = mapController.getMapData().getWidth();
+        this.height = mapController.getMapData().getHeight();
+        this.visited = new int[width * height];
+        this.queue = new int[width * height];
+        this.distances = new int[width * height];
+    }
+
+    /**
+     * Get the tiles within the radius
+     *
+     * @param index the tile index
+     * @param radius the radius, in steps
+     * @return the tile indices, including the tile itself. Empty if the tile
+     * is solid. Do not modify.
+     */
+    int[] getNeighbourhood(int index, int radius) {
+        int[][] neighbourhoods = neighbourhoodsByRadius.computeIfAbsent(radius, (r) -> new int[width * height][]);
+        int[] neighbourhood = neighbourhoods[index];
+        if (neighbourhood == null) {
+            neighbourhood = createNeighbourhood(index, radius);
+            neighbourhoods[index] = neighbourhood;
+        }
+
+        return neighbourhood;
+    }
+
+    /**
+     * Forget the neighbourhoods that the changed tiles might affect
+     *
+     * @param updatedTiles the changed tiles
+     */
+    void updateTiles(Collection<Point> updatedTiles) {
+        for (Map.Entry<Integer, int[][]> entry : neighbourhoodsByRadius.entrySet()) {
+            int radius = entry.getKey();
+            int[][] neighbourhoods = entry.getValue();
+            for (Point p : updatedTiles) {
+
+                // Can't be more steps away than this
+                for (int y = Math.max(0, p.y - radius); y <= Math.min(height - 1, p.y + radius); y++) {
+                    int reach = radius - Math.abs(p.y - y);
+                    for (int x = Math.max(0, p.x - reach); x <= Math.min(width - 1, p.x + reach); x++) {
+                        neighbourhoods[y * width + x] = null;
+                    }
+                }
+            }
+        }
+    }
+
+    void clear() {
+        neighbourhoodsByRadius.clear();
+    }
+
+    private int[] createNeighbourhood(int start, int radius) {
+        if (isSolid(start) || radius < 0) {
+            return EMPTY;
+        }
+
+        searchId++;
+        if (searchId == 0) {
+            Arrays.fill(visited, 0);
+            searchId = 1;
+        }
+
+        int head = 0;
+        int tail = 0;
+        visited[start] = searchId;
+        distances[start] = 0;
+        queue[tail++] = start;
+        while (head < tail) {
+            int current = queue[head++];
+            if (distances[current] == radius) {
+                continue;
+            }
+            int x = current % width;
+            int y = current / width;
+            for (int direction = 0; direction < DIRECTION_X.length; direction++) {
+                int neighbourX = x + DIRECTION_X[direction];
+                int neighbourY = y + DIRECTION_Y[direction];
+                if (neighbourX < 0 || neighbourY < 0 || neighbourX >= width || neighbourY >= height) {
+                    continue;
+                }
+                int neighbour = neighbourY * width + neighbourX;
+                if (visited[neighbour] == searchId) {
+                    continue;
+                }
+                visited[neighbour] = searchId;
+                if (isSolid(neighbour)) {
+                    continue;
+                }
+                distances[neighbour] = distances[current] + 1;
+                queue[tail++] = neighbour;
+            }
+        }
+
+        // The queue holds exactly the tiles we found
+        return Arrays.copyOf(queue, tail);
+    }
+
+    private boolean isSolid(int index) {
+        IMapTileInformation tile = mapController.getMapData().getTile(index % width, index / width);
+        return mapController.getTerrain(tile).getFlags().contains(Terrain.TerrainFlag.SOLID);
+    }
+
+}
@@ -27,6 +27,7 @@ import java.util.Set;
 import toniarts.openkeeper.game.component.CreatureComponent;
 import toniarts.openkeeper.game.component.CreatureEfficiency;
 import toniarts.openkeeper.game.component.CreatureMood;
+import toniarts.openkeeper.game.component.Damage;
 import toniarts.openkeeper.game.component.Interaction;
 import toniarts.openkeeper.game.component.ObjectComponent;
 import toniarts.openkeeper.game.component.Owner;
@@ -45,6 +46,11 @@ import toniarts.openkeeper.tools.convert.map.Variable;
  */
 public class SlapSystem implements IGameLogicUpdatable {
 
+    private static final Set<Class<?>> READS = Set.of(Slapped.class, CreatureComponent.class, Owner.class, ObjectComponent.class,
+            Interaction.class, CreatureEfficiency.class, CreatureMood.class, Damage.class);
+    private static final Set<Class<?>> WRITES = Set.of(Slapped.class, CreatureEfficiency.class, CreatureMood.class, Damage.class,
+            PlayerStatsControl.class);
+
     private final KwdFile kwdFile;
     private final EntitySet creatureEntities;
     private final EntitySet objectEntities;
@@ -200,4 +206,14 @@ public class SlapSystem implements IGameLogicUpdatable {
         slapStartTimesByEntityId.clear();
     }
 
+    @Override
+    public Set<Class<?>> getReads() {
+        return READS;
+    }
+
+    @Override
+    public Set<Class<?>> getWrites() {
+        return WRITES;
+    }
+
 }
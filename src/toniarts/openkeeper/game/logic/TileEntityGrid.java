@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.logic;
+
+import com.simsilica.es.EntityId;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Entities bucketed by the map tile they are on. Each tile has a small array
+ * of entity IDs indexed by the tile index, so looking up and visiting the
+ * entities doesn't allocate anything. The order of the entities within a
+ * tile is not stable.<br>
+ * Not thread safe.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+final class TileEntityGrid {
+
+    private static final EntityId[] EMPTY = new EntityId[0];
+    private static final int INITIAL_CAPACITY = 4;
+
+    private final int width;
+    private final int height;
+    private final EntityId[][] entitiesByTile;
+    private final int[] entityCounts;
+
+    TileEntityGrid(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.entitiesByTile = new EntityId[width * height][];
+        this.entityCounts = new int[width * height];
+        Arrays.fill(entitiesByTile, EMPTY);
+    }
+
+    void add(int index, EntityId entityId) {
+        EntityId[] entities = entitiesByTile[index];
+        int count = entityCounts[index];
+        if (count == entities.length) {
+            entities = Arrays.copyOf(entities, Math.max(INITIAL_CAPACITY, count * 2));
+            entitiesByTile[index] = entities;
+        }
+        entities[count] = entityId;
+        entityCounts[index] = count + 1;
+    }
+
+    /**
+     * Removes the entity from the tile
+     *
+     * @param index the tile index
+     * @param entityId the entity
+     * @return true if the entity was in the tile
+     */
+    boolean remove(int index, EntityId entityId) {
+        EntityId[] entities = entitiesByTile[index];
+        int count = entityCounts[index];
+        for (int i = 0; i < count; i++) {
+            if (entities[i].equals(entityId)) {
+                entities[i] = entities[count - 1];
+                entities[count - 1] = null;
+                entityCounts[index] = count - 1;
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    int getCount(int index) {
+        return entityCounts[index];
+    }
+
+    EntityId get(int index, int i) {
+        return entitiesByTile[index][i];
+    }
+
+    /**
+     * Visit all the entities in the given tile
+     *
+     * @param index the tile index
+     * @param visitor the visitor
+     */
+    void visit(int index, Consumer<EntityId> visitor) {
+        EntityId[] entities = entitiesByTile[index];
+        for (int i = entityCounts[index] - 1; i >= 0; i--) {
+            visitor.accept(entities[i]);
+        }
+    }
+
+    /**
+     * Visit all the entities in the given rectangle, inclusive. The area is
+     * clamped to the map.
+     *
+     * @param x1 start x
+     * @param y1 start y
+     * @param x2 end x
+     * @param y2 end y
+     * @param visitor the visitor
+     */
+    void visit(int x1, int y1, int x2, int y2, Consumer<EntityId> visitor) {
+        int startX = Math.max(0, Math.min(x1, x2));
+        int startY = Math.max(0, Math.min(y1, y2));
+        int endX = Math.min(width - 1, Math.max(x1, x2));
+        int endY = Math.min(height - 1, Math.max(y1, y2));
+        for (int y = startY; y <= endY; y++) {
+            for (int x = startX; x <= endX; x++) {
+                visit(y * width + x, visitor);
+            }
+        }
+    }
+
+    void clear() {
+        Arrays.fill(entitiesByTile, EMPTY);
+        Arrays.fill(entityCounts, 0);
+    }
+
+}
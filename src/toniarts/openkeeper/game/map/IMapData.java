@@ -16,6 +16,10 @@
  */
 package toniarts.openkeeper.game.map;
 
+import java.awt.Point;
+import java.util.List;
+import java.util.function.Predicate;
+
 /**
  * Holds the writable map data
  *
@@ -23,4 +27,36 @@ package toniarts.openkeeper.game.map;
  */
 public interface IMapData extends IMapDataInformation<IMapTileController> {
 
+    /**
+     * Select or deselect a rectangle of tiles for a player. The coordinates
+     * are clamped to the map.
+     *
+     * @param x1 start x, inclusive
+     * @param y1 start y, inclusive
+     * @param x2 end x, inclusive
+     * @param y2 end y, inclusive
+     * @param selected select or deselect
+     * @param playerId the player
+     * @param filter only the tiles accepted by the filter are changed,
+     * {@code null} for all
+     * @return the tiles whose selection changed
+     */
+    List<Point> setSelected(int x1, int y1, int x2, int y2, boolean selected, short playerId, Predicate<IMapTileController> filter);
+
+    /**
+     * Flash or unflash tiles for a player
+     *
+     * @param points the tiles
+     * @param flashed flash on / off
+     * @param playerId the player
+     * @return the tiles whose flashing changed
+     */
+    List<Point> setFlashed(List<Point> points, boolean flashed, short playerId);
+
+    /**
+     * Publish the tile changes made since the last call to the map tile
+     * entities. Should be called once per game tick, after the changes.
+     */
+    void publishChanges();
+
 }
@@ -17,6 +17,7 @@
 package toniarts.openkeeper.game.map;
 
 import java.awt.Point;
+import toniarts.openkeeper.tools.convert.map.Terrain;
 import toniarts.openkeeper.tools.convert.map.Tile;
 
 /**
@@ -39,8 +40,6 @@ public interface IMapTileController extends IMapTileInformation {
      */
     void setHealth(int health);
 
-    void setIndex(int index);
-
     void setMaxHealth(int maxHealth);
 
     void setOwnerId(short ownerId);
@@ -53,4 +52,11 @@ public interface IMapTileController extends IMapTileInformation {
 
     void setTerrainId(short terrainId);
 
+    /**
+     * Set the health, gold and mana to the starting values of the terrain
+     *
+     * @param terrain the terrain of the tile
+     */
+    void setAttributesFromTerrain(Terrain terrain);
+
 }
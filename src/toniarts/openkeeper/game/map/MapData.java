@@ -19,14 +19,13 @@ package toniarts.openkeeper.game.map;
 import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
 import java.awt.Point;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
-import toniarts.openkeeper.game.component.MapTile;
-import toniarts.openkeeper.game.component.Owner;
 import toniarts.openkeeper.game.data.Keeper;
-import static toniarts.openkeeper.game.map.MapTileController.setAttributesFromTerrain;
 import toniarts.openkeeper.tools.convert.map.KwdFile;
 import toniarts.openkeeper.tools.convert.map.Player;
 import toniarts.openkeeper.tools.convert.map.Terrain;
@@ -42,10 +41,14 @@ public class MapData implements IMapData {
     private final int width;
     private final int height;
     private final IMapTileController[][] tiles;
+    private final EntityData entityData;
+    private final MapTileStore store;
 
     public MapData(KwdFile kwdFile, EntityData entityData, Collection<Keeper> players) {
         width = kwdFile.getMap().getWidth();
         height = kwdFile.getMap().getHeight();
+        this.entityData = entityData;
+        this.store = new MapTileStore(width, height);
 
         // Duplicate the map
         this.tiles = new IMapTileController[width][height];
@@ -53,39 +56,38 @@ public class MapData implements IMapData {
         for (int y = 0; y < height; y++) {
             for (int x = 0; x < width; x++) {
                 Tile tile = kwdFile.getMap().getTile(x, y);
-                tiles[x][y] = createMapTile(entityData, tile, kwdFile, x, y, y * width + x, playersById);
+                tiles[x][y] = createMapTile(entityData, store, tile, kwdFile, x, y, y * width + x, playersById);
             }
         }
+
+        // Create ALL components for the map tiles, even things like Gold when it has none, helps to parse the map tile as whole in client
+        publishChanges();
     }
 
-    private static MapTileController createMapTile(EntityData entityData, Tile tile, KwdFile kwdFile, int x, int y, int index,
+    private static MapTileController createMapTile(EntityData entityData, MapTileStore store, Tile tile, KwdFile kwdFile, int x, int y, int index,
             Map<Short, Keeper> playersById) {
         EntityId entityId = entityData.createEntity();
+        store.init(index, entityId, new Point(x, y));
+        MapTileController mapTile = new MapTileController(entityId, entityData, store, index);
+        mapTile.setBridgeTerrainType(tile.getFlag());
 
-        // Create ALL components for the map tile, even things like Gold when it has none, helps to parse the map tile as whole in client
-        // The actual map tile
-        MapTile mapTileComponent = new MapTile();
-        mapTileComponent.p = new Point(x, y);
-        mapTileComponent.index = index;
-        mapTileComponent.bridgeTerrainType = tile.getFlag();
-
-        mapTileComponent.terrainId = setupTerrainOwner(kwdFile, tile, entityData, entityId, playersById);
+        setupTerrainOwner(kwdFile, tile, mapTile, playersById);
 
         // The water/lava under the bridge is set only when there is an actual bridge, but we might as well set it here, it doesn't change
-        Terrain terrain = kwdFile.getTerrain(mapTileComponent.terrainId);
+        Terrain terrain = kwdFile.getTerrain(mapTile.getTerrainId());
         if (terrain.getFlags().contains(Terrain.TerrainFlag.LAVA)) {
-            mapTileComponent.bridgeTerrainType = Tile.BridgeTerrainType.LAVA;
+            mapTile.setBridgeTerrainType(Tile.BridgeTerrainType.LAVA);
         } else if (terrain.getFlags().contains(Terrain.TerrainFlag.WATER)) {
-            mapTileComponent.bridgeTerrainType = Tile.BridgeTerrainType.WATER;
+            mapTile.setBridgeTerrainType(Tile.BridgeTerrainType.WATER);
         }
 
         // Set attributes
-        setAttributesFromTerrain(entityData, entityId, mapTileComponent, terrain);
+        mapTile.setAttributesFromTerrain(terrain);
 
-        return new MapTileController(entityId, entityData);
+        return mapTile;
     }
 
-    private static short setupTerrainOwner(KwdFile kwdFile, Tile tile, EntityData entityData, EntityId entityId,
+    private static void setupTerrainOwner(KwdFile kwdFile, Tile tile, IMapTileController mapTile,
             Map<Short, Keeper> playersById) {
         short terrainId = tile.getTerrainId();
         short ownerId = tile.getPlayerId();
@@ -105,11 +107,8 @@ public class MapData implements IMapData {
             }
         }
 
-        // Owner
-        Owner owner = new Owner(ownerId, ownerId);
-        entityData.setComponent(entityId, owner);
-
-        return terrainId;
+        mapTile.setTerrainId(terrainId);
+        mapTile.setOwnerId(ownerId);
     }
 
     @Override
@@ -144,4 +143,39 @@ public class MapData implements IMapData {
         }
     }
 
+    @Override
+    public List<Point> setSelected(int x1, int y1, int x2, int y2, boolean selected, short playerId, Predicate<IMapTileController> filter) {
+        List<Point> changedTiles = new ArrayList<>();
+        x1 = Math.max(0, x1);
+        y1 = Math.max(0, y1);
+        x2 = Math.min(width - 1, x2);
+        y2 = Math.min(height - 1, y2);
+        if (x1 > x2 || y1 > y2) {
+            return changedTiles;
+        }
+
+        store.setSelected(x1, y1, x2, y2, playerId, selected,
+                filter != null ? (index) -> filter.test(tiles[index % width][index / width]) : null,
+                (index) -> changedTiles.add(store.getLocation(index)));
+
+        return changedTiles;
+    }
+
+    @Override
+    public List<Point> setFlashed(List<Point> points, boolean flashed, short playerId) {
+        List<Point> changedTiles = new ArrayList<>(points.size());
+        for (Point p : points) {
+            if (p.x >= 0 && p.y >= 0 && p.x < width && p.y < height) {
+                store.setFlashed(p.y * width + p.x, playerId, flashed, (index) -> changedTiles.add(p));
+            }
+        }
+
+        return changedTiles;
+    }
+
+    @Override
+    public void publishChanges() {
+        store.publishChanges(entityData);
+    }
+
 }
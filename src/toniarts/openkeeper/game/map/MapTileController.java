@@ -21,98 +21,71 @@ import com.simsilica.es.EntityComponent;
 import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
 import java.awt.Point;
-import java.util.HashMap;
-import toniarts.openkeeper.game.component.Gold;
-import toniarts.openkeeper.game.component.Health;
-import toniarts.openkeeper.game.component.Mana;
-import toniarts.openkeeper.game.component.MapTile;
-import toniarts.openkeeper.game.component.Owner;
 import toniarts.openkeeper.tools.convert.map.Terrain;
 import toniarts.openkeeper.tools.convert.map.Tile.BridgeTerrainType;
 
 /**
- * A presentation of a single map tile
+ * A presentation of a single map tile. The state is read from and written to
+ * the map tile store, the tile entity is updated when the store publishes its
+ * changes
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
 public class MapTileController extends AbstractMapTileInformation implements IMapTileController {
 
     private final EntityData entityData;
+    private final MapTileStore store;
+    private final int index;
 
-    public MapTileController(EntityId entityId, EntityData entityData) {
+    MapTileController(EntityId entityId, EntityData entityData, MapTileStore store, int index) {
         super(entityId);
 
         this.entityData = entityData;
+        this.store = store;
+        this.index = index;
     }
 
-    public static void setAttributesFromTerrain(EntityData entityData, IMapTileInformation mapTile, Terrain terrain) {
-        setAttributesFromTerrain(entityData, mapTile.getEntityId(), entityData.getComponent(mapTile.getEntityId(), MapTile.class), terrain);
-    }
-
-    protected static void setAttributesFromTerrain(EntityData entityData, EntityId entity, MapTile mapTileComponent, Terrain terrain) {
-
-        // Health
-        Health health = new Health(terrain.getStartingHealth(), terrain.getMaxHealth());
-
-        // Gold
-        Gold gold = new Gold(terrain.getGoldValue(), terrain.getGoldValue());
-
-        // Mana
-        Mana mana = new Mana(terrain.getManaGain());
+    @Override
+    public void setAttributesFromTerrain(Terrain terrain) {
+        store.setHealth(index, terrain.getStartingHealth(), terrain.getMaxHealth());
+        store.setGold(index, terrain.getGoldValue(), terrain.getGoldValue());
+        store.setManaGain(index, terrain.getManaGain());
 
         // Randomize the texture index, the terrain can change for sure but the changed types have no random textures
         // But for the principle, let it be here
         if (terrain.getFlags().contains(Terrain.TerrainFlag.RANDOM_TEXTURE)) {
-            mapTileComponent.randomTextureIndex = FastMath.nextRandomInt(0, terrain.getTextureFrames() - 1);
+            store.setRandomTextureIndex(index, FastMath.nextRandomInt(0, terrain.getTextureFrames() - 1));
         }
-
-        entityData.setComponents(entity, health, gold, mana, mapTileComponent);
     }
 
     @Override
     public void setSelected(boolean selected, short playerId) {
-        MapTile mapTileComponent = new MapTile(getEntityComponent(MapTile.class));
-        if (mapTileComponent.selection == null) {
-            mapTileComponent.selection = new HashMap<>(4, 1);
-        }
-        mapTileComponent.selection.put(playerId, selected);
-        entityData.setComponent(entityId, mapTileComponent);
+        store.setSelected(index, playerId, selected);
     }
 
     @Override
     public void setFlashed(boolean flashed, short playerId) {
-        MapTile mapTileComponent = new MapTile(getEntityComponent(MapTile.class));
-        if (mapTileComponent.flashing == null) {
-            mapTileComponent.flashing = new HashMap<>(4, 1);
-        }
-        mapTileComponent.flashing.put(playerId, flashed);
-        entityData.setComponent(entityId, mapTileComponent);
+        store.setFlashed(index, playerId, flashed);
     }
 
     @Override
     public void setOwnerId(short ownerId) {
-        entityData.setComponent(entityId, new Owner(ownerId, ownerId));
+        store.setOwnerId(index, ownerId);
     }
 
     @Override
     public void setTerrainId(short terrainId) {
-        MapTile mapTileComponent = new MapTile(getEntityComponent(MapTile.class));
-        mapTileComponent.terrainId = terrainId;
-        entityData.setComponent(entityId, mapTileComponent);
+        store.setTerrainId(index, terrainId);
     }
 
     @Override
     public void setBridgeTerrainType(BridgeTerrainType bridgeTerrainType) {
-        MapTile mapTileComponent = new MapTile(getEntityComponent(MapTile.class));
-        mapTileComponent.bridgeTerrainType = bridgeTerrainType;
-        entityData.setComponent(entityId, mapTileComponent);
+        store.setBridgeTerrainType(index, bridgeTerrainType);
     }
 
     @Override
     public void setRandomTextureIndex(int randomTextureIndex) {
-        MapTile mapTileComponent = new MapTile(getEntityComponent(MapTile.class));
-        mapTileComponent.randomTextureIndex = randomTextureIndex;
-        entityData.setComponent(entityId, mapTileComponent);
+        store.setRandomTextureIndex(index, randomTextureIndex);
     }
 
     /**
@@ -122,39 +95,98 @@ public class MapTileController extends AbstractMapTileInformation implements IMa
      */
     @Override
     public void setHealth(int health) {
-        Health healthComponent = new Health(getEntityComponent(Health.class));
-        healthComponent.health = health;
-        entityData.setComponent(entityId, healthComponent);
+        store.setHealth(index, health, store.getMaxHealth(index));
     }
 
     @Override
     public void setMaxHealth(int maxHealth) {
-        Health healthComponent = new Health(getEntityComponent(Health.class));
-        healthComponent.maxHealth = maxHealth;
-        entityData.setComponent(entityId, healthComponent);
+        store.setHealth(index, store.getHealth(index), maxHealth);
     }
 
     @Override
-    public void setIndex(int index) {
-        MapTile mapTileComponent = new MapTile(getEntityComponent(MapTile.class));
-        mapTileComponent.index = index;
-        entityData.setComponent(entityId, mapTileComponent);
+    public void setPoint(Point p) {
+        store.setLocation(index, p);
     }
 
     @Override
-    public void setPoint(Point p) {
-        MapTile mapTileComponent = new MapTile(getEntityComponent(MapTile.class));
-        mapTileComponent.p = p;
-        entityData.setComponent(entityId, mapTileComponent);
+    public void setGold(int gold) {
+        store.setGold(index, gold, store.getMaxGold(index));
     }
 
     @Override
-    public void setGold(int gold) {
-        Gold goldComponent = new Gold(getEntityComponent(Gold.class));
-        goldComponent.gold = gold;
-        entityData.setComponent(entityId, goldComponent);
+    public boolean isSelected(short playerId) {
+        return store.isSelected(index, playerId);
+    }
+
+    @Override
+    public boolean isFlashed(short playerId) {
+        return store.isFlashed(index, playerId);
+    }
+
+    @Override
+    public short getOwnerId() {
+        return store.getOwnerId(index);
+    }
+
+    @Override
+    public short getTerrainId() {
+        return store.getTerrainId(index);
+    }
+
+    @Override
+    public BridgeTerrainType getBridgeTerrainType() {
+        return store.getBridgeTerrainType(index);
+    }
+
+    @Override
+    public int getRandomTextureIndex() {
+        return store.getRandomTextureIndex(index);
+    }
+
+    @Override
+    public Point getLocation() {
+        return store.getLocation(index);
+    }
+
+    @Override
+    public int getIndex() {
+        return index;
     }
 
+    @Override
+    public int getHealth() {
+        return store.getHealth(index);
+    }
+
+    @Override
+    public int getMaxHealth() {
+        return store.getMaxHealth(index);
+    }
+
+    @Override
+    public Integer getHealthPercent() {
+        return Math.round((float) store.getHealth(index) / store.getMaxHealth(index) * 100);
+    }
+
+    @Override
+    public boolean isAtFullHealth() {
+        return store.getHealth(index) == store.getMaxHealth(index);
+    }
+
+    @Override
+    public int getGold() {
+        return store.getGold(index);
+    }
+
+    @Override
+    public int getManaGain() {
+        return store.getManaGain(index);
+    }
+
+    /**
+     * Get the published component of the tile entity. Note that it may lag
+     * behind the tile state by one tick
+     */
     @Override
     protected <T extends EntityComponent> T getEntityComponent(Class<T> type) {
         return entityData.getComponent(entityId, type);
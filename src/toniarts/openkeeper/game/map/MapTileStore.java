@@ -0,0 +1,390 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.map;
+
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntityId;
+import java.awt.Point;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import toniarts.openkeeper.game.component.Gold;
+import toniarts.openkeeper.game.component.Health;
+import toniarts.openkeeper.game.component.Mana;
+import toniarts.openkeeper.game.component.MapTile;
+import toniarts.openkeeper.game.component.Owner;
+import toniarts.openkeeper.tools.convert.map.Tile.BridgeTerrainType;
+
+/**
+ * The map tile state on the server, one primitive array per attribute indexed
+ * by the tile index. Reading and writing a tile is just an array access, no
+ * components are copied or created. Selection and flashing are per player
+ * bitsets that can be set for whole rectangles at once.<br>
+ * The changes are journaled per tile and published to the tile entities in one
+ * go by {@link #publishChanges(EntityData)}. The entities are what the clients
+ * and the entity systems see, so they lag behind by at most one game tick.<br>
+ * This is on top of the tile entities, not instead of them. The tiles take
+ * more memory than before, not less, until the clients get the changes
+ * some other way and the tile components can go.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+final class MapTileStore {
+
+    /**
+     * Change flags, per component
+     */
+    static final byte CHANGE_MAP_TILE = 0x01;
+    static final byte CHANGE_OWNER = 0x02;
+    static final byte CHANGE_HEALTH = 0x04;
+    static final byte CHANGE_GOLD = 0x08;
+    static final byte CHANGE_MANA = 0x10;
+    static final byte CHANGE_ALL = CHANGE_MAP_TILE | CHANGE_OWNER | CHANGE_HEALTH | CHANGE_GOLD | CHANGE_MANA;
+
+    /**
+     * Player IDs must be smaller than this
+     */
+    static final int MAX_PLAYERS = 16;
+
+    private static final BridgeTerrainType[] BRIDGE_TERRAIN_TYPES = BridgeTerrainType.values();
+
+    private final int width;
+    private final int size;
+    private final EntityId[] entityIds;
+    private final Point[] locations;
+    private final short[] terrainIds;
+    private final short[] ownerIds;
+    private final byte[] bridgeTerrainTypes;
+    private final int[] randomTextureIndices;
+    private final int[] health;
+    private final int[] maxHealth;
+    private final int[] gold;
+    private final int[] maxGold;
+    private final int[] manaGain;
+
+    /**
+     * Selection and flashing, a bitset layer per player ID, created on first
+     * use. One bit per tile in the tile index order, so a row of tiles is a
+     * continuous range of bits.
+     */
+    private final long[][] selectionLayers = new long[MAX_PLAYERS][];
+    private final long[][] flashingLayers = new long[MAX_PLAYERS][];
+
+    /**
+     * The change journal, the changed components per tile and the changed
+     * tiles in the order they changed
+     */
+    private final byte[] changes;
+    private final int[] changedTiles;
+    private int changedTileCount = 0;
+
+    MapTileStore(int width, int height) {
+        this.width = width;
+        this.size = width * height;
+        entityIds = new EntityId[size];
+        locations = new Point[size];
+        terrainIds = new short[size];
+        ownerIds = new short[size];
+        bridgeTerrainTypes = new byte[size];
+        randomTextureIndices = new int[size];
+        health = new int[size];
+        maxHealth = new int[size];
+        gold = new int[size];
+        maxGold = new int[size];
+        manaGain = new int[size];
+        changes = new byte[size];
+        changedTiles = new int[size];
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    void init(int index, EntityId entityId, Point location) {
+        entityIds[index] = entityId;
+        locations[index] = location;
+        bridgeTerrainTypes[index] = -1;
+        markChanged(index, CHANGE_ALL);
+    }
+
+    EntityId getEntityId(int index) {
+        return entityIds[index];
+    }
+
+    Point getLocation(int index) {
+        return locations[index];
+    }
+
+    void setLocation(int index, Point location) {
+        locations[index] = location;
+        markChanged(index, CHANGE_MAP_TILE);
+    }
+
+    short getTerrainId(int index) {
+        return terrainIds[index];
+    }
+
+    void setTerrainId(int index, short terrainId) {
+        if (terrainIds[index] != terrainId) {
+            terrainIds[index] = terrainId;
+            markChanged(index, CHANGE_MAP_TILE);
+        }
+    }
+
+    short getOwnerId(int index) {
+        return ownerIds[index];
+    }
+
+    void setOwnerId(int index, short ownerId) {
+        if (ownerIds[index] != ownerId) {
+            ownerIds[index] = ownerId;
+            markChanged(index, CHANGE_OWNER);
+        }
+    }
+
+    BridgeTerrainType getBridgeTerrainType(int index) {
+        byte ordinal = bridgeTerrainTypes[index];
+        return ordinal < 0 ? null : BRIDGE_TERRAIN_TYPES[ordinal];
+    }
+
+    void setBridgeTerrainType(int index, BridgeTerrainType bridgeTerrainType) {
+        byte ordinal = (byte) (bridgeTerrainType == null ? -1 : bridgeTerrainType.ordinal());
+        if (bridgeTerrainTypes[index] != ordinal) {
+            bridgeTerrainTypes[index] = ordinal;
+            markChanged(index, CHANGE_MAP_TILE);
+        }
+    }
+
+    int getRandomTextureIndex(int index) {
+        return randomTextureIndices[index];
+    }
+
+    void setRandomTextureIndex(int index, int randomTextureIndex) {
+        if (randomTextureIndices[index] != randomTextureIndex) {
+            randomTextureIndices[index] = randomTextureIndex;
+            markChanged(index, CHANGE_MAP_TILE);
+        }
+    }
+
+    int getHealth(int index) {
+        return health[index];
+    }
+
+    int getMaxHealth(int index) {
+        return maxHealth[index];
+    }
+
+    void setHealth(int index, int health, int maxHealth) {
+        if (this.health[index] != health || this.maxHealth[index] != maxHealth) {
+            this.health[index] = health;
+            this.maxHealth[index] = maxHealth;
+            markChanged(index, CHANGE_HEALTH);
+        }
+    }
+
+    int getGold(int index) {
+        return gold[index];
+    }
+
+    int getMaxGold(int index) {
+        return maxGold[index];
+    }
+
+    void setGold(int index, int gold, int maxGold) {
+        if (this.gold[index] != gold || this.maxGold[index] != maxGold) {
+            this.gold[index] = gold;
+            this.maxGold[index] = maxGold;
+            markChanged(index, CHANGE_GOLD);
+        }
+    }
+
+    int getManaGain(int index) {
+        return manaGain[index];
+    }
+
+    void setManaGain(int index, int manaGain) {
+        if (this.manaGain[index] != manaGain) {
+            this.manaGain[index] = manaGain;
+            markChanged(index, CHANGE_MANA);
+        }
+    }
+
+    boolean isSelected(int index, short playerId) {
+        return isSet(getLayer(selectionLayers, playerId, false), index);
+    }
+
+    void setSelected(int index, short playerId, boolean selected) {
+        setRange(getLayer(selectionLayers, playerId, true), index, index + 1, selected, null, null);
+    }
+
+    /**
+     * Select or deselect a rectangle of tiles
+     *
+     * @param x1 start x, inclusive
+     * @param y1 start y, inclusive
+     * @param x2 end x, inclusive
+     * @param y2 end y, inclusive
+     * @param playerId the player
+     * @param selected select or deselect
+     * @param filter the tiles to touch, by index, {@code null} for all
+     * @param changed receives the indices of the tiles that changed, may be
+     * {@code null}
+     */
+    void setSelected(int x1, int y1, int x2, int y2, short playerId, boolean selected, IntPredicate filter, IntConsumer changed) {
+        long[] layer = getLayer(selectionLayers, playerId, true);
+        for (int y = y1; y <= y2; y++) {
+            setRange(layer, y * width + x1, y * width + x2 + 1, selected, filter, changed);
+        }
+    }
+
+    boolean isFlashed(int index, short playerId) {
+        return isSet(getLayer(flashingLayers, playerId, false), index);
+    }
+
+    void setFlashed(int index, short playerId, boolean flashed) {
+        setFlashed(index, playerId, flashed, null);
+    }
+
+    void setFlashed(int index, short playerId, boolean flashed, IntConsumer changed) {
+        setRange(getLayer(flashingLayers, playerId, true), index, index + 1, flashed, null, changed);
+    }
+
+    private long[] getLayer(long[][] layers, short playerId, boolean create) {
+        if (playerId < 0 || playerId >= MAX_PLAYERS) {
+            throw new IllegalArgumentException("Player ID " + playerId + " out of range!");
+        }
+        long[] layer = layers[playerId];
+        if (layer == null && create) {
+            layer = new long[(size + Long.SIZE - 1) / Long.SIZE];
+            layers[playerId] = layer;
+        }
+
+        return layer;
+    }
+
+    private static boolean isSet(long[] layer, int index) {
+        return layer != null && (layer[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Set or clear a range of tiles in a layer a word at a time, and journal
+     * the tiles that actually changed
+     *
+     * @param from first tile index, inclusive
+     * @param to last tile index, exclusive
+     */
+    private void setRange(long[] layer, int from, int to, boolean set, IntPredicate filter, IntConsumer changed) {
+        int firstWord = from >>> 6;
+        int lastWord = (to - 1) >>> 6;
+        for (int word = firstWord; word <= lastWord; word++) {
+            long mask = -1L;
+            if (word == firstWord) {
+                mask &= -1L << from;
+            }
+            if (word == lastWord) {
+                mask &= -1L >>> -to;
+            }
+            if (filter != null) {
+                for (long bits = mask; bits != 0; bits &= bits - 1) {
+                    int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+                    if (!filter.test(index)) {
+                        mask &= ~Long.lowestOneBit(bits);
+                    }
+                }
+            }
+
+            long old = layer[word];
+            long value = set ? old | mask : old & ~mask;
+            if (value == old) {
+                continue;
+            }
+            layer[word] = value;
+            for (long bits = old ^ value; bits != 0; bits &= bits - 1) {
+                int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+                markChanged(index, CHANGE_MAP_TILE);
+                if (changed != null) {
+                    changed.accept(index);
+                }
+            }
+        }
+    }
+
+    private synchronized void markChanged(int index, byte change) {
+        if (changes[index] == 0) {
+            changedTiles[changedTileCount++] = index;
+        }
+        changes[index] |= change;
+    }
+
+    /**
+     * Write the changed tiles to their entities and clear the journal
+     *
+     * @param entityData the entity data holding the tile entities
+     * @return number of tiles published
+     */
+    synchronized int publishChanges(EntityData entityData) {
+        int count = changedTileCount;
+        for (int i = 0; i < count; i++) {
+            int index = changedTiles[i];
+            byte change = changes[index];
+            changes[index] = 0;
+            EntityId entityId = entityIds[index];
+            if ((change & CHANGE_MAP_TILE) != 0) {
+                entityData.setComponent(entityId, createMapTile(index));
+            }
+            if ((change & CHANGE_OWNER) != 0) {
+                entityData.setComponent(entityId, new Owner(ownerIds[index], ownerIds[index]));
+            }
+            if ((change & CHANGE_HEALTH) != 0) {
+                entityData.setComponent(entityId, new Health(health[index], maxHealth[index]));
+            }
+            if ((change & CHANGE_GOLD) != 0) {
+                entityData.setComponent(entityId, new Gold(gold[index], maxGold[index]));
+            }
+            if ((change & CHANGE_MANA) != 0) {
+                entityData.setComponent(entityId, new Mana(manaGain[index]));
+            }
+        }
+        changedTileCount = 0;
+
+        return count;
+    }
+
+    private MapTile createMapTile(int index) {
+        MapTile mapTile = new MapTile(randomTextureIndices[index], terrainIds[index], getBridgeTerrainType(index), locations[index], index);
+        mapTile.selection = toPlayerMap(selectionLayers, index);
+        mapTile.flashing = toPlayerMap(flashingLayers, index);
+
+        return mapTile;
+    }
+
+    private static Map<Short, Boolean> toPlayerMap(long[][] layers, int index) {
+        Map<Short, Boolean> players = null;
+        for (short playerId = 0; playerId < MAX_PLAYERS; playerId++) {
+            if (isSet(layers[playerId], index)) {
+                if (players == null) {
+                    players = new HashMap<>(4, 1);
+                }
+                players.put(playerId, true);
+            }
+        }
+
+        return players;
+    }
+
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.navigation;
+
+import com.badlogic.gdx.ai.pfa.DefaultGraphPath;
+import com.badlogic.gdx.ai.pfa.GraphPath;
+import java.util.Arrays;
+import toniarts.openkeeper.game.logic.IEntityPositionLookup;
+import toniarts.openkeeper.game.map.IMapTileInformation;
+import toniarts.openkeeper.game.navigation.pathfinding.MapConnections;
+import toniarts.openkeeper.game.navigation.pathfinding.MovementClass;
+
+/**
+ * A flow field (a.k.a. Dijkstra map) towards a single goal. Every tile that
+ * can reach the goal knows the next tile to step on, so any number of
+ * entities heading to the same goal can be served with one search.<br>
+ * Immutable once built, so it can be shared between threads freely. The field
+ * reflects the map at the time it was built, it is up to the owner to throw it
+ * away when the map changes.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public final class FlowField {
+
+    private final MapConnections connections;
+    private final int goal;
+    private final int movementClass;
+    private final short ownerId;
+    private final int[] nextTiles;
+    private final float[] distances;
+
+    private FlowField(MapConnections connections, int goal, int movementClass, short ownerId) {
+        this.connections = connections;
+        this.goal = goal;
+        this.movementClass = movementClass;
+        this.ownerId = ownerId;
+        this.nextTiles = new int[connections.getNodeCount()];
+        this.distances = new float[connections.getNodeCount()];
+    }
+
+    /**
+     * Builds a flow field. Searches backwards from the goal, following the
+     * connections into each tile.
+     *
+     * @param connections the map connections
+     * @param entityPositionLookup entity lookup, for the doors
+     * @param goal the goal tile index
+     * @param movementClass the movement class
+     * @param ownerId the owner, for passing doors
+     * @return the flow field
+     * @see MovementClass
+     */
+    public static FlowField build(MapConnections connections, IEntityPositionLookup entityPositionLookup, int goal, int movementClass, short ownerId) {
+        FlowField field = new FlowField(connections, goal, movementClass, ownerId);
+        Arrays.fill(field.nextTiles, -1);
+        Arrays.fill(field.distances, Float.POSITIVE_INFINITY);
+
+        float[] costs = connections.getCosts(movementClass);
+        int directions = MovementClass.canMoveDiagonally(movementClass) ? MapConnections.DIRECTIONS : MapConnections.ORTHOGONAL_DIRECTIONS;
+        boolean[] closed = new boolean[connections.getNodeCount()];
+        FlowFieldQueue queue = new FlowFieldQueue(connections.getNodeCount());
+
+        field.distances[goal] = 0;
+        queue.push(goal, 0);
+        while (!queue.isEmpty()) {
+            int current = queue.pop();
+            if (closed[current]) {
+                continue;
+            }
+            closed[current] = true;
+
+            // Doors etc., nobody gets through
+            if (entityPositionLookup.isTileBlocked(connections.getTile(current), ownerId)) {
+                continue;
+            }
+
+            for (int direction = 0; direction < directions; direction++) {
+
+                // The tile we would come from, moving to the opposite direction
+                int previous = connections.getNeighbour(current, direction);
+                if (previous < 0 || closed[previous]) {
+                    continue;
+                }
+                int backDirection = MapConnections.getOpposite(direction);
+                float connectionCost = costs[previous * MapConnections.DIRECTIONS + backDirection];
+                if (Float.isNaN(connectionCost) || !isDiagonalPassable(connections, entityPositionLookup, costs, previous, backDirection, ownerId)) {
+                    continue;
+                }
+
+                float distance = field.distances[current] + connectionCost;
+                if (distance < field.distances[previous]) {
+                    field.distances[previous] = distance;
+                    field.nextTiles[previous] = current;
+                    queue.push(previous, distance);
+                }
+            }
+        }
+
+        return field;
+    }
+
+    private static boolean isDiagonalPassable(MapConnections connections, IEntityPositionLookup entityPositionLookup, float[] costs, int index, int direction, short ownerId) {
+        if (direction < MapConnections.ORTHOGONAL_DIRECTIONS) {
+            return true;
+        }
+
+        // No squeezing through corners
+        return isSidePassable(connections, entityPositionLookup, costs, index, MapConnections.getFirstSide(direction), ownerId)
+                && isSidePassable(connections, entityPositionLookup, costs, index, MapConnections.getSecondSide(direction), ownerId);
+    }
+
+    private static boolean isSidePassable(MapConnections connections, IEntityPositionLookup entityPositionLookup, float[] costs, int index, int direction, short ownerId) {
+        return !Float.isNaN(costs[index * MapConnections.DIRECTIONS + direction])
+                && !entityPositionLookup.isTileBlocked(connections.getTile(connections.getNeighbour(index, direction)), ownerId);
+    }
+
+    public int getGoal() {
+        return goal;
+    }
+
+    public int getMovementClass() {
+        return movementClass;
+    }
+
+    public short getOwnerId() {
+        return ownerId;
+    }
+
+    /**
+     * Get the next tile towards the goal
+     *
+     * @param index the tile index
+     * @return the next tile index, or -1 if the goal can't be reached from the
+     * tile (or we are at the goal already)
+     */
+    public int getNextTile(int index) {
+        return nextTiles[index];
+    }
+
+    /**
+     * Checks whether the goal can be reached from the given tile
+     *
+     * @param index the tile index
+     * @return true if the goal can be reached
+     */
+    public boolean isReachable(int index) {
+        return index == goal || nextTiles[index] >= 0;
+    }
+
+    /**
+     * Follow the field from the given tile to the goal
+     *
+     * @param start the start tile index
+     * @return the path including the start tile, {@code null} if the goal
+     * can't be reached
+     */
+    public GraphPath<IMapTileInformation> getPath(int start) {
+        if (!isReachable(start)) {
+            return null;
+        }
+
+        GraphPath<IMapTileInformation> path = new DefaultGraphPath<>();
+        for (int index = start; index >= 0; index = nextTiles[index]) {
+            path.add(connections.getTile(index));
+        }
+
+        return path;
+    }
+
+    /**
+     * Minimal binary heap of tile indices ordered by distance. The same tile
+     * can be in the heap many times, the stale entries are skipped when
+     * popped.
+     */
+    private static final class FlowFieldQueue {
+
+        private int[] nodes;
+        private float[] keys;
+        private int size;
+
+        public FlowFieldQueue(int nodeCount) {
+            this.nodes = new int[nodeCount];
+            this.keys = new float[nodeCount];
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+
+        public void push(int node, float key) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            int position = size++;
+            while (position > 0) {
+                int parent = (position - 1) >>> 1;
+                if (keys[parent] <= key) {
+                    break;
+                }
+                nodes[position] = nodes[parent];
+                keys[position] = keys[parent];
+                position = parent;
+            }
+            nodes[position] = node;
+            keys[position] = key;
+        }
+
+        public int pop() {
+            int result = nodes[0];
+            size--;
+            int node = nodes[size];
+            float key = keys[size];
+            int position = 0;
+            int half = size >>> 1;
+            while (position < half) {
+                int child = (position << 1) + 1;
+                int right = child + 1;
+                if (right < size && keys[right] < keys[child]) {
+                    child = right;
+                }
+                if (key <= keys[child]) {
+                    break;
+                }
+                nodes[position] = nodes[child];
+                keys[position] = keys[child];
+                position = child;
+            }
+            nodes[position] = node;
+            keys[position] = key;
+
+            return result;
+        }
+
+    }
+
+}
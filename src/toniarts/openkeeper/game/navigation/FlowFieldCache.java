@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.navigation;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import toniarts.openkeeper.game.logic.IEntityPositionLookup;
+import toniarts.openkeeper.game.navigation.pathfinding.MapConnections;
+
+/**
+ * Keeps the most recently used flow fields. When the map or the doors change,
+ * only the fields that reach the changed tiles are thrown away. The fields
+ * being built at that moment are checked against the changes made during the
+ * build before they are cached.<br>
+ * Safe to use from multiple threads.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public final class FlowFieldCache {
+
+    public static final int DEFAULT_MAX_FIELDS = 32;
+
+    /**
+     * How many of the latest changes are remembered for the fields being
+     * built, a build that takes longer than this many changes is not cached
+     */
+    private static final int MAX_RECENT_CHANGES = 16;
+
+    private final MapConnections connections;
+    private final IEntityPositionLookup entityPositionLookup;
+    private final Map<Long, FlowField> flowFields;
+    private final Deque<BitSet> recentChanges = new ArrayDeque<>(MAX_RECENT_CHANGES);
+    private long version = 0;
+
+    public FlowFieldCache(MapConnections connections, IEntityPositionLookup entityPositionLookup) {
+        this(connections, entityPositionLookup, DEFAULT_MAX_FIELDS);
+    }
+
+    public FlowFieldCache(MapConnections connections, IEntityPositionLookup entityPositionLookup, int maxFields) {
+        this.connections = connections;
+        this.entityPositionLookup = entityPositionLookup;
+        this.flowFields = new LinkedHashMap<Long, FlowField>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, FlowField> eldest) {
+                return size() > maxFields;
+            }
+
+        };
+    }
+
+    /**
+     * Get a cached flow field
+     *
+     * @param goal the goal tile index
+     * @param movementClass the movement class
+     * @param ownerId the owner
+     * @return the flow field, or {@code null} if there is none cached
+     */
+    public synchronized FlowField getFlowField(int goal, int movementClass, short ownerId) {
+        return flowFields.get(getKey(goal, movementClass, ownerId));
+    }
+
+    /**
+     * Get a flow field, building it if there is none cached. The building is
+     * done in the calling thread without holding any locks.
+     *
+     * @param goal the goal tile index
+     * @param movementClass the movement class
+     * @param ownerId the owner
+     * @return the flow field
+     */
+    public FlowField getOrBuildFlowField(int goal, int movementClass, short ownerId) {
+        long key = getKey(goal, movementClass, ownerId);
+        long buildVersion;
+        synchronized (this) {
+            FlowField flowField = flowFields.get(key);
+            if (flowField != null) {
+                return flowField;
+            }
+            buildVersion = version;
+        }
+
+        FlowField flowField = FlowField.build(connections, entityPositionLookup, goal, movementClass, ownerId);
+        synchronized (this) {
+            if (!isChangedSince(flowField, buildVersion)) {
+                flowFields.put(key, flowField);
+            }
+        }
+
+        return flowField;
+    }
+
+    private boolean isChangedSince(FlowField flowField, long buildVersion) {
+        long changes = version - buildVersion;
+        if (changes > recentChanges.size()) {
+            return true;
+        }
+
+        // The latest changes are at the head
+        Iterator<BitSet> iter = recentChanges.iterator();
+        for (long i = 0; i < changes; i++) {
+            if (isAffected(flowField, iter.next())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Forget the flow fields the changed tiles may affect. The changed tiles
+     * must include the neighbours of the tiles that actually changed, so that
+     * a field is thrown away also when a new route opens next to it.
+     *
+     * @param changedTiles the changed tile indices
+     * @see MapConnections#updateTiles(java.util.Collection)
+     */
+    public synchronized void invalidate(BitSet changedTiles) {
+        Iterator<FlowField> iter = flowFields.values().iterator();
+        while (iter.hasNext()) {
+            if (isAffected(iter.next(), changedTiles)) {
+                iter.remove();
+            }
+        }
+
+        if (recentChanges.size() == MAX_RECENT_CHANGES) {
+            recentChanges.removeLast();
+        }
+        recentChanges.addFirst(changedTiles);
+        version++;
+    }
+
+    private static boolean isAffected(FlowField flowField, BitSet changedTiles) {
+        for (int index = changedTiles.nextSetBit(0); index >= 0; index = changedTiles.nextSetBit(index + 1)) {
+            if (flowField.isReachable(index)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    static long getKey(int goal, int movementClass, short ownerId) {
+        return ((long) goal << 32) | ((movementClass & 0xffffL) << 16) | (ownerId & 0xffffL);
+    }
+
+}
@@ -18,6 +18,7 @@ package toniarts.openkeeper.game.navigation;
 
 import com.badlogic.gdx.ai.pfa.GraphPath;
 import java.awt.Point;
+import java.util.concurrent.CompletableFuture;
 import toniarts.openkeeper.game.map.IMapTileInformation;
 import toniarts.openkeeper.game.navigation.pathfinding.INavigable;
 
@@ -50,7 +51,8 @@ public interface INavigationService {
     Point findRandomTileInRoom(Point start, int radius, INavigable navigable);
 
     /**
-     * Finds a path between the given points if there is one
+     * Finds a path between the given points if there is one. Safe to call
+     * from multiple threads at the same time
      *
      * @param start start point
      * @param end end point
@@ -59,6 +61,32 @@ public interface INavigationService {
      */
     GraphPath<IMapTileInformation> findPath(Point start, Point end, INavigable navigable);
 
+    /**
+     * Requests a path between the given points. The path is searched in the
+     * background, identical requests waiting for a result share the same
+     * search. Must be called from the game logic thread, the future is also
+     * completed in the game logic thread.
+     *
+     * @param start start point
+     * @param end end point
+     * @param navigable the entity to find path for
+     * @return future completing with the output path, or with {@code null}
+     * if path not found
+     */
+    CompletableFuture<GraphPath<IMapTileInformation>> requestPath(Point start, Point end, INavigable navigable);
+
+    /**
+     * Checks whether the end point can be reached from the start point. Much
+     * cheaper than finding the path, use this when the route itself is not
+     * needed.
+     *
+     * @param start start point
+     * @param end end point
+     * @param navigable the entity to test with
+     * @return true if there is a path
+     */
+    boolean isReachable(Point start, Point end, INavigable navigable);
+
     /**
      * Check if given tile is accessible by the given creature
      *
@@ -18,45 +18,113 @@ package toniarts.openkeeper.game.navigation;
 
 import com.badlogic.gdx.ai.pfa.DefaultGraphPath;
 import com.badlogic.gdx.ai.pfa.GraphPath;
+import com.simsilica.es.Entity;
+import com.simsilica.es.EntityData;
+import com.simsilica.es.EntitySet;
 import java.awt.Point;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 import toniarts.openkeeper.common.RoomInstance;
+import toniarts.openkeeper.game.component.DoorComponent;
+import toniarts.openkeeper.game.component.Owner;
+import toniarts.openkeeper.game.component.Position;
+import toniarts.openkeeper.game.controller.IGameWorldController;
 import toniarts.openkeeper.game.controller.IMapController;
+import toniarts.openkeeper.game.listener.MapListener;
+import toniarts.openkeeper.game.listener.PlayerActionListener;
 import toniarts.openkeeper.game.logic.IEntityPositionLookup;
+import toniarts.openkeeper.game.logic.IGameLogicUpdatable;
 import toniarts.openkeeper.game.map.IMapTileInformation;
 import toniarts.openkeeper.game.navigation.pathfinding.INavigable;
-import toniarts.openkeeper.game.navigation.pathfinding.MapDistance;
-import toniarts.openkeeper.game.navigation.pathfinding.MapIndexedGraph;
+import toniarts.openkeeper.game.navigation.pathfinding.MapClusters;
+import toniarts.openkeeper.game.navigation.pathfinding.MapConnections;
 import toniarts.openkeeper.game.navigation.pathfinding.MapPathFinder;
+import toniarts.openkeeper.game.navigation.pathfinding.MapRegions;
+import toniarts.openkeeper.game.navigation.pathfinding.MovementClass;
 import toniarts.openkeeper.utils.Utils;
+import toniarts.openkeeper.utils.WorldUtils;
 
 /**
- * Offers navigation related services
+ * Offers navigation related services. Needs to be updated in the game logic
+ * loop for the asynchronous path requests to be processed.
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
-public class NavigationService implements INavigationService {
+public class NavigationService implements INavigationService, IGameLogicUpdatable {
 
     private final IMapController mapController;
     private final IEntityPositionLookup entityPositionLookup;
-    private final MapIndexedGraph pathFindingMap;
+    private final MapConnections mapConnections;
+    private final MapRegions mapRegions;
+    private final MapClusters mapClusters;
     private final MapPathFinder pathFinder;
-    private final MapDistance heuristic;
+    private final FlowFieldCache flowFieldCache;
+    private final PathRequestQueue pathRequestQueue;
+    private final EntitySet doorEntities;
 
     private static final Logger LOGGER = Logger.getLogger(NavigationService.class.getName());
 
-    public NavigationService(IMapController mapController, IEntityPositionLookup entityPositionLookup) {
-        this.mapController = mapController;
+    public NavigationService(IGameWorldController gameWorldController, IEntityPositionLookup entityPositionLookup, EntityData entityData) {
+        this.mapController = gameWorldController.getMapController();
         this.entityPositionLookup = entityPositionLookup;
 
-        pathFindingMap = new MapIndexedGraph(mapController, entityPositionLookup);
-        pathFinder = new MapPathFinder(pathFindingMap, false);
-        heuristic = new MapDistance();
+        mapConnections = new MapConnections(mapController);
+        mapRegions = new MapRegions(mapConnections, entityPositionLookup);
+        mapClusters = new MapClusters(mapConnections);
+        pathFinder = new MapPathFinder(mapConnections, mapClusters, mapController, entityPositionLookup);
+        flowFieldCache = new FlowFieldCache(mapConnections, entityPositionLookup);
+        pathRequestQueue = new PathRequestQueue(pathFinder, flowFieldCache);
+
+        // Doors split the map into regions
+        doorEntities = entityData.getEntities(DoorComponent.class, Owner.class, Position.class);
+
+        addListeners(gameWorldController);
+    }
+
+    private void addListeners(IGameWorldController gameWorldController) {
+
+        // Keep the connections up to date
+        mapController.addListener(new MapListener() {
+
+            @Override
+            public void onTilesChange(List<Point> updatedTiles) {
+                updateTiles(updatedTiles);
+            }
+
+            @Override
+            public void onTileFlash(List<Point> points, boolean enabled, short keeperId) {
+                // Not interested
+            }
+
+        });
+
+        // Building and selling rooms don't go through the map listener
+        gameWorldController.addListener(new PlayerActionListener() {
+
+            @Override
+            public void onBuild(short keeperId, List<Point> tiles) {
+                updateTiles(tiles);
+            }
+
+            @Override
+            public void onSold(short keeperId, List<Point> tiles) {
+                updateTiles(tiles);
+            }
+
+        });
     }
 
+    private void updateTiles(List<Point> updatedTiles) {
+        BitSet updatableTiles = mapConnections.updateTiles(updatedTiles);
+        mapRegions.updateTiles(updatableTiles);
+        mapClusters.updateTiles(updatableTiles);
+        flowFieldCache.invalidate(updatableTiles);
+    }
 
     @Override
     public Point findRandomAccessibleTile(Point start, int radius, INavigable navigable) {
@@ -108,30 +176,122 @@ public class NavigationService implements INavigationService {
         }
     }
 
-    /**
-     * Note that this is not thread safe!!
-     *
-     * @param start
-     * @param end
-     * @param navigable
-     * @return
-     */
     @Override
     public GraphPath<IMapTileInformation> findPath(Point start, Point end, INavigable navigable) {
-        pathFindingMap.setPathFindable(navigable);
-        GraphPath<IMapTileInformation> outPath = new DefaultGraphPath<>();
         IMapTileInformation startTile = mapController.getMapData().getTile(start.x, start.y);
         IMapTileInformation endTile = mapController.getMapData().getTile(end.x, end.y);
-        if (startTile != null && endTile != null && pathFinder.searchNodePath(startTile, endTile, heuristic, outPath)) {
+        if (startTile == null || endTile == null || !isReachable(startTile, endTile, navigable)) {
+            return null;
+        }
+
+        // The flow fields only know the movement classes
+        if (!navigable.canPassObstacles()) {
+            FlowField flowField = flowFieldCache.getFlowField(endTile.getIndex(), MovementClass.of(navigable), navigable.getOwnerId());
+            if (flowField != null) {
+                return flowField.getPath(startTile.getIndex());
+            }
+        }
+
+        GraphPath<IMapTileInformation> outPath = new DefaultGraphPath<>();
+        if (pathFinder.searchNodePath(startTile, endTile, navigable, outPath)) {
             return outPath;
         }
         return null;
     }
 
+    @Override
+    public CompletableFuture<GraphPath<IMapTileInformation>> requestPath(Point start, Point end, INavigable navigable) {
+        IMapTileInformation startTile = mapController.getMapData().getTile(start.x, start.y);
+        IMapTileInformation endTile = mapController.getMapData().getTile(end.x, end.y);
+        if (startTile == null || endTile == null || !isReachable(startTile, endTile, navigable)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // Own costs, search right away, the obstacle costs look at the entities and are not safe to ask in the background
+        if (navigable.canPassObstacles()) {
+            GraphPath<IMapTileInformation> outPath = new DefaultGraphPath<>();
+            return CompletableFuture.completedFuture(pathFinder.searchNodePath(startTile, endTile, navigable, outPath) ? outPath : null);
+        }
+
+        return pathRequestQueue.requestPath(startTile, endTile, navigable);
+    }
+
+    @Override
+    public boolean isReachable(Point start, Point end, INavigable navigable) {
+        IMapTileInformation startTile = mapController.getMapData().getTile(start.x, start.y);
+        IMapTileInformation endTile = mapController.getMapData().getTile(end.x, end.y);
+        return startTile != null && endTile != null && isReachable(startTile, endTile, navigable);
+    }
+
+    private boolean isReachable(IMapTileInformation startTile, IMapTileInformation endTile, INavigable navigable) {
+
+        // The regions only know the movement classes, obstacles may be passed by other means
+        if (navigable.canPassObstacles()) {
+            return true;
+        }
+
+        return mapRegions.isReachable(startTile.getIndex(), endTile.getIndex(), MovementClass.of(navigable), navigable.getOwnerId());
+    }
+
     @Override
     public boolean isAccessible(IMapTileInformation from, IMapTileInformation to, INavigable navigable) {
-        Float cost = navigable.getCost(from, to, mapController, entityPositionLookup);
+        Float cost = pathFinder.getCost(from, to, navigable);
         return cost != null;
     }
 
+    @Override
+    public void processTick(float tpf, double gameTime) {
+        if (doorEntities.applyChanges()) {
+            mapRegions.updateDoors();
+            flowFieldCache.invalidate(getDoorTiles());
+        }
+        pathRequestQueue.processTick(tpf, gameTime);
+    }
+
+    /**
+     * Get the tiles of the changed doors, and their neighbours
+     *
+     * @return the door tiles
+     */
+    private BitSet getDoorTiles() {
+        BitSet doorTiles = new BitSet(mapConnections.getNodeCount());
+        addDoorTiles(doorTiles, doorEntities.getAddedEntities());
+        addDoorTiles(doorTiles, doorEntities.getChangedEntities());
+        addDoorTiles(doorTiles, doorEntities.getRemovedEntities());
+
+        return doorTiles;
+    }
+
+    private void addDoorTiles(BitSet doorTiles, Set<Entity> entities) {
+        for (Entity entity : entities) {
+            Position position = entity.get(Position.class);
+            if (position == null) {
+                continue;
+            }
+            Point p = WorldUtils.vectorToPoint(position.position);
+            int index = mapConnections.getIndex(p.x, p.y);
+            if (index < 0) {
+                continue;
+            }
+            doorTiles.set(index);
+            for (int direction = 0; direction < MapConnections.DIRECTIONS; direction++) {
+                int neighbour = mapConnections.getNeighbour(index, direction);
+                if (neighbour >= 0) {
+                    doorTiles.set(neighbour);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void start() {
+        pathRequestQueue.start();
+    }
+
+    @Override
+    public void stop() {
+        pathRequestQueue.stop();
+        doorEntities.release();
+    }
+
 }
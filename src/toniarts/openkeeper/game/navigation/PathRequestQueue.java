@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.navigation;
+
+import com.badlogic.gdx.ai.pfa.DefaultGraphPath;
+import com.badlogic.gdx.ai.pfa.GraphPath;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import toniarts.openkeeper.game.logic.IGameLogicUpdatable;
+import toniarts.openkeeper.game.map.IMapTileInformation;
+import toniarts.openkeeper.game.navigation.pathfinding.INavigable;
+import toniarts.openkeeper.game.navigation.pathfinding.MapPathFinder;
+import toniarts.openkeeper.game.navigation.pathfinding.MovementClass;
+
+/**
+ * Queues up path requests and searches them in the background. Each game
+ * tick only a limited amount of new searches are started so that a burst of
+ * requests doesn't stall anything. Identical requests waiting for a result are
+ * served with the same search. When many requests are heading to the same goal,
+ * a {@link FlowField} is built instead and all of them are served from it.<br>
+ * Requests are made and the results are delivered in the game logic thread,
+ * the futures are completed at the start of the tick, so listening them is
+ * safe.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class PathRequestQueue implements IGameLogicUpdatable {
+
+    /**
+     * How many new searches we start per tick
+     */
+    public static final int DEFAULT_MAX_REQUESTS_PER_TICK = 32;
+
+    /**
+     * How many requests to the same goal make it worthwhile to build a flow
+     * field
+     */
+    public static final int FLOW_FIELD_MIN_REQUESTS = 4;
+
+    private final MapPathFinder pathFinder;
+    private final FlowFieldCache flowFieldCache;
+    private final int maxRequestsPerTick;
+    private final ExecutorService executorService;
+    private final Queue<PathRequest> requests = new ArrayDeque<>();
+    private final Map<PathRequestKey, PathRequest> pendingRequests = new HashMap<>();
+    private final Map<Long, Integer> queuedRequestsByGoal = new HashMap<>();
+    private final Queue<PathRequest> finishedRequests = new ConcurrentLinkedQueue<>();
+
+    private static final Logger LOGGER = Logger.getLogger(PathRequestQueue.class.getName());
+
+    public PathRequestQueue(MapPathFinder pathFinder, FlowFieldCache flowFieldCache) {
+        this(pathFinder, flowFieldCache, DEFAULT_MAX_REQUESTS_PER_TICK, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    public PathRequestQueue(MapPathFinder pathFinder, FlowFieldCache flowFieldCache, int maxRequestsPerTick, int threads) {
+        this.pathFinder = pathFinder;
+        this.flowFieldCache = flowFieldCache;
+        this.maxRequestsPerTick = maxRequestsPerTick;
+        this.executorService = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            private final AtomicInteger threadIndex = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PathFinder_" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        });
+    }
+
+    /**
+     * Request a path. Must be called from the game logic thread.
+     *
+     * @param startTile start tile
+     * @param endTile end tile
+     * @param navigable the entity to find path for
+     * @return future that completes with the path, or with {@code null} if
+     * there is no path
+     */
+    public CompletableFuture<GraphPath<IMapTileInformation>> requestPath(IMapTileInformation startTile, IMapTileInformation endTile, INavigable navigable) {
+        PathRequestKey key = new PathRequestKey(startTile.getIndex(), endTile.getIndex(), MovementClass.of(navigable), navigable.getOwnerId());
+
+        // Someone has already been there
+        FlowField flowField = flowFieldCache.getFlowField(key.end, key.movementClass, key.ownerId);
+        if (flowField != null) {
+            return CompletableFuture.completedFuture(flowField.getPath(key.start));
+        }
+
+        PathRequest request = pendingRequests.get(key);
+        if (request == null || request.future.isCancelled()) {
+            request = new PathRequest(key, startTile, endTile);
+            pendingRequests.put(key, request);
+            requests.add(request);
+            queuedRequestsByGoal.merge(key.getGoalKey(), 1, Integer::sum);
+        }
+
+        return request.future;
+    }
+
+    @Override
+    public void processTick(float tpf, double gameTime) {
+
+        // Deliver the results
+        PathRequest request;
+        while ((request = finishedRequests.poll()) != null) {
+            pendingRequests.remove(request.key, request);
+            if (request.error != null) {
+                request.future.completeExceptionally(request.error);
+            } else {
+                request.future.complete(request.path);
+            }
+        }
+
+        // Start new searches
+        int requestsStarted = 0;
+        while (requestsStarted < maxRequestsPerTick && (request = requests.poll()) != null) {
+            long goalKey = request.key.getGoalKey();
+            int queuedRequests = queuedRequestsByGoal.merge(goalKey, -1, Integer::sum) + 1;
+            if (queuedRequests == 1) {
+                queuedRequestsByGoal.remove(goalKey);
+            }
+            if (request.future.isCancelled()) {
+                pendingRequests.remove(request.key, request);
+                continue;
+            }
+            if (queuedRequests >= FLOW_FIELD_MIN_REQUESTS) {
+                executorService.execute(new FlowFieldRequest(request, takeQueuedRequests(goalKey)));
+            } else {
+                executorService.execute(request);
+            }
+            requestsStarted++;
+        }
+    }
+
+    private List<PathRequest> takeQueuedRequests(long goalKey) {
+        List<PathRequest> goalRequests = new ArrayList<>(queuedRequestsByGoal.getOrDefault(goalKey, 0));
+        Iterator<PathRequest> iter = requests.iterator();
+        while (iter.hasNext()) {
+            PathRequest request = iter.next();
+            if (request.key.getGoalKey() == goalKey) {
+                iter.remove();
+                goalRequests.add(request);
+            }
+        }
+        queuedRequestsByGoal.remove(goalKey);
+
+        return goalRequests;
+    }
+
+    @Override
+    public void start() {
+
+    }
+
+    @Override
+    public void stop() {
+        executorService.shutdownNow();
+        requests.clear();
+        queuedRequestsByGoal.clear();
+        for (PathRequest request : pendingRequests.values()) {
+            request.future.cancel(false);
+        }
+        pendingRequests.clear();
+        finishedRequests.clear();
+    }
+
+    private class PathRequest implements Runnable {
+
+        private final PathRequestKey key;
+        private final IMapTileInformation startTile;
+        private final IMapTileInformation endTile;
+        private final CompletableFuture<GraphPath<IMapTileInformation>> future = new CompletableFuture<>();
+        private volatile GraphPath<IMapTileInformation> path;
+        private volatile Throwable error;
+
+        public PathRequest(PathRequestKey key, IMapTileInformation startTile, IMapTileInformation endTile) {
+            this.key = key;
+            this.startTile = startTile;
+            this.endTile = endTile;
+        }
+
+        @Override
+        public void run() {
+            try {
+                GraphPath<IMapTileInformation> outPath = new DefaultGraphPath<>();
+                if (pathFinder.searchNodePath(startTile, endTile, key.movementClass, key.ownerId, outPath)) {
+                    path = outPath;
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.SEVERE, "Failed to find path from " + startTile.getLocation() + " to " + endTile.getLocation() + "!", e);
+                error = e;
+            }
+            finishedRequests.add(this);
+        }
+
+    }
+
+    /**
+     * Serves several path requests to the same goal with one flow field
+     */
+    private class FlowFieldRequest implements Runnable {
+
+        private final PathRequest request;
+        private final List<PathRequest> otherRequests;
+
+        public FlowFieldRequest(PathRequest request, List<PathRequest> otherRequests) {
+            this.request = request;
+            this.otherRequests = otherRequests;
+        }
+
+        @Override
+        public void run() {
+            FlowField flowField = null;
+            try {
+                flowField = flowFieldCache.getOrBuildFlowField(request.key.end, request.key.movementClass, request.key.ownerId);
+            } catch (Exception e) {
+                LOGGER.log(Level.SEVERE, "Failed to build flow field to " + request.endTile.getLocation() + "!", e);
+            }
+
+            // If the flow field fails us, just search the paths one by one
+            serve(request, flowField);
+            for (PathRequest otherRequest : otherRequests) {
+                serve(otherRequest, flowField);
+            }
+        }
+
+        private void serve(PathRequest pathRequest, FlowField flowField) {
+            if (flowField == null) {
+                pathRequest.run();
+                return;
+            }
+            pathRequest.path = flowField.getPath(pathRequest.key.start);
+            finishedRequests.add(pathRequest);
+        }
+
+    }
+
+    private static final class PathRequestKey {
+
+        private final int start;
+        private final int end;
+        private final int movementClass;
+        private final short ownerId;
+
+        public PathRequestKey(int start, int end, int movementClass, short ownerId) {
+            this.start = start;
+            this.end = end;
+            this.movementClass = movementClass;
+            this.ownerId = ownerId;
+        }
+
+        public long getGoalKey() {
+            return FlowFieldCache.getKey(end, movementClass, ownerId);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 53 * hash + this.start;
+            hash = 53 * hash + this.end;
+            hash = 53 * hash + this.movementClass;
+            hash = 53 * hash + this.ownerId;
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null) {
+                return false;
+            }
+            if (getClass() != obj.getClass()) {
+                return false;
+            }
+            final PathRequestKey other = (PathRequestKey) obj;
+            return this.start == other.start && this.end == other.end
+                    && this.movementClass == other.movementClass && this.ownerId == other.ownerId;
+        }
+
+    }
+
+}
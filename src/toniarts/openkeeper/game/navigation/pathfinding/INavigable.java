@@ -37,7 +37,22 @@ public interface INavigable {
     public static final float DEFAULT_COST = 1.0f;
 
     /**
-     * Can the entity travel from A to B?
+     * Can the entity pass tiles that are not accessible for its movement
+     * class, i.e. by digging through walls or smashing doors. The shared
+     * navigation data only knows the movement classes, so these entities are
+     * searched separately with their own costs.
+     *
+     * @return true if the entity has obstacle costs
+     * @see #getObstacleCost(IMapTileInformation, IMapTileInformation,
+     * IMapController, IEntityPositionLookup)
+     */
+    default public boolean canPassObstacles() {
+        return false;
+    }
+
+    /**
+     * Can the entity travel from A to B, when the movement class doesn't allow
+     * it? Only asked if {@link #canPassObstacles()}.
      *
      * @param from the tile we are traversing from, always the adjacent tile
      * which we know already being accessible
@@ -45,12 +60,11 @@ public interface INavigable {
      * @param mapController the map controller
      * @param entityPositionLookup the entity lookup
      * @see #DEFAULT_COST
-     * @see #WATER_COST
      * @return {@code null} if the to tile is not accessible
      */
-    default public Float getCost(final IMapTileInformation from, final IMapTileInformation to, final IMapController mapController,
+    default public Float getObstacleCost(final IMapTileInformation from, final IMapTileInformation to, final IMapController mapController,
             final IEntityPositionLookup entityPositionLookup) {
-        return MapIndexedGraph.getCost(this, from, to, mapController, entityPositionLookup);
+        return null;
     }
 
     /**
@@ -0,0 +1,366 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.navigation.pathfinding;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntPredicate;
+
+/**
+ * Abstract graph for hierarchical path finding (HPA*). The map is divided to
+ * square clusters, aligned with the map view pages. Adjacent clusters are
+ * connected through entrances on their shared border, and the routes between
+ * the entrances inside a cluster are precomputed. Long paths can then be
+ * searched over the entrances only, and refined tile by tile afterwards.<br>
+ * Clusters are built per movement class on first use. Tile changes only
+ * invalidate the clusters they touch. Doors are not part of the abstract
+ * graph, they are checked when searching.<br>
+ * Safe to use from multiple threads.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public final class MapClusters {
+
+    /**
+     * Cluster size in tiles, two map view pages wide
+     */
+    public static final int CLUSTER_SIZE = 16;
+
+    private static final int NORTH = 0;
+    private static final int EAST = 1;
+    private static final int SOUTH = 2;
+    private static final int WEST = 3;
+
+    private static final IntPredicate NOT_BLOCKED = (node) -> false;
+
+    private final MapConnections connections;
+    private final int clustersX;
+    private final int clustersY;
+    private final Cluster[][] clustersByMovementClass = new Cluster[MovementClass.COUNT][];
+    private final MapSearchState buildState;
+
+    public MapClusters(MapConnections connections) {
+        this.connections = connections;
+        this.clustersX = (connections.getWidth() + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        this.clustersY = (connections.getHeight() + CLUSTER_SIZE - 1) / CLUSTER_SIZE;
+        this.buildState = new MapSearchState(connections.getNodeCount());
+    }
+
+    /**
+     * Get the cluster the tile belongs to
+     *
+     * @param index the tile index
+     * @return the cluster index
+     */
+    public int getClusterIndex(int index) {
+        int width = connections.getWidth();
+        return (index / width / CLUSTER_SIZE) * clustersX + (index % width / CLUSTER_SIZE);
+    }
+
+    /**
+     * Get a cluster, building it if needed
+     *
+     * @param movementClass the movement class
+     * @param clusterIndex the cluster index
+     * @return the cluster
+     */
+    public synchronized Cluster getCluster(int movementClass, int clusterIndex) {
+        Cluster[] clusters = clustersByMovementClass[movementClass];
+        if (clusters == null) {
+            clusters = new Cluster[clustersX * clustersY];
+            clustersByMovementClass[movementClass] = clusters;
+        }
+        Cluster cluster = clusters[clusterIndex];
+        if (cluster == null) {
+            cluster = createCluster(movementClass, clusterIndex);
+            clusters[clusterIndex] = cluster;
+        }
+
+        return cluster;
+    }
+
+    /**
+     * Invalidate the clusters after the connections of the given tiles have
+     * changed. Clusters next to the changed tiles are also invalidated since
+     * they share the entrances.
+     *
+     * @param updatedTiles the tiles whose connections were recalculated
+     * @see MapConnections#updateTiles(java.util.Collection)
+     */
+    public synchronized void updateTiles(BitSet updatedTiles) {
+        BitSet dirtyClusters = new BitSet(clustersX * clustersY);
+        for (int index = updatedTiles.nextSetBit(0); index >= 0; index = updatedTiles.nextSetBit(index + 1)) {
+            dirtyClusters.set(getClusterIndex(index));
+            for (int direction = 0; direction < MapConnections.ORTHOGONAL_DIRECTIONS; direction++) {
+                int neighbour = connections.getNeighbour(index, direction);
+                if (neighbour >= 0) {
+                    dirtyClusters.set(getClusterIndex(neighbour));
+                }
+            }
+        }
+
+        for (Cluster[] clusters : clustersByMovementClass) {
+            if (clusters == null) {
+                continue;
+            }
+            for (int clusterIndex = dirtyClusters.nextSetBit(0); clusterIndex >= 0; clusterIndex = dirtyClusters.nextSetBit(clusterIndex + 1)) {
+                clusters[clusterIndex] = null;
+            }
+        }
+    }
+
+    /**
+     * Dijkstra search from the given tile, limited to the tiles of the
+     * cluster. Afterwards the closed tiles in the search state hold the
+     * shortest costs from the start tile.
+     *
+     * @param state the search state
+     * @param clusterIndex the cluster to search in
+     * @param start the start tile index
+     * @param movementClass the movement class
+     * @param blocked tells whether a tile is blocked (i.e. by a door)
+     */
+    void searchCluster(MapSearchState state, int clusterIndex, int start, int movementClass, IntPredicate blocked) {
+        float[] costs = connections.getCosts(movementClass);
+        int directions = MovementClass.canMoveDiagonally(movementClass) ? MapConnections.DIRECTIONS : MapConnections.ORTHOGONAL_DIRECTIONS;
+
+        state.reset();
+        state.open(start, -1, 0, 0);
+        while (!state.isOpenListEmpty()) {
+            int current = state.closeNext();
+
+            int passableSides = 0;
+            for (int direction = 0; direction < directions; direction++) {
+                int node = connections.getNeighbour(current, direction);
+                float connectionCost = costs[current * MapConnections.DIRECTIONS + direction];
+                if (node < 0 || Float.isNaN(connectionCost) || getClusterIndex(node) != clusterIndex) {
+                    continue;
+                }
+                if (direction >= MapConnections.ORTHOGONAL_DIRECTIONS
+                        && ((passableSides & (1 << MapConnections.getFirstSide(direction))) == 0
+                        || (passableSides & (1 << MapConnections.getSecondSide(direction))) == 0)) {
+                    continue;
+                }
+                if (blocked.test(node)) {
+                    continue;
+                }
+                if (direction < MapConnections.ORTHOGONAL_DIRECTIONS) {
+                    passableSides |= 1 << direction;
+                }
+
+                float nodeCost = state.getCostSoFar(current) + connectionCost;
+                if (state.getCategory(node) != MapSearchState.UNVISITED && state.getCostSoFar(node) <= nodeCost) {
+                    continue;
+                }
+                state.open(node, current, nodeCost, nodeCost);
+            }
+        }
+    }
+
+    private Cluster createCluster(int movementClass, int clusterIndex) {
+        float[] costs = connections.getCosts(movementClass);
+        int clusterX = clusterIndex % clustersX;
+        int clusterY = clusterIndex / clustersX;
+        int minX = clusterX * CLUSTER_SIZE;
+        int minY = clusterY * CLUSTER_SIZE;
+        int maxX = Math.min(minX + CLUSTER_SIZE, connections.getWidth()) - 1;
+        int maxY = Math.min(minY + CLUSTER_SIZE, connections.getHeight()) - 1;
+
+        // Entrances on each border, the same scan on the other side of the border gives the same result
+        Cluster cluster = new Cluster();
+        addEntrances(cluster, costs, minX, minY, maxX, minY, EAST, NORTH);
+        addEntrances(cluster, costs, maxX, minY, maxX, maxY, SOUTH, EAST);
+        addEntrances(cluster, costs, minX, maxY, maxX, maxY, EAST, SOUTH);
+        addEntrances(cluster, costs, minX, minY, minX, maxY, SOUTH, WEST);
+
+        // Routes between the entrances
+        int nodeCount = cluster.nodeCount;
+        cluster.intraCosts = new float[nodeCount * nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            searchCluster(buildState, clusterIndex, cluster.nodes[i], movementClass, NOT_BLOCKED);
+            for (int j = 0; j < nodeCount; j++) {
+                int node = cluster.nodes[j];
+                cluster.intraCosts[i * nodeCount + j] = i != j && buildState.getCategory(node) == MapSearchState.CLOSED ? buildState.getCostSoFar(node) : Float.NaN;
+            }
+        }
+        cluster.trim();
+
+        return cluster;
+    }
+
+    /**
+     * Scans a cluster border for entrances. Each continuous run of tiles
+     * passable in both directions over the border gets one entrance in the
+     * middle of the run.
+     *
+     * @param cluster the cluster to add the entrances to
+     * @param costs the connection costs
+     * @param startX border start x
+     * @param startY border start y
+     * @param endX border end x
+     * @param endY border end y
+     * @param alongDirection the direction to scan along the border
+     * @param outDirection the direction out of the cluster
+     */
+    private void addEntrances(Cluster cluster, float[] costs, int startX, int startY, int endX, int endY, int alongDirection, int outDirection) {
+        int inDirection = MapConnections.getOpposite(outDirection);
+        int runStart = -1;
+        int runLength = 0;
+        int index = connections.getIndex(startX, startY);
+        int end = connections.getIndex(endX, endY);
+        while (true) {
+            int neighbour = connections.getNeighbour(index, outDirection);
+            boolean passable = neighbour >= 0
+                    && !Float.isNaN(costs[index * MapConnections.DIRECTIONS + outDirection])
+                    && !Float.isNaN(costs[neighbour * MapConnections.DIRECTIONS + inDirection]);
+            if (passable) {
+                if (runLength == 0) {
+                    runStart = index;
+                }
+                runLength++;
+            }
+            if ((!passable || index == end) && runLength > 0) {
+                int entrance = runStart;
+                for (int i = 0; i < runLength / 2; i++) {
+                    entrance = connections.getNeighbour(entrance, alongDirection);
+                }
+                cluster.addEntrance(entrance, connections.getNeighbour(entrance, outDirection), costs[entrance * MapConnections.DIRECTIONS + outDirection]);
+                runLength = 0;
+            }
+            if (index == end) {
+                break;
+            }
+            index = connections.getNeighbour(index, alongDirection);
+        }
+    }
+
+    /**
+     * A single cluster of the abstract graph. The nodes are the entrance tiles
+     * of the cluster. Immutable once built.
+     */
+    public static final class Cluster {
+
+        private int[] nodes = new int[8];
+        private int nodeCount;
+        private float[] intraCosts;
+        private int[] interFrom = new int[8];
+        private int[] interTo = new int[8];
+        private float[] interCosts = new float[8];
+        private int interCount;
+
+        private Cluster() {
+        }
+
+        private void addEntrance(int node, int target, float cost) {
+            int slot = indexOf(node);
+            if (slot < 0) {
+                if (nodeCount == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, nodeCount * 2);
+                }
+                slot = nodeCount;
+                nodes[nodeCount++] = node;
+            }
+            if (interCount == interFrom.length) {
+                interFrom = Arrays.copyOf(interFrom, interCount * 2);
+                interTo = Arrays.copyOf(interTo, interCount * 2);
+                interCosts = Arrays.copyOf(interCosts, interCount * 2);
+            }
+            interFrom[interCount] = slot;
+            interTo[interCount] = target;
+            interCosts[interCount++] = cost;
+        }
+
+        private void trim() {
+            nodes = Arrays.copyOf(nodes, nodeCount);
+            interFrom = Arrays.copyOf(interFrom, interCount);
+            interTo = Arrays.copyOf(interTo, interCount);
+            interCosts = Arrays.copyOf(interCosts, interCount);
+        }
+
+        public int getNodeCount() {
+            return nodeCount;
+        }
+
+        /**
+         * Get the tile index of a node
+         *
+         * @param slot the node slot in this cluster
+         * @return the tile index
+         */
+        public int getNode(int slot) {
+            return nodes[slot];
+        }
+
+        /**
+         * Get the slot of a tile
+         *
+         * @param node the tile index
+         * @return the node slot in this cluster, or -1 if the tile is not an
+         * entrance
+         */
+        public int indexOf(int node) {
+            for (int i = 0; i < nodeCount; i++) {
+                if (nodes[i] == node) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        /**
+         * Get the cost of the route between two nodes inside the cluster
+         *
+         * @param from the from node slot
+         * @param to the to node slot
+         * @return the cost, {@code NaN} if there is no route
+         */
+        public float getIntraCost(int from, int to) {
+            return intraCosts[from * nodeCount + to];
+        }
+
+        public int getInterEdgeCount() {
+            return interCount;
+        }
+
+        /**
+         * Get the node slot an edge to the neighbouring cluster starts from
+         *
+         * @param edge the edge
+         * @return the node slot
+         */
+        public int getInterEdgeFrom(int edge) {
+            return interFrom[edge];
+        }
+
+        /**
+         * Get the tile index in the neighbouring cluster an edge leads to
+         *
+         * @param edge the edge
+         * @return the tile index
+         */
+        public int getInterEdgeTo(int edge) {
+            return interTo[edge];
+        }
+
+        public float getInterEdgeCost(int edge) {
+            return interCosts[edge];
+        }
+
+    }
+
+}
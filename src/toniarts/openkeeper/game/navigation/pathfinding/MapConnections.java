@@ -0,0 +1,297 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.navigation.pathfinding;
+
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import toniarts.openkeeper.common.RoomInstance;
+import toniarts.openkeeper.game.controller.IMapController;
+import toniarts.openkeeper.game.map.IMapDataInformation;
+import toniarts.openkeeper.game.map.IMapTileInformation;
+
+/**
+ * Precomputed connections between the map tiles. The neighbours of each tile
+ * are static, the terrain costs are calculated per movement class on first
+ * use and kept up to date as the tiles change. Tiles are referred by their
+ * index ({@link IMapTileInformation#getIndex()}), connection costs are stored
+ * in flat arrays of {@link #DIRECTIONS} slots per tile, {@code NaN} marking a
+ * missing connection.<br>
+ * Doors and such dynamic obstacles are not part of the costs, they need to be
+ * checked separately.<br>
+ * Reading is safe from any thread, updates are serialized.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public final class MapConnections {
+
+    /**
+     * Number of directions per tile, the first {@link #ORTHOGONAL_DIRECTIONS}
+     * of them are the orthogonal ones (N, E, S, W), the rest are diagonals
+     * (NE, NW, SE, SW)
+     */
+    public static final int DIRECTIONS = 8;
+    public static final int ORTHOGONAL_DIRECTIONS = 4;
+
+    private static final int[] DIRECTION_X = {0, 1, 0, -1, 1, -1, 1, -1};
+    private static final int[] DIRECTION_Y = {-1, 0, 1, 0, -1, -1, 1, 1};
+
+    /**
+     * The orthogonal directions forming each diagonal. A diagonal move is only
+     * allowed when both of these are passable, we can't squeeze through
+     * corners
+     */
+    private static final int[] DIAGONAL_FIRST_SIDE = {0, 0, 2, 2};
+    private static final int[] DIAGONAL_SECOND_SIDE = {1, 3, 1, 3};
+    private static final int[] OPPOSITE_DIRECTION = {2, 3, 0, 1, 7, 6, 5, 4};
+
+    private final IMapController mapController;
+    private final int width;
+    private final int height;
+    private final int nodeCount;
+    private final int[] neighbours;
+    private final AtomicReferenceArray<float[]> costsByMovementClass = new AtomicReferenceArray<>(MovementClass.COUNT);
+
+    public MapConnections(IMapController mapController) {
+        this.mapController = mapController;
+
+        IMapDataInformation<?> mapData = mapController.getMapData();
+        width = mapData.getWidth();
+        height = mapData.getHeight();
+        nodeCount = width * height;
+
+        // Neighbours never change, no matter who is asking
+        neighbours = new int[nodeCount * DIRECTIONS];
+        for (int index = 0; index < nodeCount; index++) {
+            int x = index % width;
+            int y = index / width;
+            for (int direction = 0; direction < DIRECTIONS; direction++) {
+                int neighbourX = x + DIRECTION_X[direction];
+                int neighbourY = y + DIRECTION_Y[direction];
+                neighbours[index * DIRECTIONS + direction] = isValidCoordinate(neighbourX, neighbourY) ? neighbourY * width + neighbourX : -1;
+            }
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Get the tile index of a neighbour
+     *
+     * @param index the tile index
+     * @param direction the direction
+     * @return neighbour tile index, or -1 if the neighbour is outside the map
+     */
+    public int getNeighbour(int index, int direction) {
+        return neighbours[index * DIRECTIONS + direction];
+    }
+
+    /**
+     * Get the tile of given index
+     *
+     * @param index the tile index
+     * @return the map tile
+     */
+    public IMapTileInformation getTile(int index) {
+        return mapController.getMapData().getTile(index % width, index / width);
+    }
+
+    /**
+     * Get the index of the tile at given coordinates
+     *
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the tile index, or -1 if outside the map
+     */
+    public int getIndex(int x, int y) {
+        return isValidCoordinate(x, y) ? y * width + x : -1;
+    }
+
+    /**
+     * Get the direction from a tile to its neighbour
+     *
+     * @param index the tile index
+     * @param neighbour the neighbouring tile index
+     * @return the direction, or -1 if the tiles are not neighbours
+     */
+    public int getDirection(int index, int neighbour) {
+        for (int direction = 0; direction < DIRECTIONS; direction++) {
+            if (getNeighbour(index, direction) == neighbour) {
+                return direction;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Get the first orthogonal side of a diagonal direction
+     *
+     * @param direction the diagonal direction
+     * @return the orthogonal direction
+     */
+    public static int getFirstSide(int direction) {
+        return DIAGONAL_FIRST_SIDE[direction - ORTHOGONAL_DIRECTIONS];
+    }
+
+    /**
+     * Get the second orthogonal side of a diagonal direction
+     *
+     * @param direction the diagonal direction
+     * @return the orthogonal direction
+     */
+    public static int getSecondSide(int direction) {
+        return DIAGONAL_SECOND_SIDE[direction - ORTHOGONAL_DIRECTIONS];
+    }
+
+    /**
+     * Get the opposite direction
+     *
+     * @param direction the direction
+     * @return the direction pointing back
+     */
+    public static int getOpposite(int direction) {
+        return OPPOSITE_DIRECTION[direction];
+    }
+
+    /**
+     * Get the terrain costs for the given movement class. The cost of moving
+     * from tile <i>i</i> to direction <i>d</i> is at {@code i * DIRECTIONS + d}.
+     * The returned array is live, do not modify it.
+     *
+     * @param movementClass the movement class
+     * @return the connection costs
+     * @see MovementClass
+     */
+    public float[] getCosts(int movementClass) {
+        float[] costs = costsByMovementClass.get(movementClass);
+        if (costs == null) {
+            costs = createCosts(movementClass);
+        }
+
+        return costs;
+    }
+
+    private synchronized float[] createCosts(int movementClass) {
+        float[] costs = costsByMovementClass.get(movementClass);
+        if (costs == null) {
+            costs = new float[nodeCount * DIRECTIONS];
+            Arrays.fill(costs, Float.NaN);
+            for (int index = 0; index < nodeCount; index++) {
+                updateCosts(costs, movementClass, index);
+            }
+            costsByMovementClass.set(movementClass, costs);
+        }
+
+        return costs;
+    }
+
+    /**
+     * Update the connections after tile changes. The connections leading in and
+     * out of the changed tiles are recalculated. Rooms are updated as whole
+     * since the accessibility inside a room depends on its shape.
+     *
+     * @param updatedTiles the changed tiles
+     * @return the tiles whose connections were recalculated
+     */
+    public synchronized BitSet updateTiles(Collection<Point> updatedTiles) {
+        BitSet dirtyTiles = new BitSet(nodeCount);
+        for (Point p : updatedTiles) {
+            int index = getIndex(p.x, p.y);
+            if (index < 0) {
+                continue;
+            }
+            addDirtyTile(dirtyTiles, index);
+            for (int direction = 0; direction < DIRECTIONS; direction++) {
+                int neighbour = getNeighbour(index, direction);
+                if (neighbour >= 0) {
+                    addDirtyTile(dirtyTiles, neighbour);
+                }
+            }
+        }
+
+        // The connections into the dirty tiles need updating as well
+        BitSet updatableTiles = (BitSet) dirtyTiles.clone();
+        for (int index = dirtyTiles.nextSetBit(0); index >= 0; index = dirtyTiles.nextSetBit(index + 1)) {
+            for (int direction = 0; direction < DIRECTIONS; direction++) {
+                int neighbour = getNeighbour(index, direction);
+                if (neighbour >= 0) {
+                    updatableTiles.set(neighbour);
+                }
+            }
+        }
+
+        for (int movementClass = 0; movementClass < MovementClass.COUNT; movementClass++) {
+            float[] costs = costsByMovementClass.get(movementClass);
+            if (costs == null) {
+                continue;
+            }
+            for (int index = updatableTiles.nextSetBit(0); index >= 0; index = updatableTiles.nextSetBit(index + 1)) {
+                updateCosts(costs, movementClass, index);
+            }
+        }
+
+        return updatableTiles;
+    }
+
+    private void addDirtyTile(BitSet dirtyTiles, int index) {
+        if (dirtyTiles.get(index)) {
+            return;
+        }
+        dirtyTiles.set(index);
+
+        RoomInstance roomInstance = mapController.getRoomInstanceByCoordinates(getTile(index).getLocation());
+        if (roomInstance != null) {
+            for (Point p : roomInstance.getCoordinates()) {
+                int roomIndex = getIndex(p.x, p.y);
+                if (roomIndex >= 0) {
+                    dirtyTiles.set(roomIndex);
+                }
+            }
+        }
+    }
+
+    private void updateCosts(float[] costs, int movementClass, int index) {
+        IMapTileInformation from = getTile(index);
+        int directions = MovementClass.canMoveDiagonally(movementClass) ? DIRECTIONS : ORTHOGONAL_DIRECTIONS;
+        for (int direction = 0; direction < directions; direction++) {
+            int neighbour = getNeighbour(index, direction);
+            Float cost = null;
+            if (neighbour >= 0) {
+                cost = MapIndexedGraph.getTerrainCost(movementClass, from, getTile(neighbour), mapController);
+            }
+            costs[index * DIRECTIONS + direction] = (cost != null ? cost : Float.NaN);
+        }
+    }
+
+    private boolean isValidCoordinate(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+}
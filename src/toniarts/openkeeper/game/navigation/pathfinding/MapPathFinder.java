@@ -16,18 +16,406 @@
  */
 package toniarts.openkeeper.game.navigation.pathfinding;
 
-import com.badlogic.gdx.ai.pfa.indexed.IndexedAStarPathFinder;
+import com.badlogic.gdx.ai.pfa.GraphPath;
+import java.util.function.IntPredicate;
+import toniarts.openkeeper.game.controller.IMapController;
+import toniarts.openkeeper.game.logic.IEntityPositionLookup;
 import toniarts.openkeeper.game.map.IMapTileInformation;
 
 /**
- * The actual path finder
+ * The actual path finder. A* over the tile indices using the precomputed
+ * {@link MapConnections}. The search state is kept per thread in primitive
+ * arrays, so searching doesn't allocate anything besides the resulting path
+ * and multiple threads can search at the same time.<br>
+ * Long paths between different {@link MapClusters clusters} are first searched
+ * over the cluster entrances and then refined piece by piece, which expands
+ * only a fraction of the tiles compared to searching the whole map tile by
+ * tile. If the refining fails (i.e. a door blocks the way inside a cluster),
+ * we fall back to the flat search.<br>
+ * Entities that can pass obstacles have costs of their own, they are always
+ * searched tile by tile, asking the entity when the map doesn't let them
+ * through.
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
-public class MapPathFinder extends IndexedAStarPathFinder<IMapTileInformation> {
+public class MapPathFinder {
+
+    private final MapConnections connections;
+    private final MapClusters clusters;
+    private final IMapController mapController;
+    private final IEntityPositionLookup entityPositionLookup;
+    private final ThreadLocal<SearchContext> searchContexts;
+
+    public MapPathFinder(MapConnections connections, MapClusters clusters, IMapController mapController, IEntityPositionLookup entityPositionLookup) {
+        this.connections = connections;
+        this.clusters = clusters;
+        this.mapController = mapController;
+        this.entityPositionLookup = entityPositionLookup;
+        this.searchContexts = ThreadLocal.withInitial(() -> new SearchContext(connections.getNodeCount()));
+    }
+
+    /**
+     * Searches a path between the given tiles
+     *
+     * @param startNode start tile
+     * @param endNode end tile
+     * @param navigable the entity to find path for
+     * @param outPath empty output path, the path is added here including the
+     * start tile
+     * @return true if a path was found
+     */
+    public boolean searchNodePath(IMapTileInformation startNode, IMapTileInformation endNode, INavigable navigable, GraphPath<IMapTileInformation> outPath) {
+        if (!navigable.canPassObstacles()) {
+            return searchNodePath(startNode, endNode, MovementClass.of(navigable), navigable.getOwnerId(), outPath);
+        }
+
+        MapSearchState state = searchContexts.get().state;
+        if (!search(state, startNode.getIndex(), endNode.getIndex(), navigable)) {
+            return false;
+        }
+        addPath(state, endNode.getIndex(), outPath);
+
+        return true;
+    }
+
+    /**
+     * Searches a path between the given tiles
+     *
+     * @param startNode start tile
+     * @param endNode end tile
+     * @param movementClass the movement class to find the path for
+     * @param ownerId the owner of the entity, for passing doors
+     * @param outPath empty output path, the path is added here including the
+     * start tile
+     * @return true if a path was found
+     * @see MovementClass
+     */
+    public boolean searchNodePath(IMapTileInformation startNode, IMapTileInformation endNode, int movementClass, short ownerId, GraphPath<IMapTileInformation> outPath) {
+        int start = startNode.getIndex();
+        int end = endNode.getIndex();
+        SearchContext context = searchContexts.get();
+        if (isHierarchicalSearchUseful(start, end)) {
+            if (searchHierarchical(context, start, end, movementClass, ownerId, outPath)) {
+                return true;
+            }
+            outPath.clear();
+        }
+
+        MapSearchState state = context.state;
+        if (!search(state, start, end, movementClass, ownerId)) {
+            return false;
+        }
+        addPath(state, end, outPath);
+
+        return true;
+    }
+
+    /**
+     * Get the cost of moving from a tile to another
+     *
+     * @param from the tile we are traversing from, an adjacent tile or the
+     * same tile
+     * @param to the tile we are travelling to
+     * @param navigable the entity moving
+     * @return {@code null} if the to tile is not accessible
+     */
+    public Float getCost(IMapTileInformation from, IMapTileInformation to, INavigable navigable) {
+        int movementClass = MovementClass.of(navigable);
+        int direction = connections.getDirection(from.getIndex(), to.getIndex());
+        float cost;
+        if (direction >= 0) {
+            if (direction >= MapConnections.ORTHOGONAL_DIRECTIONS && !MovementClass.canMoveDiagonally(movementClass)) {
+                return null;
+            }
+            cost = getConnectionCost(connections.getCosts(movementClass), from.getIndex(), direction, navigable);
+        } else {
+
+            // Not moving anywhere really, just see that we can be here
+            Float terrainCost = MapIndexedGraph.getTerrainCost(movementClass, from, to, mapController);
+            if (terrainCost != null && !entityPositionLookup.isTileBlocked(to, navigable.getOwnerId())) {
+                return terrainCost;
+            }
+            Float obstacleCost = navigable.canPassObstacles() ? navigable.getObstacleCost(from, to, mapController, entityPositionLookup) : null;
+            cost = obstacleCost != null ? obstacleCost : Float.NaN;
+        }
+
+        return Float.isNaN(cost) ? null : cost;
+    }
+
+    private void addPath(MapSearchState state, int end, GraphPath<IMapTileInformation> outPath) {
+
+        // Generate the path, from end to start
+        for (int node = end; node != -1; node = state.getParent(node)) {
+            outPath.add(connections.getTile(node));
+        }
+        outPath.reverse();
+    }
+
+    private boolean search(MapSearchState state, int start, int end, int movementClass, short ownerId) {
+        float[] costs = connections.getCosts(movementClass);
+        int directions = MovementClass.canMoveDiagonally(movementClass) ? MapConnections.DIRECTIONS : MapConnections.ORTHOGONAL_DIRECTIONS;
+
+        state.reset();
+        state.open(start, -1, 0, estimate(start, end));
+        while (!state.isOpenListEmpty()) {
+            int current = state.closeNext();
+            if (current == end) {
+                return true;
+            }
+
+            int passableSides = 0;
+            for (int direction = 0; direction < directions; direction++) {
+                int node = connections.getNeighbour(current, direction);
+                float connectionCost = costs[current * MapConnections.DIRECTIONS + direction];
+                if (node < 0 || Float.isNaN(connectionCost)) {
+                    continue;
+                }
+
+                // We can never squeeze through obstacles, even if able to move diagonally
+                if (direction >= MapConnections.ORTHOGONAL_DIRECTIONS
+                        && ((passableSides & (1 << MapConnections.getFirstSide(direction))) == 0
+                        || (passableSides & (1 << MapConnections.getSecondSide(direction))) == 0)) {
+                    continue;
+                }
+
+                // Check for doors etc.
+                if (entityPositionLookup.isTileBlocked(connections.getTile(node), ownerId)) {
+                    continue;
+                }
+                if (direction < MapConnections.ORTHOGONAL_DIRECTIONS) {
+                    passableSides |= 1 << direction;
+                }
+
+                float nodeCost = state.getCostSoFar(current) + connectionCost;
+                float nodeHeuristic;
+                byte category = state.getCategory(node);
+                if (category == MapSearchState.UNVISITED) {
+                    nodeHeuristic = estimate(node, end);
+                } else {
+                    if (state.getCostSoFar(node) <= nodeCost) {
+                        continue;
+                    }
+                    nodeHeuristic = state.getEstimatedTotalCost(node) - state.getCostSoFar(node);
+                }
+                state.open(node, current, nodeCost, nodeCost + nodeHeuristic);
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Flat search with the costs of the navigable, for the ones passing
+     * obstacles
+     */
+    private boolean search(MapSearchState state, int start, int end, INavigable navigable) {
+        int movementClass = MovementClass.of(navigable);
+        float[] costs = connections.getCosts(movementClass);
+        int directions = MovementClass.canMoveDiagonally(movementClass) ? MapConnections.DIRECTIONS : MapConnections.ORTHOGONAL_DIRECTIONS;
+
+        state.reset();
+        state.open(start, -1, 0, estimate(start, end));
+        while (!state.isOpenListEmpty()) {
+            int current = state.closeNext();
+            if (current == end) {
+                return true;
+            }
+
+            for (int direction = 0; direction < directions; direction++) {
+                int node = connections.getNeighbour(current, direction);
+                if (node >= 0) {
+                    open(state, current, node, getConnectionCost(costs, current, direction, navigable), end);
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Get the cost of a single step. The movement class rules first, and if
+     * they don't let us through, the obstacle cost of the navigable.
+     *
+     * @return the cost, NaN if the step can't be taken
+     */
+    private float getConnectionCost(float[] costs, int index, int direction, INavigable navigable) {
+
+        // We can never squeeze through obstacles, even if able to move diagonally
+        short ownerId = navigable.getOwnerId();
+        if (direction >= MapConnections.ORTHOGONAL_DIRECTIONS
+                && (!isPassable(costs, index, MapConnections.getFirstSide(direction), ownerId)
+                || !isPassable(costs, index, MapConnections.getSecondSide(direction), ownerId))) {
+            return Float.NaN;
+        }
+        if (isPassable(costs, index, direction, ownerId)) {
+            return costs[index * MapConnections.DIRECTIONS + direction];
+        }
+        if (!navigable.canPassObstacles()) {
+            return Float.NaN;
+        }
+        Float cost = navigable.getObstacleCost(connections.getTile(index), connections.getTile(connections.getNeighbour(index, direction)), mapController, entityPositionLookup);
+
+        return cost != null ? cost : Float.NaN;
+    }
+
+    private boolean isPassable(float[] costs, int index, int direction, short ownerId) {
+        return !Float.isNaN(costs[index * MapConnections.DIRECTIONS + direction])
+                && !entityPositionLookup.isTileBlocked(connections.getTile(connections.getNeighbour(index, direction)), ownerId);
+    }
+
+    private boolean isHierarchicalSearchUseful(int start, int end) {
+        return clusters.getClusterIndex(start) != clusters.getClusterIndex(end)
+                && estimate(start, end) > MapClusters.CLUSTER_SIZE;
+    }
+
+    private boolean searchHierarchical(SearchContext context, int start, int end, int movementClass, short ownerId, GraphPath<IMapTileInformation> outPath) {
+        MapSearchState state = context.state;
+        IntPredicate blocked = (node) -> entityPositionLookup.isTileBlocked(connections.getTile(node), ownerId);
+        int startClusterIndex = clusters.getClusterIndex(start);
+        int endClusterIndex = clusters.getClusterIndex(end);
+        MapClusters.Cluster startCluster = clusters.getCluster(movementClass, startClusterIndex);
+        MapClusters.Cluster endCluster = clusters.getCluster(movementClass, endClusterIndex);
+
+        // Connect the start and the end to the entrances of their clusters
+        clusters.searchCluster(state, startClusterIndex, start, movementClass, blocked);
+        for (int slot = 0; slot < startCluster.getNodeCount(); slot++) {
+            int node = startCluster.getNode(slot);
+            context.startCosts[slot] = state.getCategory(node) == MapSearchState.CLOSED ? state.getCostSoFar(node) : Float.NaN;
+        }
+        clusters.searchCluster(state, endClusterIndex, end, movementClass, blocked);
+        for (int slot = 0; slot < endCluster.getNodeCount(); slot++) {
+            int node = endCluster.getNode(slot);
+            context.endCosts[slot] = state.getCategory(node) == MapSearchState.CLOSED ? state.getCostSoFar(node) : Float.NaN;
+        }
+
+        // Search over the entrances
+        int abstractPathLength = searchAbstract(context, start, end, movementClass, blocked, startCluster, endCluster);
+        if (abstractPathLength == 0) {
+            return false;
+        }
+
+        // Refine, the abstract path is from end to start so we also build the path backwards
+        int[] abstractPath = context.abstractPath;
+        for (int i = 0; i < abstractPathLength - 1; i++) {
+            int segmentEnd = abstractPath[i];
+            int segmentStart = abstractPath[i + 1];
+            if (!search(state, segmentStart, segmentEnd, movementClass, ownerId)) {
+                return false;
+            }
+            for (int node = segmentEnd; node != segmentStart; node = state.getParent(node)) {
+                outPath.add(connections.getTile(node));
+            }
+        }
+        outPath.add(connections.getTile(start));
+        outPath.reverse();
+
+        return true;
+    }
+
+    /**
+     * A* over the cluster entrances
+     *
+     * @return the length of the abstract path, stored from end to start, 0 if
+     * no path was found
+     */
+    private int searchAbstract(SearchContext context, int start, int end, int movementClass, IntPredicate blocked, MapClusters.Cluster startCluster, MapClusters.Cluster endCluster) {
+        MapSearchState state = context.state;
+
+        state.reset();
+        state.open(start, -1, 0, estimate(start, end));
+        while (!state.isOpenListEmpty()) {
+            int current = state.closeNext();
+            if (current == end) {
+                int length = 0;
+                for (int node = end; node != -1; node = state.getParent(node)) {
+                    context.abstractPath[length++] = node;
+                }
+                return length;
+            }
+
+            if (current == start) {
+                for (int slot = 0; slot < startCluster.getNodeCount(); slot++) {
+                    openAbstract(state, current, startCluster.getNode(slot), context.startCosts[slot], end, blocked);
+                }
+            }
+
+            MapClusters.Cluster cluster = clusters.getCluster(movementClass, clusters.getClusterIndex(current));
+            int currentSlot = cluster.indexOf(current);
+            if (currentSlot < 0) {
+                continue;
+            }
+
+            // Inside the cluster
+            for (int slot = 0; slot < cluster.getNodeCount(); slot++) {
+                openAbstract(state, current, cluster.getNode(slot), cluster.getIntraCost(currentSlot, slot), end, blocked);
+            }
+
+            // To the neighbouring clusters
+            for (int edge = 0; edge < cluster.getInterEdgeCount(); edge++) {
+                if (cluster.getInterEdgeFrom(edge) == currentSlot) {
+                    openAbstract(state, current, cluster.getInterEdgeTo(edge), cluster.getInterEdgeCost(edge), end, blocked);
+                }
+            }
+
+            // To the end
+            if (cluster == endCluster) {
+                openAbstract(state, current, end, context.endCosts[currentSlot], end, blocked);
+            }
+        }
+
+        return 0;
+    }
+
+    private void openAbstract(MapSearchState state, int current, int node, float connectionCost, int end, IntPredicate blocked) {
+        if (Float.isNaN(connectionCost) || node == current || blocked.test(node)) {
+            return;
+        }
+        open(state, current, node, connectionCost, end);
+    }
+
+    private void open(MapSearchState state, int current, int node, float connectionCost, int end) {
+        if (Float.isNaN(connectionCost)) {
+            return;
+        }
+
+        float nodeCost = state.getCostSoFar(current) + connectionCost;
+        float nodeHeuristic;
+        byte category = state.getCategory(node);
+        if (category == MapSearchState.UNVISITED) {
+            nodeHeuristic = estimate(node, end);
+        } else {
+            if (state.getCostSoFar(node) <= nodeCost) {
+                return;
+            }
+            nodeHeuristic = state.getEstimatedTotalCost(node) - state.getCostSoFar(node);
+        }
+        state.open(node, current, nodeCost, nodeCost + nodeHeuristic);
+    }
+
+    private float estimate(int node, int endNode) {
+        int width = connections.getWidth();
+        return Math.abs(node % width - endNode % width) + Math.abs(node / width - endNode / width);
+    }
+
+    /**
+     * Per thread search data
+     */
+    private static final class SearchContext {
+
+        private final MapSearchState state;
+        private final int[] abstractPath;
+        private final float[] startCosts;
+        private final float[] endCosts;
+
+        public SearchContext(int nodeCount) {
+            state = new MapSearchState(nodeCount);
+            abstractPath = new int[nodeCount];
+
+            // The entrance count of a cluster is bound by its border length
+            startCosts = new float[MapClusters.CLUSTER_SIZE * 4];
+            endCosts = new float[MapClusters.CLUSTER_SIZE * 4];
+        }
 
-    public MapPathFinder(MapIndexedGraph graph, boolean calculateMetrics) {
-        super(graph, calculateMetrics);
     }
 
 }
@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.navigation.pathfinding;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import toniarts.openkeeper.game.logic.IEntityPositionLookup;
+
+/**
+ * Connected regions of the map. Every tile that can be stood on gets a region
+ * label, tiles sharing a label can reach each other. This makes reachability
+ * a constant time check instead of a full path search that visits the whole
+ * map before it can say no.<br>
+ * The labels are kept per movement class and owner (because of the doors).
+ * They are calculated on first use, tile changes relabel only the regions
+ * they touch. Door changes are rare enough to just throw everything away.<br>
+ * Only two way connections join tiles to a region. One way connections (some
+ * rooms and doors) are kept as exits between the regions, and followed when
+ * the tiles are not in the same region.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public final class MapRegions {
+
+    private static final int NO_REGION = -1;
+    private static final int UNLABELED = 0;
+
+    private final MapConnections connections;
+    private final IEntityPositionLookup entityPositionLookup;
+    private final Map<Integer, RegionLabels> regionLabels = new HashMap<>();
+    private final int[] queue;
+    private final BitSet visitedRegions = new BitSet();
+    private int[] regionQueue = new int[16];
+
+    public MapRegions(MapConnections connections, IEntityPositionLookup entityPositionLookup) {
+        this.connections = connections;
+        this.entityPositionLookup = entityPositionLookup;
+        this.queue = new int[connections.getNodeCount()];
+    }
+
+    /**
+     * Checks whether there is a route between the tiles. The start tile itself
+     * doesn't need to be passable, we might be standing on something we can't
+     * enter (like a creature dropped in water).
+     *
+     * @param start start tile index
+     * @param end end tile index
+     * @param movementClass the movement class
+     * @param ownerId the owner of the entity, for passing doors
+     * @return true if the end tile can be reached from the start tile
+     * @see MovementClass
+     */
+    public synchronized boolean isReachable(int start, int end, int movementClass, short ownerId) {
+        if (start == end) {
+            return true;
+        }
+
+        RegionLabels labels = getRegionLabels(movementClass, ownerId);
+        int endRegion = labels.regions[end];
+        if (endRegion == NO_REGION) {
+            return false;
+        }
+        if (labels.regions[start] == endRegion) {
+            return true;
+        }
+
+        // See if we can step to the region, or to a region that has a one way route to it
+        visitedRegions.clear();
+        int tail = 0;
+        if (labels.regions[start] > UNLABELED) {
+            visitedRegions.set(labels.regions[start]);
+            regionQueue[tail++] = labels.regions[start];
+        }
+        float[] costs = connections.getCosts(movementClass);
+        int directions = getDirections(movementClass);
+        for (int direction = 0; direction < directions; direction++) {
+            int neighbour = connections.getNeighbour(start, direction);
+            if (neighbour < 0 || labels.regions[neighbour] <= UNLABELED || visitedRegions.get(labels.regions[neighbour])
+                    || !isPassable(costs, labels.blockedTiles, start, direction)) {
+                continue;
+            }
+            if (labels.regions[neighbour] == endRegion) {
+                return true;
+            }
+            visitedRegions.set(labels.regions[neighbour]);
+            regionQueue = ensureCapacity(regionQueue, tail + 1);
+            regionQueue[tail++] = labels.regions[neighbour];
+        }
+
+        Map<Integer, BitSet> exits = getRegionExits(labels);
+        if (exits.isEmpty()) {
+            return false;
+        }
+        int head = 0;
+        while (head < tail) {
+            BitSet regionExits = exits.get(regionQueue[head++]);
+            if (regionExits == null) {
+                continue;
+            }
+            for (int region = regionExits.nextSetBit(0); region >= 0; region = regionExits.nextSetBit(region + 1)) {
+                if (region == endRegion) {
+                    return true;
+                }
+                if (!visitedRegions.get(region)) {
+                    visitedRegions.set(region);
+                    regionQueue = ensureCapacity(regionQueue, tail + 1);
+                    regionQueue[tail++] = region;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Relabel the regions after the connections of the given tiles have
+     * changed
+     *
+     * @param updatedTiles the tiles whose connections were recalculated
+     * @see MapConnections#updateTiles(java.util.Collection)
+     */
+    public synchronized void updateTiles(BitSet updatedTiles) {
+        for (RegionLabels labels : regionLabels.values()) {
+            updateRegions(labels, updatedTiles);
+        }
+    }
+
+    /**
+     * Forget all the regions, doors have changed
+     */
+    public synchronized void updateDoors() {
+        regionLabels.clear();
+    }
+
+    private RegionLabels getRegionLabels(int movementClass, short ownerId) {
+        Integer key = (ownerId << 8) | movementClass;
+        RegionLabels labels = regionLabels.get(key);
+        if (labels == null) {
+            labels = createRegionLabels(movementClass, ownerId);
+            regionLabels.put(key, labels);
+        }
+
+        return labels;
+    }
+
+    private RegionLabels createRegionLabels(int movementClass, short ownerId) {
+        int nodeCount = connections.getNodeCount();
+        RegionLabels labels = new RegionLabels(movementClass, nodeCount);
+        for (int index = 0; index < nodeCount; index++) {
+            if (entityPositionLookup.isTileBlocked(connections.getTile(index), ownerId)) {
+                labels.blockedTiles.set(index);
+            }
+        }
+
+        BitSet allTiles = new BitSet(nodeCount);
+        allTiles.set(0, nodeCount);
+        labelRegions(labels, allTiles);
+
+        return labels;
+    }
+
+    private void updateRegions(RegionLabels labels, BitSet updatedTiles) {
+
+        // Collect the regions touched, they may have split or merged
+        BitSet touchedRegions = new BitSet();
+        for (int index = updatedTiles.nextSetBit(0); index >= 0; index = updatedTiles.nextSetBit(index + 1)) {
+            int region = labels.regions[index];
+            if (region > UNLABELED) {
+                touchedRegions.set(region);
+            }
+        }
+
+        BitSet relabeledTiles = (BitSet) updatedTiles.clone();
+        if (!touchedRegions.isEmpty()) {
+            for (int index = 0; index < labels.regions.length; index++) {
+                int region = labels.regions[index];
+                if (region > UNLABELED && touchedRegions.get(region)) {
+                    relabeledTiles.set(index);
+                }
+            }
+        }
+
+        labelRegions(labels, relabeledTiles);
+    }
+
+    /**
+     * Get the one way exits between the regions. Calculated on demand after
+     * the regions have changed
+     *
+     * @param labels the labels
+     * @return the regions each region can step to, only the regions that have
+     * exits are present
+     */
+    private Map<Integer, BitSet> getRegionExits(RegionLabels labels) {
+        if (labels.regionExits != null) {
+            return labels.regionExits;
+        }
+
+        Map<Integer, BitSet> exits = new HashMap<>();
+        float[] costs = connections.getCosts(labels.movementClass);
+        int[] regions = labels.regions;
+        int directions = getDirections(labels.movementClass);
+        for (int index = 0; index < regions.length; index++) {
+            int region = regions[index];
+            if (region <= UNLABELED) {
+                continue;
+            }
+            for (int direction = 0; direction < directions; direction++) {
+                int neighbour = connections.getNeighbour(index, direction);
+                if (neighbour >= 0 && regions[neighbour] > UNLABELED && regions[neighbour] != region
+                        && isPassable(costs, labels.blockedTiles, index, direction)) {
+                    exits.computeIfAbsent(region, k -> new BitSet()).set(regions[neighbour]);
+                }
+            }
+        }
+        labels.regionExits = exits;
+
+        return exits;
+    }
+
+    /**
+     * Flood fills new regions over the given tiles
+     *
+     * @param labels the labels
+     * @param tiles the tiles to label
+     */
+    private void labelRegions(RegionLabels labels, BitSet tiles) {
+        labels.regionExits = null;
+        float[] costs = connections.getCosts(labels.movementClass);
+        int[] regions = labels.regions;
+        for (int index = tiles.nextSetBit(0); index >= 0; index = tiles.nextSetBit(index + 1)) {
+            regions[index] = isEnterable(costs, labels.blockedTiles, index) ? UNLABELED : NO_REGION;
+        }
+
+        int directions = getDirections(labels.movementClass);
+        for (int index = tiles.nextSetBit(0); index >= 0; index = tiles.nextSetBit(index + 1)) {
+            if (regions[index] != UNLABELED) {
+                continue;
+            }
+
+            int region = ++labels.lastRegion;
+            int head = 0;
+            int tail = 0;
+            regions[index] = region;
+            queue[tail++] = index;
+            while (head < tail) {
+                int current = queue[head++];
+                for (int direction = 0; direction < directions; direction++) {
+                    int neighbour = connections.getNeighbour(current, direction);
+                    if (neighbour < 0 || regions[neighbour] != UNLABELED) {
+                        continue;
+                    }
+
+                    // Only two way connections join regions
+                    if (isPassable(costs, labels.blockedTiles, current, direction)
+                            && isPassable(costs, labels.blockedTiles, neighbour, MapConnections.getOpposite(direction))) {
+                        regions[neighbour] = region;
+                        queue[tail++] = neighbour;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isEnterable(float[] costs, BitSet blockedTiles, int index) {
+        if (blockedTiles.get(index)) {
+            return false;
+        }
+        for (int direction = 0; direction < MapConnections.DIRECTIONS; direction++) {
+            int neighbour = connections.getNeighbour(index, direction);
+            if (neighbour >= 0 && !Float.isNaN(costs[neighbour * MapConnections.DIRECTIONS + MapConnections.getOpposite(direction)])) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isPassable(float[] costs, BitSet blockedTiles, int index, int direction) {
+        int neighbour = connections.getNeighbour(index, direction);
+        if (neighbour < 0 || blockedTiles.get(neighbour) || Float.isNaN(costs[index * MapConnections.DIRECTIONS + direction])) {
+            return false;
+        }
+
+        // Same rule as in the path finder, no squeezing through corners
+        if (direction >= MapConnections.ORTHOGONAL_DIRECTIONS) {
+            return isPassable(costs, blockedTiles, index, MapConnections.getFirstSide(direction))
+                    && isPassable(costs, blockedTiles, index, MapConnections.getSecondSide(direction));
+        }
+
+        return true;
+    }
+
+    private static int[] ensureCapacity(int[] array, int size) {
+        if (array.length < size) {
+            return Arrays.copyOf(array, Math.max(size, array.length * 2));
+        }
+
+        return array;
+    }
+
+    private static int getDirections(int movementClass) {
+        return MovementClass.canMoveDiagonally(movementClass) ? MapConnections.DIRECTIONS : MapConnections.ORTHOGONAL_DIRECTIONS;
+    }
+
+    private static final class RegionLabels {
+
+        private final int movementClass;
+        private final int[] regions;
+        private final BitSet blockedTiles;
+        private int lastRegion = UNLABELED;
+        private Map<Integer, BitSet> regionExits;
+
+        public RegionLabels(int movementClass, int nodeCount) {
+            this.movementClass = movementClass;
+            this.regions = new int[nodeCount];
+            this.blockedTiles = new BitSet(nodeCount);
+        }
+
+    }
+
+}
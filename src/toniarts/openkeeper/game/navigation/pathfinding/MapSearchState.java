@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.navigation.pathfinding;
+
+import java.util.Arrays;
+
+/**
+ * Reusable state of a single path search. All the node records are held in
+ * primitive arrays indexed by the tile index. The records are invalidated by
+ * bumping the search ID, so nothing needs to be cleared between the
+ * searches.<br>
+ * Not thread safe, each thread needs its own instance.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+final class MapSearchState {
+
+    static final byte UNVISITED = 0;
+    static final byte OPEN = 1;
+    static final byte CLOSED = 2;
+
+    private final float[] costSoFar;
+    private final float[] estimatedTotalCost;
+    private final int[] parent;
+    private final int[] searchIds;
+    private final byte[] categories;
+
+    /**
+     * Binary min heap of tile indices, ordered by the estimated total cost
+     */
+    private final int[] openList;
+    private final int[] openListPositions;
+    private int openListSize;
+    private int searchId;
+
+    MapSearchState(int nodeCount) {
+        costSoFar = new float[nodeCount];
+        estimatedTotalCost = new float[nodeCount];
+        parent = new int[nodeCount];
+        searchIds = new int[nodeCount];
+        categories = new byte[nodeCount];
+        openList = new int[nodeCount];
+        openListPositions = new int[nodeCount];
+    }
+
+    /**
+     * Starts a new search, forgetting everything from the previous one
+     */
+    void reset() {
+        openListSize = 0;
+        searchId++;
+        if (searchId == 0) {
+
+            // Wrapped around, the old IDs could collide
+            Arrays.fill(searchIds, 0);
+            searchId = 1;
+        }
+    }
+
+    byte getCategory(int node) {
+        return searchIds[node] == searchId ? categories[node] : UNVISITED;
+    }
+
+    float getCostSoFar(int node) {
+        return costSoFar[node];
+    }
+
+    float getEstimatedTotalCost(int node) {
+        return estimatedTotalCost[node];
+    }
+
+    int getParent(int node) {
+        return parent[node];
+    }
+
+    /**
+     * Records a route to the node and puts it in the open list. If the node is
+     * already in the open list, its position is updated.
+     *
+     * @param node the node
+     * @param parentNode the node we came from, -1 for the start node
+     * @param cost the cost so far
+     * @param estimatedTotal the estimated total cost
+     */
+    void open(int node, int parentNode, float cost, float estimatedTotal) {
+        boolean inOpenList = getCategory(node) == OPEN;
+        searchIds[node] = searchId;
+        categories[node] = OPEN;
+        parent[node] = parentNode;
+        costSoFar[node] = cost;
+        estimatedTotalCost[node] = estimatedTotal;
+
+        if (inOpenList) {
+            siftUp(openListPositions[node]);
+        } else {
+            openList[openListSize] = node;
+            openListPositions[node] = openListSize;
+            siftUp(openListSize++);
+        }
+    }
+
+    boolean isOpenListEmpty() {
+        return openListSize == 0;
+    }
+
+    /**
+     * Takes the most promising node from the open list and closes it
+     *
+     * @return the node
+     */
+    int closeNext() {
+        int node = openList[0];
+        openListSize--;
+        if (openListSize > 0) {
+            openList[0] = openList[openListSize];
+            openListPositions[openList[0]] = 0;
+            siftDown(0);
+        }
+        categories[node] = CLOSED;
+
+        return node;
+    }
+
+    private void siftUp(int position) {
+        int node = openList[position];
+        float value = estimatedTotalCost[node];
+        while (position > 0) {
+            int parentPosition = (position - 1) >>> 1;
+            int parentNode = openList[parentPosition];
+            if (estimatedTotalCost[parentNode] <= value) {
+                break;
+            }
+            openList[position] = parentNode;
+            openListPositions[parentNode] = position;
+            position = parentPosition;
+        }
+        openList[position] = node;
+        openListPositions[node] = position;
+    }
+
+    private void siftDown(int position) {
+        int node = openList[position];
+        float value = estimatedTotalCost[node];
+        int half = openListSize >>> 1;
+        while (position < half) {
+            int child = (position << 1) + 1;
+            int right = child + 1;
+            if (right < openListSize && estimatedTotalCost[openList[right]] < estimatedTotalCost[openList[child]]) {
+                child = right;
+            }
+            if (value <= estimatedTotalCost[openList[child]]) {
+                break;
+            }
+            openList[position] = openList[child];
+            openListPositions[openList[position]] = position;
+            position = child;
+        }
+        openList[position] = node;
+        openListPositions[node] = position;
+    }
+
+}
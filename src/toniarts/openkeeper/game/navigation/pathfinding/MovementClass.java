@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.navigation.pathfinding;
+
+/**
+ * Movement class of a navigable entity. Packs the movement abilities of an
+ * {@link INavigable} to a small integer so that the navigation data can be
+ * shared between all the entities that move the same way.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public final class MovementClass {
+
+    public static final int FLY = 0x1;
+    public static final int WALK_ON_WATER = 0x2;
+    public static final int WALK_ON_LAVA = 0x4;
+    public static final int MOVE_DIAGONALLY = 0x8;
+
+    /**
+     * Number of different movement classes, the movement class values are
+     * always between 0 and this value (exclusive)
+     */
+    public static final int COUNT = 0x10;
+
+    private MovementClass() {
+        // Nope
+    }
+
+    /**
+     * Get the movement class of the given navigable. Flying entities don't
+     * care about water or lava, so they all share the same class.
+     *
+     * @param navigable the navigable entity
+     * @return the movement class
+     */
+    public static int of(INavigable navigable) {
+        int movementClass = 0;
+        if (navigable.canFly()) {
+            movementClass |= FLY;
+        } else {
+            if (navigable.canWalkOnWater()) {
+                movementClass |= WALK_ON_WATER;
+            }
+            if (navigable.canWalkOnLava()) {
+                movementClass |= WALK_ON_LAVA;
+            }
+        }
+        if (navigable.canMoveDiagonally()) {
+            movementClass |= MOVE_DIAGONALLY;
+        }
+
+        return movementClass;
+    }
+
+    public static boolean canFly(int movementClass) {
+        return (movementClass & FLY) != 0;
+    }
+
+    public static boolean canWalkOnWater(int movementClass) {
+        return (movementClass & WALK_ON_WATER) != 0;
+    }
+
+    public static boolean canWalkOnLava(int movementClass) {
+        return (movementClass & WALK_ON_LAVA) != 0;
+    }
+
+    public static boolean canMoveDiagonally(int movementClass) {
+        return (movementClass & MOVE_DIAGONALLY) != 0;
+    }
+
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.network;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import static java.util.stream.Collectors.toList;
+import toniarts.openkeeper.game.MapSelector;
+import toniarts.openkeeper.game.network.game.GameHostedService;
+import toniarts.openkeeper.game.network.lobby.LobbyHostedService;
+import toniarts.openkeeper.game.state.GameServerState;
+import toniarts.openkeeper.game.state.lobby.ClientInfo;
+import toniarts.openkeeper.game.state.lobby.LobbySessionListener;
+import toniarts.openkeeper.tools.convert.map.KwdFile;
+import toniarts.openkeeper.utils.PathUtils;
+
+/**
+ * Headless dedicated server. Hosts several independent matches in one JVM
+ * without the renderer or any of the converted assets, only the level data is
+ * needed. The level is loaded once and shared by all the matches, and the
+ * games run on a shared, bounded, thread pool.<br>
+ * Each match has its own network server, the match n listening on port
+ * {@code port + n * PORTS_PER_MATCH}. A match starts when all the human
+ * players in the lobby are ready. The DK II folder is read from the OpenKeeper
+ * settings.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class DedicatedServer {
+
+    /**
+     * Each network server uses the given port and the three following
+     */
+    public static final int PORTS_PER_MATCH = 4;
+    private static final int DEFAULT_PORT = 7575;
+    private static final Logger LOGGER = Logger.getLogger(DedicatedServer.class.getName());
+
+    private final String name;
+    private final String mapName;
+    private final KwdFile kwdFile;
+    private final int port;
+    private final int matchCount;
+    private final ScheduledExecutorService gameLoopExecutor;
+    private final List<Match> matches = new ArrayList<>();
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    /**
+     * Create a dedicated server
+     *
+     * @param name the server name shown to the players
+     * @param mapName the multiplayer map to play
+     * @param port the port of the first match
+     * @param matchCount number of matches to host
+     * @param threads number of threads to run the games on
+     */
+    public DedicatedServer(String name, String mapName, int port, int matchCount, int threads) {
+        this.name = name;
+        this.port = port;
+        this.matchCount = matchCount;
+
+        // The level data, read only after loading so all the matches can share it
+        MapSelector mapSelector = new MapSelector();
+        MapSelector.GameMapContainer map = mapSelector.getMap(mapName);
+        if (map == null) {
+            throw new IllegalArgumentException("Multiplayer map " + mapName + " not found!");
+        }
+        this.mapName = map.getMapName();
+        this.kwdFile = map.getMap();
+        kwdFile.load();
+
+        AtomicInteger threadIndex = new AtomicInteger();
+        gameLoopExecutor = Executors.newScheduledThreadPool(threads, (Runnable r) -> new Thread(r, "GameLoop-" + threadIndex.incrementAndGet()));
+    }
+
+    public void start() throws IOException {
+        for (int i = 0; i < matchCount; i++) {
+            Match match = new Match(name + " #" + (i + 1), port + i * PORTS_PER_MATCH);
+            match.start();
+            matches.add(match);
+            LOGGER.log(Level.INFO, "Hosting {0} on {1} at port {2}", new Object[]{mapName, match.server.getName(), match.server.getPort()});
+        }
+    }
+
+    public void close() {
+        for (Match match : matches) {
+            match.close();
+        }
+        matches.clear();
+        gameLoopExecutor.shutdown();
+        try {
+            gameLoopExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            LOGGER.log(Level.SEVERE, "Failed to wait for the game loops to shutdown!", ex);
+        }
+        closed.countDown();
+    }
+
+    /**
+     * Waits until the server is closed
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitClose() throws InterruptedException {
+        closed.await();
+    }
+
+    /**
+     * A single match, hosts the lobby and then the game
+     */
+    private class Match implements LobbySessionListener {
+
+        private final NetworkServer server;
+        private final AtomicBoolean gameStarted = new AtomicBoolean(false);
+        private GameServerState gameServerState;
+
+        public Match(String name, int port) throws IOException {
+            server = new NetworkServer(name, port);
+        }
+
+        public void start() throws IOException {
+            server.start();
+
+            LobbyHostedService lobbyService = server.getService(LobbyHostedService.class);
+            lobbyService.addServerListener(this);
+            lobbyService.setMap(mapName, kwdFile.getGameLevel().getPlayerCount());
+        }
+
+        @Override
+        public void onPlayerListChanged(List<ClientInfo> players) {
+
+            // There is no hosting player, start when all the humans are ready
+            boolean humanPlayers = false;
+            for (ClientInfo clientInfo : players) {
+                if (!clientInfo.getKeeper().isAi()) {
+                    if (!clientInfo.isReady()) {
+                        return;
+                    }
+                    humanPlayers = true;
+                }
+            }
+            if (humanPlayers && !gameStarted.get()) {
+                server.getService(LobbyHostedService.class).startGame();
+            }
+        }
+
+        @Override
+        public void onMapChanged(String mapName) {
+
+        }
+
+        @Override
+        public void onGameStarted(String mapName, List<ClientInfo> players) {
+            if (!gameStarted.compareAndSet(false, true)) {
+                return;
+            }
+            LOGGER.log(Level.INFO, "Starting game on {0} with {1} players", new Object[]{server.getName(), players.size()});
+            gameServerState = new GameServerState(kwdFile, players.stream().map(ClientInfo::getKeeper).collect(toList()), false, server.getService(GameHostedService.class), gameLoopExecutor);
+        }
+
+        public void close() {
+            if (gameServerState != null) {
+                gameServerState.detach();
+                gameServerState = null;
+            }
+            server.close();
+        }
+
+    }
+
+    /**
+     * Starts the dedicated server
+     *
+     * @param args &lt;map name&gt; [matches] [port] [threads]
+     * @throws IOException if the server fails to start
+     * @throws InterruptedException if interrupted while running
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: DedicatedServer <map name> [matches] [port] [threads]");
+            System.exit(1);
+        }
+        if (!PathUtils.checkDkFolder(PathUtils.getDKIIFolder())) {
+            System.err.println("Dungeon Keeper II folder not set or invalid, run OpenKeeper first to set it up!");
+            System.exit(1);
+        }
+
+        String mapName = args[0];
+        int matchCount = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PORT;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        DedicatedServer dedicatedServer = new DedicatedServer(NetworkConstants.GAME_NAME + " dedicated", mapName, port, matchCount, threads);
+        Runtime.getRuntime().addShutdownHook(new Thread(dedicatedServer::close, "DedicatedServerShutdown"));
+        dedicatedServer.start();
+        dedicatedServer.awaitClose();
+    }
+
+}
@@ -38,6 +38,14 @@ public class NetworkConstants {
 
     public final static byte ES_CHANNEL = 2;
 
+    /**
+     * How often the entity changes are sent to the clients, in nanoseconds.
+     * The changes in between are coalesced so that only the latest value of
+     * each component gets sent. Moving entities change their position every
+     * frame, so this pretty much sets the position traffic
+     */
+    public final static long ES_UPDATE_INTERVAL = 33333333L; // 30 FPS
+
     /**
      * We add an extra channel on the client->server connection to send chat
      * related messages. This is its own separate TCP socket that avoids tying
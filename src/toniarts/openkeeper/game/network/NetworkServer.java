@@ -197,7 +197,7 @@ public class NetworkServer {
             Serializer.registerClass(Placeable.class, new FieldSerializer());
             Serializer.registerClass(PlayerObjective.class, new FieldSerializer());
             Serializer.registerClass(PortalGem.class, new FieldSerializer());
-            Serializer.registerClass(Position.class, new FieldSerializer());
+            Serializer.registerClass(Position.class, new PositionSerializer());
             Serializer.registerClass(Regeneration.class, new FieldSerializer());
             Serializer.registerClass(RoomStorage.class, new FieldSerializer());
             Serializer.registerClass(Senses.class, new FieldSerializer());
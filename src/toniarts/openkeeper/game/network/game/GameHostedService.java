@@ -49,7 +49,6 @@ import toniarts.openkeeper.game.state.session.GameSessionListener;
 import toniarts.openkeeper.game.state.session.GameSessionServerService;
 import toniarts.openkeeper.game.state.session.GameSessionServiceListener;
 import toniarts.openkeeper.tools.convert.map.TriggerAction;
-import toniarts.openkeeper.utils.GameLoop;
 
 /**
  * Game server hosts lobby service for the game clients.
@@ -179,7 +178,7 @@ public class GameHostedService extends AbstractHostedConnectionService implement
         entityUpdater = Executors.newSingleThreadScheduledExecutor((Runnable r) -> new Thread(r, "EntityDataUpdater"));
         entityUpdater.scheduleAtFixedRate(() -> {
             getServiceManager().getService(EntityDataHostedService.class).sendUpdates();
-        }, 0, GameLoop.INTERVAL_FPS_60, TimeUnit.NANOSECONDS);
+        }, 0, NetworkConstants.ES_UPDATE_INTERVAL, TimeUnit.NANOSECONDS);
 
         for (GameSessionImpl gameSession : this.players.values()) {
             gameSession.onGameDataLoaded(players);
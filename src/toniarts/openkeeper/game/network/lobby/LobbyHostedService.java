@@ -21,6 +21,7 @@ import com.jme3.network.service.AbstractHostedConnectionService;
 import com.jme3.network.service.HostedServiceManager;
 import com.jme3.network.service.rmi.RmiHostedService;
 import com.jme3.network.service.rmi.RmiRegistry;
+import com.jme3.util.SafeArrayList;
 import com.simsilica.es.server.EntityDataHostedService;
 import com.simsilica.ethereal.EtherealHost;
 import com.simsilica.ethereal.NetworkStateListener;
@@ -59,6 +60,7 @@ public class LobbyHostedService extends AbstractHostedConnectionService implemen
     private final Map<ClientInfo, AbstractLobbySessionImpl> players = new ConcurrentHashMap<>(4, 0.75f, 5);
     private String mapName;
     private boolean gameStarted = false;
+    private final SafeArrayList<LobbySessionListener> serverListeners = new SafeArrayList<>(LobbySessionListener.class);
 
     /**
      * Creates a new lobby service that will use the default reliable channel
@@ -154,6 +156,20 @@ public class LobbyHostedService extends AbstractHostedConnectionService implemen
         }
     }
 
+    /**
+     * Listen to the lobby on the server side, e.g. to start the game when
+     * there is no hosting client
+     *
+     * @param l the listener
+     */
+    public void addServerListener(LobbySessionListener l) {
+        serverListeners.add(l);
+    }
+
+    public void removeServerListener(LobbySessionListener l) {
+        serverListeners.remove(l);
+    }
+
     @Override
     public void setMap(String mapName, int maxPlayers) {
 
@@ -179,6 +195,9 @@ public class LobbyHostedService extends AbstractHostedConnectionService implemen
                     lobby.onMapChanged(mapName);
                 }
             }
+            for (LobbySessionListener listener : serverListeners.getArray()) {
+                listener.onMapChanged(mapName);
+            }
             notifyPlayersChange();
         }
     }
@@ -289,6 +308,9 @@ public class LobbyHostedService extends AbstractHostedConnectionService implemen
         for (AbstractLobbySessionImpl lobby : players.values()) {
             lobby.onPlayerListChanged(playerList);
         }
+        for (LobbySessionListener listener : serverListeners.getArray()) {
+            listener.onPlayerListChanged(playerList);
+        }
     }
 
     @Override
@@ -300,6 +322,9 @@ public class LobbyHostedService extends AbstractHostedConnectionService implemen
         for (AbstractLobbySessionImpl lobby : this.players.values()) {
             lobby.onGameStarted(mapName, playerList);
         }
+        for (LobbySessionListener listener : serverListeners.getArray()) {
+            listener.onGameStarted(mapName, playerList);
+        }
     }
 
     private List<ClientInfo> getPlayers() {
@@ -23,6 +23,7 @@ import com.jme3.math.Vector2f;
 import com.simsilica.es.EntityId;
 import java.awt.Point;
 import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import toniarts.openkeeper.Main;
@@ -72,6 +73,7 @@ public class GameServerState extends AbstractAppState {
     private final MapListener mapListener = new MapListenerImpl();
     private final GameSessionServiceListener gameSessionListener = new GameSessionServiceListenerImpl();
     private final PlayerActionListener playerActionListener = new PlayerActionListenerImpl();
+    private final ScheduledExecutorService gameLoopExecutor;
     private GameController gameController;
     private IGameWorldController gameWorldController;
 
@@ -86,11 +88,27 @@ public class GameServerState extends AbstractAppState {
      * @param gameService the game service
      */
     public GameServerState(KwdFile level, List<Keeper> players, boolean campaign, GameSessionServerService gameService) {
+        this(level, players, campaign, gameService, null);
+    }
+
+    /**
+     * Single use game states. The game state can also be used without
+     * attaching it to an application, i.e. on a dedicated server.
+     *
+     * @param level the level to load
+     * @param players players participating in this game
+     * @param campaign whether this is a campaign level or not
+     * @param gameService the game service
+     * @param gameLoopExecutor if given, the game is run in a single game loop
+     * on this executor
+     */
+    public GameServerState(KwdFile level, List<Keeper> players, boolean campaign, GameSessionServerService gameService, ScheduledExecutorService gameLoopExecutor) {
         this.level = null;
         this.kwdFile = level;
         this.levelObject = null;
         this.campaign = campaign;
         this.gameService = gameService;
+        this.gameLoopExecutor = gameLoopExecutor;
 
         // Set multiplayer
         int humanPlayers = 0;
@@ -119,6 +137,16 @@ public class GameServerState extends AbstractAppState {
         return multiplayer;
     }
 
+    /**
+     * Get the game controller
+     *
+     * @return the game controller, {@code null} if the game hasn't been
+     * loaded yet
+     */
+    public GameController getGameController() {
+        return gameLoaded ? gameController : null;
+    }
+
     private void loadGame(List<Keeper> players) {
         loader = new GameLoader(players);
         loader.start();
@@ -139,7 +167,9 @@ public class GameServerState extends AbstractAppState {
         if (loader != null && loader.isAlive()) {
             loader.interrupt();
         }
-        stateManager.detach(this);
+        if (stateManager != null) {
+            stateManager.detach(this);
+        }
 
         if (gameController != null) {
             try {
@@ -180,6 +210,9 @@ public class GameServerState extends AbstractAppState {
 
             // Create the central game controller
             gameController = new GameController(kwdFile, players, gameService.getEntityData(), kwdFile.getVariables(), gameService);
+            if (gameLoopExecutor != null) {
+                gameController.setUnifiedGameLoop(true, gameLoopExecutor);
+            }
             gameController.createNewGame();
 
             gameWorldController = gameController.getGameWorldController();
@@ -235,32 +268,32 @@ public class GameServerState extends AbstractAppState {
 
         @Override
         public void onSelectTiles(Vector2f start, Vector2f end, boolean select, short playerId) {
-            mapController.selectTiles(start, end, select, playerId);
+            gameController.getPlayerActionQueue().selectTiles(start, end, select, playerId);
         }
 
         @Override
         public void onBuild(Vector2f start, Vector2f end, short roomId, short playerId) {
-            gameWorldController.build(start, end, playerId, roomId);
+            gameController.getPlayerActionQueue().build(start, end, playerId, roomId);
         }
 
         @Override
         public void onSell(Vector2f start, Vector2f end, short playerId) {
-            gameWorldController.sell(start, end, playerId);
+            gameController.getPlayerActionQueue().sell(start, end, playerId);
         }
 
         @Override
         public void onInteract(EntityId entity, short playerId) {
-            gameWorldController.interact(entity, playerId);
+            gameController.getPlayerActionQueue().interact(entity, playerId);
         }
 
         @Override
         public void onPickUp(EntityId entity, short playerId) {
-            gameWorldController.pickUp(entity, playerId);
+            gameController.getPlayerActionQueue().pickUp(entity, playerId);
         }
 
         @Override
         public void onDrop(EntityId entity, Point tile, Vector2f coordinates, EntityId dropOnEntity, short playerId) {
-            gameWorldController.drop(entity, tile, coordinates, dropOnEntity, playerId);
+            gameController.getPlayerActionQueue().drop(entity, tile, coordinates, dropOnEntity, playerId);
         }
 
         @Override
@@ -284,12 +317,16 @@ public class GameServerState extends AbstractAppState {
         @Override
         public void onExitGame(short playerId) {
             // TODO: Close the server and game only when everybody has left
-            stateManager.detach(GameServerState.this);
+            if (stateManager != null) {
+                stateManager.detach(GameServerState.this);
+            } else {
+                detach();
+            }
         }
 
         @Override
         public void onGetGold(int amount, short playerId) {
-            gameWorldController.getGold(amount, playerId);
+            gameController.getPlayerActionQueue().getGold(amount, playerId);
         }
 
         @Override
@@ -298,6 +335,11 @@ public class GameServerState extends AbstractAppState {
                 return; // No! Bad!
             }
 
+            gameController.getPlayerActionQueue().execute(playerId, () -> triggerCheat(cheat, playerId));
+        }
+
+        private void triggerCheat(CheatState.CheatType cheat, short playerId) {
+
             // See the cheat
             switch (cheat) {
                 case LEVEL_MAX: {
@@ -152,8 +152,8 @@ public abstract class AbstractTask implements Task {
             return false;
         }
 
-        // Path find
-        return (navigationService.findPath(WorldUtils.vectorToPoint(creature.getPosition()), targetTile, creature) != null);
+        // Reachability, no need to find the actual path
+        return navigationService.isReachable(WorldUtils.vectorToPoint(creature.getPosition()), targetTile, creature);
     }
 
     @Override
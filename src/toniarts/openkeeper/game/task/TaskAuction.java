@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.task;
+
+import java.awt.Point;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import toniarts.openkeeper.game.controller.creature.ICreatureController;
+import toniarts.openkeeper.utils.WorldUtils;
+
+/**
+ * Assigns tasks to a group of workers at once. Each worker gets a handful of
+ * its best tasks as candidates, and then the workers bid on them (auction
+ * algorithm) so that the total cost, distance + priority, is close to the
+ * minimum. Unlike asking one by one, a worker doesn't grab a task that another
+ * worker is much closer to.<br>
+ * The result is only a plan for a single tick, the workers still take their
+ * tasks when they ask for one.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+final class TaskAuction {
+
+    /**
+     * How many tasks each worker considers
+     */
+    private static final int CANDIDATES_PER_WORKER = 8;
+
+    /**
+     * Extra cost for each creature already working on a task, we'd rather
+     * spread out
+     */
+    private static final int SHARED_TASK_COST = 10;
+
+    /**
+     * Cap on bids per worker, prevents pathological price wars. The workers
+     * that are left without a task just ask normally.
+     */
+    private static final int MAX_BIDS_PER_WORKER = 64;
+
+    private final Map<ICreatureController, Task> plannedTasks = new HashMap<>();
+    private final Map<Task, Integer> reservations = new HashMap<>();
+
+    /**
+     * Solve the task assignment for the given workers
+     *
+     * @param taskQueue the task queue of the workers' owner
+     * @param workers the workers looking for work
+     */
+    TaskAuction(TaskQueue taskQueue, List<ICreatureController> workers) {
+        List<Task> tasks = new ArrayList<>();
+        Map<Task, Integer> firstSlots = new HashMap<>();
+        List<int[]> workerSlots = new ArrayList<>(workers.size());
+        List<int[]> workerCosts = new ArrayList<>(workers.size());
+        int slotCount = 0;
+        int maxCost = 0;
+
+        // Gather the candidates, tasks that can take many get one slot per creature
+        for (ICreatureController worker : workers) {
+            Point location = worker.getCreatureCoordinates();
+            List<Task> candidates = taskQueue.findTasks(location, (t) -> t.canAssign(worker), CANDIDATES_PER_WORKER);
+            List<Integer> slots = new ArrayList<>();
+            List<Integer> costs = new ArrayList<>();
+            for (Task task : candidates) {
+                int freeSlots = task.getMaxAllowedNumberOfAsignees() - task.getAssigneeCount();
+                Integer firstSlot = firstSlots.get(task);
+                if (firstSlot == null) {
+                    firstSlot = slotCount;
+                    firstSlots.put(task, firstSlot);
+                    for (int i = 0; i < freeSlots; i++) {
+                        tasks.add(task);
+                    }
+                    slotCount += freeSlots;
+                }
+                int cost = WorldUtils.calculateDistance(location, task.getTaskLocation()) + task.getPriority();
+                for (int i = 0; i < freeSlots; i++) {
+                    int slotCost = cost + (task.getAssigneeCount() + i) * SHARED_TASK_COST;
+                    slots.add(firstSlot + i);
+                    costs.add(slotCost);
+                    maxCost = Math.max(maxCost, slotCost);
+                }
+            }
+            workerSlots.add(slots.stream().mapToInt(Integer::intValue).toArray());
+            workerCosts.add(costs.stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        // Auction, bid on the best value (negative cost) after the price
+        // Having no task at all is always an option, but worse than any task
+        int noTaskValue = -(maxCost + 1);
+        int[] prices = new int[slotCount];
+        int[] slotOwners = new int[slotCount];
+        int[] bids = new int[workers.size()];
+        Arrays.fill(slotOwners, -1);
+        ArrayDeque<Integer> bidders = new ArrayDeque<>(workers.size());
+        for (int i = 0; i < workers.size(); i++) {
+            bidders.add(i);
+        }
+        Integer bidder;
+        while ((bidder = bidders.poll()) != null) {
+            int[] slots = workerSlots.get(bidder);
+            int[] costs = workerCosts.get(bidder);
+            int bestSlot = -1;
+            int bestValue = noTaskValue;
+            int secondValue = noTaskValue;
+            for (int i = 0; i < slots.length; i++) {
+                int value = -costs[i] - prices[slots[i]];
+                if (value > bestValue) {
+                    secondValue = bestValue;
+                    bestValue = value;
+                    bestSlot = slots[i];
+                } else if (value > secondValue) {
+                    secondValue = value;
+                }
+            }
+            if (bestSlot < 0 || bids[bidder]++ >= MAX_BIDS_PER_WORKER) {
+                continue;
+            }
+
+            // Outbid the current holder, the price goes up at least by one
+            prices[bestSlot] += bestValue - secondValue + 1;
+            int previousOwner = slotOwners[bestSlot];
+            slotOwners[bestSlot] = bidder;
+            if (previousOwner >= 0) {
+                bidders.add(previousOwner);
+            }
+        }
+
+        // The plan
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (slotOwners[slot] >= 0) {
+                Task task = tasks.get(slot);
+                plannedTasks.put(workers.get(slotOwners[slot]), task);
+                reservations.merge(task, 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Takes the planned task of the worker
+     *
+     * @param worker the worker
+     * @return the task planned for the worker, or {@code null} if there is
+     * none
+     */
+    Task takeTask(ICreatureController worker) {
+        Task task = plannedTasks.remove(worker);
+        if (task != null) {
+            reservations.computeIfPresent(task, (t, count) -> count > 1 ? count - 1 : null);
+        }
+
+        return task;
+    }
+
+    /**
+     * Are all the free places in the task promised to other workers
+     *
+     * @param task the task
+     * @return true if the task is taken
+     */
+    boolean isReserved(Task task) {
+        Integer count = reservations.get(task);
+        return count != null && count >= task.getMaxAllowedNumberOfAsignees() - task.getAssigneeCount();
+    }
+
+}
@@ -16,7 +16,6 @@
  */
 package toniarts.openkeeper.game.task;
 
-import com.badlogic.gdx.ai.pfa.GraphPath;
 import com.simsilica.es.Entity;
 import com.simsilica.es.EntityData;
 import com.simsilica.es.EntityId;
@@ -35,8 +34,10 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import toniarts.openkeeper.game.component.CreatureAi;
 import toniarts.openkeeper.game.component.CreatureComponent;
 import toniarts.openkeeper.game.component.Death;
 import toniarts.openkeeper.game.component.Food;
@@ -54,6 +55,7 @@ import toniarts.openkeeper.game.controller.ILevelInfo;
 import toniarts.openkeeper.game.controller.IMapController;
 import toniarts.openkeeper.game.controller.IObjectsController;
 import toniarts.openkeeper.game.controller.IPlayerController;
+import toniarts.openkeeper.game.controller.creature.CreatureState;
 import toniarts.openkeeper.game.controller.creature.ICreatureController;
 import toniarts.openkeeper.game.controller.entity.EntityController;
 import toniarts.openkeeper.game.controller.object.IObjectController;
@@ -113,11 +115,14 @@ public class TaskManager implements ITaskManager, IGameLogicUpdatable {
     private final EntitySet unconsciousEntities;
     private final EntitySet corpseEntities;
     private final EntitySet freeObjectEntities;
-    private final Map<Short, Set<Task>> taskQueues;
+    private final EntitySet workerEntities;
+    private final Map<Short, TaskQueue> taskQueues;
     private final Map<Long, Task> tasksByIds = new HashMap<>();
     private final Map<EntityId, Long> tasksIdsByEntities = new HashMap<>();
     private final Map<Short, IPlayerController> playerControllers;
     private final Map<IRoomController, Map<Point, AbstractCapacityCriticalRoomTask>> roomTasks = new HashMap<>();
+    private final Map<Short, TaskAuction> taskAuctions = new HashMap<>();
+    private boolean batchAssignment = true;
 
     private static final Logger LOGGER = Logger.getLogger(TaskManager.class.getName());
 
@@ -143,7 +148,7 @@ public class TaskManager implements ITaskManager, IGameLogicUpdatable {
             playerControllers.put(keeper.getId(), playerController);
 
             if (keeper.getId() != Player.GOOD_PLAYER_ID && keeper.getId() != Player.NEUTRAL_PLAYER_ID) {
-                taskQueues.put(keeper.getId(), new HashSet<>());
+                taskQueues.put(keeper.getId(), new TaskQueue(mapController.getMapData().getWidth(), mapController.getMapData().getHeight()));
             }
         }
 
@@ -168,6 +173,9 @@ public class TaskManager implements ITaskManager, IGameLogicUpdatable {
         // Listen to object picking up missions
         freeObjectEntities = entityData.getEntities(ObjectComponent.class, Position.class, Placeable.class);
         processAddedFreeObjectEntities(freeObjectEntities);
+
+        // Workers, for assigning the tasks in batches
+        workerEntities = entityData.getEntities(CreatureComponent.class, CreatureAi.class, Owner.class);
     }
 
     @Override
@@ -181,10 +189,16 @@ public class TaskManager implements ITaskManager, IGameLogicUpdatable {
         unconsciousEntities.release();
         corpseEntities.release();
         freeObjectEntities.release();
+        workerEntities.release();
     }
 
     @Override
     public void processTick(float tpf, double gameTime) {
+
+        // The task assignment plans are valid only for a single tick
+        taskAuctions.clear();
+        workerEntities.applyChanges();
+
         if (taskEntities.applyChanges()) {
             processDeletedTasks(taskEntities.getRemovedEntities());
             processAddedTasks(taskEntities.getAddedEntities());
@@ -243,7 +257,7 @@ public class TaskManager implements ITaskManager, IGameLogicUpdatable {
         // Add rescue mission for the own troops and capture for the enemy
         for (Entity entity : entities) {
             Owner owner = entity.get(Owner.class);
-            for (Entry<Short, Set<Task>> entry : taskQueues.entrySet()) {
+            for (Entry<Short, TaskQueue> entry : taskQueues.entrySet()) {
 
                 Task task = null;
                 if (entry.getKey() == owner.ownerId) {
@@ -425,23 +439,11 @@ public class TaskManager implements ITaskManager, IGameLogicUpdatable {
     }
 
     private void scanTerrainTasks(final Point tile, final boolean checkNeighbours, final boolean deleteObsolete) {
-        for (Entry<Short, Set<Task>> entry : taskQueues.entrySet()) {
+        for (Entry<Short, TaskQueue> entry : taskQueues.entrySet()) {
 
             // Scan existing tasks that are they valid, should be only one tile task per tile?
             if (deleteObsolete) {
-                Iterator<Task> iter = entry.getValue().iterator();
-                while (iter.hasNext()) {
-                    Task task = iter.next();
-                    if (task instanceof AbstractTileTask) {
-                        AbstractTileTask tileTask = (AbstractTileTask) task;
-                        if (tileTask.isRemovable()) {
-                            iter.remove();
-                            if (tileTask.getAssigneeCount() == 0) {
-                                //tasksByIds.remove(task.getId());
-                            }
-                        }
-                    }
-                }
+                entry.getValue().removeIf((task) -> task instanceof AbstractTileTask && task.isRemovable());
             }
 
             // Perhaps we should have a store for these, since only one of such per player can exist, would save IDs
@@ -483,10 +485,10 @@ public class TaskManager implements ITaskManager, IGameLogicUpdatable {
         if (!taskQueues.containsKey(playerId)) {
             return;
         }
-        for (EntityId entityId : entityPositionLookup.getEntitiesInLocation(tile)) {
+        entityPositionLookup.visitEntitiesInLocation(tile.x, tile.y, (entityId) -> {
             Entity entity = entityData.getEntity(entityId, ObjectComponent.class, Placeable.class, Position.class);
             createFetchObjectTask(entity, playerId);
-        }
+        });
     }
 
     private void createFetchObjectTask(Entity entity, short playerId) {
@@ -499,48 +501,72 @@ public class TaskManager implements ITaskManager, IGameLogicUpdatable {
     @Override
     public boolean assignTask(ICreatureController creature, boolean byDistance) {
 
-        Set<Task> taskQueue = taskQueues.get(creature.getOwnerId());
+        TaskQueue taskQueue = taskQueues.get(creature.getOwnerId());
         if (taskQueue == null) {
             return false;
 //            throw new IllegalArgumentException("This task manager instance is not for the given player!");
         }
 
-        // Sort by distance & priority
-        final Point currentLocation = creature.getCreatureCoordinates();
-        List<Task> prioritisedTaskQueue = new ArrayList<>(taskQueue);
-        Collections.sort(prioritisedTaskQueue, (Task t, Task t1) -> {
-            int result = Integer.compare(t.getAssigneeCount(), t1.getAssigneeCount());
-            if (result == 0) {
-                result = Integer.compare(
-                        WorldUtils.calculateDistance(currentLocation, t.getTaskLocation()) + t.getPriority(),
-                        WorldUtils.calculateDistance(currentLocation, t1.getTaskLocation()) + t1.getPriority()
-                );
-
-                if (result == 0) {
-                    // If the same, compare by date added
-                    return t.getTaskCreated().compareTo(t1.getTaskCreated());
-                }
-            }
-            return result;
-        });
-
-        // Take the first available task from the sorted queue
-        for (Task task : prioritisedTaskQueue) {
-            if (task.canAssign(creature)) {
-
-                // Assign to first task
+        // Solve the assignment for all the idle workers at once and see what was planned for us
+        Predicate<Task> filter = (t) -> t.canAssign(creature);
+        if (batchAssignment && !byDistance) {
+            TaskAuction taskAuction = taskAuctions.computeIfAbsent(creature.getOwnerId(), (playerId) -> new TaskAuction(taskQueue, getIdleWorkers(playerId, creature)));
+            Task task = taskAuction.takeTask(creature);
+            if (task != null && task.canAssign(creature)) {
                 task.assign(creature, true);
                 return true;
             }
+
+            // Don't take the tasks promised to others
+            filter = (t) -> !taskAuction.isReserved(t) && t.canAssign(creature);
+        }
+
+        // Take the first available task, by distance & priority
+        Task task = taskQueue.findTask(creature.getCreatureCoordinates(), filter);
+        if (task != null) {
+            task.assign(creature, true);
+            return true;
         }
 
         return false;
     }
 
+    /**
+     * Get the idle workers of a player
+     *
+     * @param playerId the player
+     * @param creature the creature asking, always included
+     * @return the workers, in a stable order
+     */
+    private List<ICreatureController> getIdleWorkers(short playerId, ICreatureController creature) {
+        List<ICreatureController> workers = new ArrayList<>();
+        workers.add(creature);
+        for (Entity entity : workerEntities) {
+            if (entity.get(CreatureComponent.class).worker
+                    && entity.get(Owner.class).ownerId == playerId
+                    && entity.get(CreatureAi.class).getCreatureState() == CreatureState.IDLE
+                    && !entity.getId().equals(creature.getEntityId())) {
+                workers.add(creaturesController.createController(entity.getId()));
+            }
+        }
+        workers.sort(Comparator.comparingLong((c) -> c.getEntityId().getId()));
+
+        return workers;
+    }
+
+    /**
+     * Whether to assign the worker tasks in batches, once per tick. If not,
+     * every worker just takes the best task available when asking
+     *
+     * @param batchAssignment use batch assignment
+     */
+    public void setBatchAssignment(boolean batchAssignment) {
+        this.batchAssignment = batchAssignment;
+    }
+
     public void addTask(short playerId, Task task) {
-        Set<Task> tasks = taskQueues.get(playerId);
-        if (!tasks.contains(task)) {
-            tasks.add(task);
+        TaskQueue tasks = taskQueues.get(playerId);
+        if (tasks.add(task)) {
             tasksByIds.put(task.getId(), task);
             LOGGER.log(Level.INFO, "Added task {0} for player {1}!", new Object[]{task, playerId});
         } else {
@@ -605,8 +631,7 @@ public class TaskManager implements ITaskManager, IGameLogicUpdatable {
             // Assign
             if (!coordinates.isEmpty()) {
                 Point target = Utils.getRandomItem(coordinates);
-                GraphPath<IMapTileInformation> path = navigationService.findPath(creature.getCreatureCoordinates(), target, creature);
-                if (path != null || target == creature.getCreatureCoordinates()) {
+                if (target == creature.getCreatureCoordinates() || navigationService.isReachable(creature.getCreatureCoordinates(), target, creature)) {
 
                     // Assign the task
                     Task task = getRoomTask(objectType, target, targetEntity, creature, room);
@@ -764,7 +789,7 @@ public class TaskManager implements ITaskManager, IGameLogicUpdatable {
         // Pick closest we can actually access
         for (EntityId food : foods) {
             Point target = entityPositionLookup.getEntityLocation(food).getLocation();
-            if (target == creature.getCreatureCoordinates() || navigationService.findPath(creature.getCreatureCoordinates(), target, creature) != null) {
+            if (target == creature.getCreatureCoordinates() || navigationService.isReachable(creature.getCreatureCoordinates(), target, creature)) {
                 GoToEat task = new GoToEat(navigationService, mapController, entityPositionLookup, food, entityData, creature);
                 task.assign(creature, true);
                 tasksByIds.put(task.getId(), task);
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.game.task;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+import toniarts.openkeeper.utils.WorldUtils;
+
+/**
+ * Task queue of a single player. The tile tasks are bucketed by their location
+ * so that the best task for a creature can be found without sorting the whole
+ * queue. Other tasks, whose location may change, are kept aside and evaluated
+ * every time, there aren't many of them.<br>
+ * The tasks are given out in the order of assignee count, distance + priority
+ * and creation time.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+final class TaskQueue implements Iterable<Task> {
+
+    /**
+     * Bucket size in tiles, same as the map view pages
+     */
+    private static final int BUCKET_SIZE = 8;
+
+    private final int bucketsX;
+    private final int bucketsY;
+    private final TaskBucket[] buckets;
+    private final Map<Task, TaskBucket> bucketsByTask = new HashMap<>();
+    private final List<Task> mobileTasks = new ArrayList<>();
+
+    TaskQueue(int width, int height) {
+        bucketsX = (width + BUCKET_SIZE - 1) / BUCKET_SIZE;
+        bucketsY = (height + BUCKET_SIZE - 1) / BUCKET_SIZE;
+        buckets = new TaskBucket[bucketsX * bucketsY];
+        for (int y = 0; y < bucketsY; y++) {
+            for (int x = 0; x < bucketsX; x++) {
+                buckets[y * bucketsX + x] = new TaskBucket(x * BUCKET_SIZE, y * BUCKET_SIZE);
+            }
+        }
+    }
+
+    boolean add(Task task) {
+        if (contains(task)) {
+            return false;
+        }
+
+        Point location = task.getTaskLocation();
+        if (task instanceof AbstractTileTask && location != null) {
+            TaskBucket bucket = buckets[Math.min(location.y / BUCKET_SIZE, bucketsY - 1) * bucketsX + Math.min(location.x / BUCKET_SIZE, bucketsX - 1)];
+            bucket.add(task);
+            bucketsByTask.put(task, bucket);
+        } else {
+            mobileTasks.add(task);
+        }
+
+        return true;
+    }
+
+    boolean contains(Task task) {
+        return bucketsByTask.containsKey(task) || mobileTasks.contains(task);
+    }
+
+    boolean remove(Task task) {
+        TaskBucket bucket = bucketsByTask.remove(task);
+        if (bucket != null) {
+            return bucket.remove(task);
+        }
+
+        return mobileTasks.remove(task);
+    }
+
+    /**
+     * Removes all the tasks matching the filter
+     *
+     * @param filter the filter
+     */
+    void removeIf(Predicate<Task> filter) {
+        Iterator<Map.Entry<Task, TaskBucket>> iter = bucketsByTask.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Task, TaskBucket> entry = iter.next();
+            if (filter.test(entry.getKey())) {
+                entry.getValue().remove(entry.getKey());
+                iter.remove();
+            }
+        }
+        mobileTasks.removeIf(filter);
+    }
+
+    int size() {
+        return bucketsByTask.size() + mobileTasks.size();
+    }
+
+    /**
+     * Find the best task. Goes through the tasks in the order they should be
+     * given out, and returns the first one accepted by the filter.
+     *
+     * @param location the location of the one asking
+     * @param filter the filter, i.e. can the task be assigned
+     * @return the best task, or {@code null} if none was accepted
+     */
+    Task findTask(Point location, Predicate<Task> filter) {
+        List<Task> tasks = findTasks(location, filter, 1);
+        return tasks.isEmpty() ? null : tasks.get(0);
+    }
+
+    /**
+     * Find the best tasks. Goes through the tasks in the order they should be
+     * given out, and returns the first ones accepted by the filter.
+     *
+     * @param location the location of the one asking
+     * @param filter the filter, i.e. can the task be assigned
+     * @param maxTasks maximum number of tasks to return
+     * @return the best tasks in order, empty if none was accepted
+     */
+    List<Task> findTasks(Point location, Predicate<Task> filter, int maxTasks) {
+        List<Task> result = new ArrayList<>(Math.min(maxTasks, 16));
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>();
+        int assigneeCount = 0;
+        while (assigneeCount >= 0) {
+
+            // Start with everything we've got
+            candidates.clear();
+            for (TaskBucket bucket : buckets) {
+                if (!bucket.tasks.isEmpty()) {
+                    candidates.add(new Candidate(bucket.getDistance(location) + bucket.minPriority, bucket, null));
+                }
+            }
+            int nextAssigneeCount = Integer.MAX_VALUE;
+            for (Task task : mobileTasks) {
+                nextAssigneeCount = offerTask(candidates, location, task, assigneeCount, nextAssigneeCount);
+            }
+
+            // Open the buckets as they come, so we only look at the nearby tasks
+            Candidate candidate;
+            while ((candidate = candidates.poll()) != null) {
+                if (candidate.task != null) {
+                    if (filter.test(candidate.task)) {
+                        result.add(candidate.task);
+                        if (result.size() == maxTasks) {
+                            return result;
+                        }
+                    }
+                    continue;
+                }
+                for (Task task : candidate.bucket.tasks) {
+                    nextAssigneeCount = offerTask(candidates, location, task, assigneeCount, nextAssigneeCount);
+                }
+            }
+
+            // All seen, try the ones with more assignees
+            assigneeCount = nextAssigneeCount != Integer.MAX_VALUE ? nextAssigneeCount : -1;
+        }
+
+        return result;
+    }
+
+    private static int offerTask(PriorityQueue<Candidate> candidates, Point location, Task task, int assigneeCount, int nextAssigneeCount) {
+        int taskAssigneeCount = task.getAssigneeCount();
+        if (taskAssigneeCount == assigneeCount) {
+            candidates.add(new Candidate(WorldUtils.calculateDistance(location, task.getTaskLocation()) + task.getPriority(), null, task));
+        } else if (taskAssigneeCount > assigneeCount) {
+            return Math.min(nextAssigneeCount, taskAssigneeCount);
+        }
+
+        return nextAssigneeCount;
+    }
+
+    @Override
+    public Iterator<Task> iterator() {
+        List<Task> tasks = new ArrayList<>(size());
+        tasks.addAll(bucketsByTask.keySet());
+        tasks.addAll(mobileTasks);
+
+        return Collections.unmodifiableList(tasks).iterator();
+    }
+
+    /**
+     * Tile tasks inside a map area
+     */
+    private static final class TaskBucket {
+
+        private final int x;
+        private final int y;
+        private final List<Task> tasks = new ArrayList<>();
+
+        /**
+         * Smallest priority in this bucket. Not updated on removal, it only
+         * needs to be a lower bound.
+         */
+        private int minPriority = Integer.MAX_VALUE;
+
+        public TaskBucket(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        public void add(Task task) {
+            tasks.add(task);
+            minPriority = Math.min(minPriority, task.getPriority());
+        }
+
+        public boolean remove(Task task) {
+            boolean removed = tasks.remove(task);
+            if (tasks.isEmpty()) {
+                minPriority = Integer.MAX_VALUE;
+            }
+
+            return removed;
+        }
+
+        /**
+         * Manhattan distance to the nearest tile of the bucket
+         */
+        public int getDistance(Point location) {
+            if (location == null) {
+                return 0;
+            }
+            int dx = Math.max(0, Math.max(x - location.x, location.x - (x + BUCKET_SIZE - 1)));
+            int dy = Math.max(0, Math.max(y - location.y, location.y - (y + BUCKET_SIZE - 1)));
+
+            return dx + dy;
+        }
+
+    }
+
+    /**
+     * Either a whole bucket or a single task. A bucket is always opened before
+     * any task of the same value is handed out, so the order is exactly the
+     * same as if all the tasks were sorted.
+     */
+    private static final class Candidate implements Comparable<Candidate> {
+
+        private final int value;
+        private final TaskBucket bucket;
+        private final Task task;
+
+        public Candidate(int value, TaskBucket bucket, Task task) {
+            this.value = value;
+            this.bucket = bucket;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            int result = Integer.compare(value, other.value);
+            if (result == 0) {
+                if (bucket != null || other.bucket != null) {
+                    return Boolean.compare(other.bucket != null, bucket != null);
+                }
+                result = task.getTaskCreated().compareTo(other.task.getTaskCreated());
+            }
+
+            return result;
+        }
+
+    }
+
+}
@@ -72,15 +72,14 @@ public class ActionPointTriggerControl extends TriggerControl {
                 switch (type) {
                     case 0:
                     case 3: // Creature
-                        for (int x = (int) ap.getStart().x; x <= (int) ap.getEnd().x; x++) {
-                            for (int y = (int) ap.getStart().y; y <= (int) ap.getEnd().y; y++) {
-                                for (ICreatureController creature : entityPositionLookup.getEntityTypesInLocation(x, y, ICreatureController.class)) {
+                        int[] creatureCount = {0};
+                        entityPositionLookup.visitEntityTypesInArea((int) ap.getStart().x, (int) ap.getStart().y, (int) ap.getEnd().x, (int) ap.getEnd().y,
+                                ICreatureController.class, (creature) -> {
                                     if ((playerId == 0 || creature.getOwnerId() == playerId) && (targetId == 0 || creature.getCreature().getCreatureId() == targetId)) {
-                                        target++;
+                                        creatureCount[0]++;
                                     }
-                                }
-                            }
-                        }
+                                });
+                        target += creatureCount[0];
                         break;
                     case 6: // Object
                         break;
@@ -22,12 +22,16 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import toniarts.openkeeper.Main;
+import toniarts.openkeeper.tools.convert.archive.AssetArchive;
+import toniarts.openkeeper.tools.convert.conversion.AssetManifest;
 import toniarts.openkeeper.tools.convert.conversion.ConversionTaskManager;
+import toniarts.openkeeper.tools.convert.conversion.task.ConversionTask;
 import toniarts.openkeeper.tools.convert.conversion.task.ConvertFonts;
 import toniarts.openkeeper.tools.convert.conversion.task.ConvertHiScores;
 import toniarts.openkeeper.tools.convert.conversion.task.ConvertMapThumbnails;
@@ -37,7 +41,6 @@ import toniarts.openkeeper.tools.convert.conversion.task.ConvertPaths;
 import toniarts.openkeeper.tools.convert.conversion.task.ConvertSounds;
 import toniarts.openkeeper.tools.convert.conversion.task.ConvertTexts;
 import toniarts.openkeeper.tools.convert.conversion.task.ConvertTextures;
-import toniarts.openkeeper.tools.convert.conversion.task.IConversionTask;
 import toniarts.openkeeper.tools.convert.conversion.task.IConversionTaskUpdate;
 import toniarts.openkeeper.tools.convert.map.KwdFile;
 import toniarts.openkeeper.utils.PathUtils;
@@ -59,10 +62,10 @@ public abstract class AssetsConverter implements IConversionTaskUpdate {
      */
     public enum ConvertProcess {
 
-        TEXTURES(6, new ConvertProcess[]{}),
-        MODELS(6, new ConvertProcess[]{TEXTURES}),
+        TEXTURES(7, new ConvertProcess[]{}),
+        MODELS(8, new ConvertProcess[]{TEXTURES}),
         MOUSE_CURSORS(4, new ConvertProcess[]{}),
-        MUSIC_AND_SOUNDS(4, new ConvertProcess[]{}),
+        MUSIC_AND_SOUNDS(5, new ConvertProcess[]{}),
         INTERFACE_TEXTS(3, new ConvertProcess[]{}),
         PATHS(4, new ConvertProcess[]{}),
         HI_SCORES(2, new ConvertProcess[]{}),
@@ -102,8 +105,12 @@ public abstract class AssetsConverter implements IConversionTaskUpdate {
     private final String dungeonKeeperFolder;
     private final AssetManager assetManager;
     private static final boolean OVERWRITE_DATA = true; // Not exhausting your SDD :) or our custom graphics
+    private static final boolean PACK_ASSETS = true; // Models, textures and sounds to a single archive, loads faster than the loose files
     private static final String ASSETS_FOLDER = "assets" + File.separator + "Converted";
     private static final String ABSOLUTE_ASSETS_FOLDER = getCurrentFolder() + ASSETS_FOLDER + File.separator;
+    private static final String MANIFEST_FILE = "AssetManifest.txt";
+    private static final String ASSET_ARCHIVE_FILE = "Assets.pak";
+    private static AssetManifest manifest;
 
     public static final String SOUNDS_FOLDER = "Sounds";
     public static final String MATERIALS_FOLDER = "Materials";
@@ -141,7 +148,9 @@ public abstract class AssetsConverter implements IConversionTaskUpdate {
     }
 
     /**
-     * Checks if a specific asset conversion is needed
+     * Checks if a specific asset conversion is needed. Either the converter
+     * has been updated, or the asset manifest tells that the game files have
+     * changed
      *
      * @param convertProcess the process to check
      * @param settings the application settings
@@ -149,7 +158,20 @@ public abstract class AssetsConverter implements IConversionTaskUpdate {
      */
     public static boolean isConversionNeeded(ConvertProcess convertProcess, AppSettings settings) {
         String key = convertProcess.getSettingName();
-        return convertProcess.getVersion() > settings.getInteger(key);
+        return convertProcess.getVersion() > settings.getInteger(key) || !getManifest().isUpToDate(convertProcess);
+    }
+
+    /**
+     * Get the asset manifest, the book of what has been converted from where
+     *
+     * @return the asset manifest
+     */
+    public static synchronized AssetManifest getManifest() {
+        if (manifest == null) {
+            manifest = AssetManifest.load(Paths.get(ABSOLUTE_ASSETS_FOLDER, MANIFEST_FILE), Paths.get(ABSOLUTE_ASSETS_FOLDER));
+        }
+
+        return manifest;
     }
 
     /**
@@ -188,13 +210,22 @@ public abstract class AssetsConverter implements IConversionTaskUpdate {
         // Create an assets folder
         String assetFolder = currentFolder.concat(ASSETS_FOLDER).concat(File.separator);
 
+        // The asset archive would hide the newly converted files, it is packed again once we are done
+        try {
+            AssetArchive.delete(Paths.get(assetFolder, ASSET_ARCHIVE_FILE));
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Failed to delete the asset archive!", ex);
+        }
+
         // Create task manager for taking care of the conversion workflow
         ConversionTaskManager conversionTaskManager = new ConversionTaskManager();
         AppSettings settings = Main.getSettings();
+        AssetManifest assetManifest = getManifest();
         for (ConvertProcess conversion : ConvertProcess.values()) {
             conversionTaskManager.addTask(conversion,
                     () -> {
-                        IConversionTask task = createTask(conversion, assetFolder);
+                        ConversionTask task = createTask(conversion, assetFolder);
+                        task.setManifest(assetManifest);
                         task.addListener(new IConversionTaskUpdate() {
 
                             @Override
@@ -222,6 +253,9 @@ public abstract class AssetsConverter implements IConversionTaskUpdate {
                     isConversionNeeded(conversion, settings));
         }
         boolean success = conversionTaskManager.executeTasks();
+        if (success && PACK_ASSETS) {
+            packAssets(assetFolder);
+        }
 
         // Log the time taken
         long duration = System.currentTimeMillis() - start;
@@ -230,7 +264,21 @@ public abstract class AssetsConverter implements IConversionTaskUpdate {
         return success;
     }
 
-    private IConversionTask createTask(ConvertProcess conversion, String currentFolder) {
+    /**
+     * Packs the converted models, textures and sounds to the asset archive.
+     * The loose files stay, the archive is just faster to load from
+     *
+     * @param assetFolder the assets folder
+     */
+    private static void packAssets(String assetFolder) {
+        try {
+            AssetArchive.write(Paths.get(assetFolder), Arrays.asList(MODELS_FOLDER, MATERIALS_FOLDER, TEXTURES_FOLDER, SOUNDS_FOLDER), Paths.get(assetFolder, ASSET_ARCHIVE_FILE));
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Failed to pack the converted assets, using the loose files!", ex);
+        }
+    }
+
+    private ConversionTask createTask(ConvertProcess conversion, String currentFolder) {
         switch (conversion) {
             case TEXTURES:
                 return new ConvertTextures(dungeonKeeperFolder, currentFolder.concat(TEXTURES_FOLDER).concat(File.separator), OVERWRITE_DATA);
@@ -274,6 +322,15 @@ public abstract class AssetsConverter implements IConversionTaskUpdate {
         return ABSOLUTE_ASSETS_FOLDER;
     }
 
+    /**
+     * Get the asset archive file, it might not exist
+     *
+     * @return the asset archive file
+     */
+    public static String getAssetArchive() {
+        return ABSOLUTE_ASSETS_FOLDER + ASSET_ARCHIVE_FILE;
+    }
+
     /**
      * Generates a map thumbnail out of the given map file
      *
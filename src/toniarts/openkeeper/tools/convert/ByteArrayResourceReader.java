@@ -23,7 +23,9 @@ import java.nio.ByteOrder;
 /**
  * A version of Dungeon Keeper 2 resource reader that reads data directly from
  * given byte array. Convenient if we already read all the data and
- * decompressed/decrypted it. No need to swing it through a temp file etc.
+ * decompressed/decrypted it. No need to swing it through a temp file etc.<br>
+ * Can also read a byte buffer, such as a memory mapped file, the chunks are
+ * then slices of the buffer and no data is copied.
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
@@ -36,6 +38,17 @@ public class ByteArrayResourceReader implements IResourceReader {
         buffer.order(ByteOrder.LITTLE_ENDIAN);
     }
 
+    /**
+     * Read the remaining data of the buffer. The buffer itself is not
+     * modified.
+     *
+     * @param data the data to read
+     */
+    public ByteArrayResourceReader(ByteBuffer data) {
+        buffer = data.slice();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
     @Override
     public long getFilePointer() throws IOException {
         return buffer.position();
@@ -54,10 +67,7 @@ public class ByteArrayResourceReader implements IResourceReader {
     @Override
     public int read(byte[] b) throws IOException {
         int length = Math.min(b.length, buffer.remaining());
-        System.arraycopy(buffer.array(), buffer.position(), b, 0, length);
-
-        // Advance marker
-        skipBytes(length);
+        buffer.get(b, 0, length);
 
         return length;
     }
@@ -70,10 +80,7 @@ public class ByteArrayResourceReader implements IResourceReader {
         }
 
         byte[] bytes = new byte[length];
-        System.arraycopy(buffer.array(), buffer.position(), bytes, 0, length);
-
-        // Advance marker
-        skipBytes(length);
+        buffer.get(bytes);
 
         return bytes;
     }
@@ -89,10 +96,10 @@ public class ByteArrayResourceReader implements IResourceReader {
             String message = "Error reading byte array. Expect %s bytes and %s given";
             throw new IOException(String.format(message, size, buffer.remaining()));
         }
-        byte[] bytes = new byte[size];
-        System.arraycopy(buffer.array(), buffer.position(), bytes, 0, size);
-
-        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        // Limit before slicing, the chunk capacity is the chunk length
+        ByteBuffer buf = buffer.duplicate();
+        buf.limit(buf.position() + size);
+        buf = buf.slice();
         buf.order(ByteOrder.LITTLE_ENDIAN);
 
         // Advance marker
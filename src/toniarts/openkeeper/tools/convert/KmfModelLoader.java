@@ -18,6 +18,7 @@ package toniarts.openkeeper.tools.convert;
 
 import com.jme3.animation.AnimControl;
 import com.jme3.asset.AssetInfo;
+import com.jme3.asset.AssetLoadException;
 import com.jme3.asset.AssetLoader;
 import com.jme3.asset.MaterialKey;
 import com.jme3.asset.ModelKey;
@@ -48,9 +49,13 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import toniarts.openkeeper.animation.Pose;
@@ -101,7 +106,8 @@ public class KmfModelLoader implements AssetLoader {
     public static final String FRAME_FACTOR_FUNCTION = "FrameFactorFunction";
     private static final Logger logger = Logger.getLogger(KmfModelLoader.class.getName());
     /* Already saved materials are stored here */
-    private static final Map<toniarts.openkeeper.tools.convert.kmf.Material, String> materialCache = new HashMap<>();
+    private static final Map<toniarts.openkeeper.tools.convert.kmf.Material, String> materialCache = new ConcurrentHashMap<>();
+    private static final Map<String, Object> materialLocks = new ConcurrentHashMap<>();
 
     public static void main(final String[] args) throws IOException {
 
@@ -596,145 +602,217 @@ public class KmfModelLoader implements AssetLoader {
         Map<Integer, List<Material>> materials = new HashMap(kmfFile.getMaterials().size());
         int i = 0;
         for (toniarts.openkeeper.tools.convert.kmf.Material mat : kmfFile.getMaterials()) {
-            Material material = null;
+            List<Material> materialList;
+            if (generateMaterialFile) {
 
-            // Get the texture, the first one
-            // There is a list of possible alternative textures
-            String texture = mat.getTextures().get(0);
-            if (textureFixes.containsKey(texture)) {
+                // Models are converted in parallel, only one may look up and write the same material file at a time
+                // The lock is per file, the names differing only by case are the same file on Windows
+                String lockKey = getMaterialFileName(mat).toLowerCase(Locale.ROOT);
+                synchronized (materialLocks.computeIfAbsent(lockKey, (name) -> new Object())) {
+                    materialList = getMaterial(mat, generateMaterialFile, assetInfo);
+                }
+            } else {
+                materialList = getMaterial(mat, generateMaterialFile, assetInfo);
+            }
+            materials.put(i, materialList);
+            i++;
+        }
+        return materials;
+    }
 
-                //Fix the texture entry
-                texture = textureFixes.get(texture);
+    /**
+     * Get the J3M file name of a material, without the extension
+     *
+     * @param mat the KMF material
+     * @return the material file name
+     */
+    private static String getMaterialFileName(toniarts.openkeeper.tools.convert.kmf.Material mat) {
+        String fileName = ConversionUtils.stripFileName(mat.getName());
+
+        // If there are multiple texture options, add a suffix to the material file name
+        if (mat.getTextures().size() > 1) {
+            fileName = fileName.concat(MATERIAL_ALTERNATIVE_TEXTURE_SUFFIX_SEPARATOR).concat("0");
+        }
+
+        return fileName;
+    }
+
+    /**
+     * Get the J3M files of the materials of a model, the alternative texture
+     * materials included. Only the files that exist are returned, with their
+     * names as they are on the disk
+     *
+     * @param kmfFile the model
+     * @return the material files
+     * @throws IOException may fail
+     */
+    public static Set<Path> getMaterialFiles(KmfFile kmfFile) throws IOException {
+        Set<Path> files = new LinkedHashSet<>();
+        if (kmfFile.getMaterials() == null) {
+            return files;
+        }
+        for (toniarts.openkeeper.tools.convert.kmf.Material mat : kmfFile.getMaterials()) {
+            String fileName = getMaterialFileName(mat);
+            for (int k = 0; k < Math.max(1, mat.getTextures().size()); k++) {
+                if (k > 0) {
+                    fileName = fileName.substring(0, fileName.lastIndexOf(MATERIAL_ALTERNATIVE_TEXTURE_SUFFIX_SEPARATOR) + 1).concat(k + "");
+                }
+                Path file = Paths.get(AssetsConverter.getAssetsFolder(), AssetsConverter.MATERIALS_FOLDER, fileName.concat(".j3m"));
+                if (Files.exists(file)) {
+
+                    // Case sensitivity issue
+                    files.add(file.resolveSibling(file.toRealPath().getFileName()));
+                }
             }
+        }
 
-            // See if the material is found already on the cache
-            String materialLocation = null;
-            String materialKey = null;
-            String fileName;
-            if (generateMaterialFile) {
-                materialKey = materialCache.get(mat);
-                if (materialKey != null) {
-                    material = assetInfo.getManager().loadMaterial(materialKey);
-                    setMaterialFlags(material, mat);
-                    List<Material> materialList = new ArrayList<>(mat.getTextures().size());
-                    materialList.add(material);
-
-                    // If we have multiple textures, we can just fake them, we just need the count really
-                    if (mat.getTextures().size() > 1) {
-                        materialList.add(material); // Fake it
-                    }
+        return files;
+    }
+
+    /**
+     * Create a material and its alternatives
+     *
+     * @param mat the KMF material
+     * @param generateMaterialFile should we create J3M material file
+     * @param assetInfo the asset info
+     * @return the material and its alternatives
+     * @throws IOException may fail
+     */
+    private List<Material> getMaterial(toniarts.openkeeper.tools.convert.kmf.Material mat, boolean generateMaterialFile, AssetInfo assetInfo) throws IOException {
+        Material material = null;
 
-                    materials.put(i, materialList);
-                    i++;
-                    continue;
-                } else {
+        // Get the texture, the first one
+        // There is a list of possible alternative textures
+        String texture = mat.getTextures().get(0);
+        if (textureFixes.containsKey(texture)) {
 
-                    // Ok, it it not in the cache yet, but maybe it has been already generated, so use it and update the defaults in it
-                    fileName = ConversionUtils.stripFileName(mat.getName());
+            //Fix the texture entry
+            texture = textureFixes.get(texture);
+        }
 
-                    // If there are multiple texture options, add a suffix to the material file name
-                    if (mat.getTextures().size() > 1) {
-                        fileName = fileName.concat(MATERIAL_ALTERNATIVE_TEXTURE_SUFFIX_SEPARATOR).concat("0");
-                    }
+        // See if the material is found already on the cache
+        String materialLocation = null;
+        String materialKey = null;
+        String fileName;
+        if (generateMaterialFile) {
+            materialKey = materialCache.get(mat);
+            if (materialKey != null) {
+                material = assetInfo.getManager().loadMaterial(materialKey);
+                setMaterialFlags(material, mat);
+                List<Material> materialList = new ArrayList<>(mat.getTextures().size());
+                materialList.add(material);
+
+                // If we have multiple textures, we can just fake them, we just need the count really
+                if (mat.getTextures().size() > 1) {
+                    materialList.add(material); // Fake it
+                }
+
+                return materialList;
+            } else {
 
-                    materialKey = AssetsConverter.MATERIALS_FOLDER.concat("/").concat(fileName).concat(".j3m");
-                    materialLocation = AssetsConverter.getAssetsFolder().concat(AssetsConverter.MATERIALS_FOLDER.concat(File.separator).concat(fileName).concat(".j3m"));
+                // Ok, it it not in the cache yet, but maybe it has been already generated, so use it and update the defaults in it
+                fileName = getMaterialFileName(mat);
+                materialKey = AssetsConverter.MATERIALS_FOLDER.concat("/").concat(fileName).concat(".j3m");
+                materialLocation = AssetsConverter.getAssetsFolder().concat(AssetsConverter.MATERIALS_FOLDER.concat(File.separator).concat(fileName).concat(".j3m"));
 
-                    // See if it exists
-                    Path file = Paths.get(materialLocation);
-                    if (Files.exists(file)) {
-                        file = file.toRealPath();
-                        if (!file.getFileName().toString().equals(fileName.concat(".j3m"))) {
+                // See if it exists
+                Path file = Paths.get(materialLocation);
+                if (Files.exists(file)) {
+                    file = file.toRealPath();
+                    if (!file.getFileName().toString().equals(fileName.concat(".j3m"))) {
 
-                            // Case sensitivity issue
-                            materialKey = AssetsConverter.MATERIALS_FOLDER.concat("/").concat(file.getFileName().toString());
-                            materialLocation = AssetsConverter.getAssetsFolder().concat(AssetsConverter.MATERIALS_FOLDER.concat(File.separator).concat(file.getFileName().toString()));
-                        }
+                        // Case sensitivity issue
+                        materialKey = AssetsConverter.MATERIALS_FOLDER.concat("/").concat(file.getFileName().toString());
+                        materialLocation = AssetsConverter.getAssetsFolder().concat(AssetsConverter.MATERIALS_FOLDER.concat(File.separator).concat(file.getFileName().toString()));
+                    }
+                    try {
                         material = assetInfo.getManager().loadMaterial(materialKey);
+                    } catch (AssetLoadException e) {
+
+                        // Broken, just create it again
+                        logger.log(Level.WARNING, "Failed to load material " + materialKey + ", creating it again!", e);
                     }
                 }
             }
+        }
 
-            // Create the material
-            if (material == null) {
-                material = new Material(assetInfo.getManager(), "Common/MatDefs/Light/Lighting.j3md");
-            }
-
-            //Load up the texture and create the material
-            Texture tex = loadTexture(texture, assetInfo);
-            material.setTexture("DiffuseMap", tex);
-            material.setColor("Specular", ColorRGBA.Orange); // Dungeons are lit only with fire...? Experimental
-            material.setColor("Diffuse", ColorRGBA.White); // Experimental
-            material.setFloat("Shininess", 128 * mat.getBrightness()); // Use the brightness as shininess... Experimental
+        // Create the material
+        if (material == null) {
+            material = new Material(assetInfo.getManager(), "Common/MatDefs/Light/Lighting.j3md");
+        }
 
-            // Set some flags
-            setMaterialFlags(material, mat);
+        //Load up the texture and create the material
+        Texture tex = loadTexture(texture, assetInfo);
+        material.setTexture("DiffuseMap", tex);
+        material.setColor("Specular", ColorRGBA.Orange); // Dungeons are lit only with fire...? Experimental
+        material.setColor("Diffuse", ColorRGBA.White); // Experimental
+        material.setFloat("Shininess", 128 * mat.getBrightness()); // Use the brightness as shininess... Experimental
 
-            // Read the flags & stuff
-            if (mat.getFlag().contains(toniarts.openkeeper.tools.convert.kmf.Material.MaterialFlag.HAS_ALPHA)) {
-                material.setFloat("AlphaDiscardThreshold", 0.1f);
-                material.getAdditionalRenderState().setBlendMode(RenderState.BlendMode.Alpha);
-            }
-            if (mat.getFlag().contains(toniarts.openkeeper.tools.convert.kmf.Material.MaterialFlag.ALPHA_ADDITIVE)) {
-                material.setFloat("AlphaDiscardThreshold", 0.1f);
-                material.getAdditionalRenderState().setDepthWrite(false);
-                material.getAdditionalRenderState().setBlendMode(RenderState.BlendMode.AlphaAdditive);
-            }
+        // Set some flags
+        setMaterialFlags(material, mat);
 
-            // Add material to list and create the possible alternatives
-            List<Material> materialList = new ArrayList<>(mat.getTextures().size());
-            materialList.add(material);
-            for (int k = 1; k < mat.getTextures().size(); k++) {
+        // Read the flags & stuff
+        if (mat.getFlag().contains(toniarts.openkeeper.tools.convert.kmf.Material.MaterialFlag.HAS_ALPHA)) {
+            material.setFloat("AlphaDiscardThreshold", 0.1f);
+            material.getAdditionalRenderState().setBlendMode(RenderState.BlendMode.Alpha);
+        }
+        if (mat.getFlag().contains(toniarts.openkeeper.tools.convert.kmf.Material.MaterialFlag.ALPHA_ADDITIVE)) {
+            material.setFloat("AlphaDiscardThreshold", 0.1f);
+            material.getAdditionalRenderState().setDepthWrite(false);
+            material.getAdditionalRenderState().setBlendMode(RenderState.BlendMode.AlphaAdditive);
+        }
 
-                // Get the texture
-                String alternativeTexture = mat.getTextures().get(k);
-                if (textureFixes.containsKey(alternativeTexture)) {
+        // Add material to list and create the possible alternatives
+        List<Material> materialList = new ArrayList<>(mat.getTextures().size());
+        materialList.add(material);
+        for (int k = 1; k < mat.getTextures().size(); k++) {
 
-                    //Fix the texture entry
-                    alternativeTexture = textureFixes.get(alternativeTexture);
-                }
-                Texture alternativeTex = loadTexture(alternativeTexture, assetInfo);
+            // Get the texture
+            String alternativeTexture = mat.getTextures().get(k);
+            if (textureFixes.containsKey(alternativeTexture)) {
 
-                // Clone the original material, set texture and add to list
-                Material alternativeMaterial = material.clone();
-                alternativeMaterial.setTexture("DiffuseMap", alternativeTex);
-                materialList.add(alternativeMaterial);
+                //Fix the texture entry
+                alternativeTexture = textureFixes.get(alternativeTexture);
             }
+            Texture alternativeTex = loadTexture(alternativeTexture, assetInfo);
 
-            // See if we should save the materials
-            if (generateMaterialFile) {
-                for (int k = 0; k < materialList.size(); k++) {
+            // Clone the original material, set texture and add to list
+            Material alternativeMaterial = material.clone();
+            alternativeMaterial.setTexture("DiffuseMap", alternativeTex);
+            materialList.add(alternativeMaterial);
+        }
 
-                    Material m = materialList.get(k);
+        // See if we should save the materials
+        if (generateMaterialFile) {
+            for (int k = 0; k < materialList.size(); k++) {
 
-                    // If there are multiple textures / material options, alter the key and location
-                    if (materialList.size() > 1) {
-                        materialKey = materialKey.substring(0, materialKey.lastIndexOf(MATERIAL_ALTERNATIVE_TEXTURE_SUFFIX_SEPARATOR) + 1).concat(k + "").concat(materialKey.substring(materialKey.lastIndexOf(".")));
-                        materialLocation = materialLocation.substring(0, materialLocation.lastIndexOf(MATERIAL_ALTERNATIVE_TEXTURE_SUFFIX_SEPARATOR) + 1).concat(k + "").concat(materialLocation.substring(materialLocation.lastIndexOf(".")));
-                    }
+                Material m = materialList.get(k);
 
-                    // Set the material so that it realizes that it is a J3M file
-                    m.setName(mat.getName());
-                    m.setKey(new MaterialKey(materialKey));
+                // If there are multiple textures / material options, alter the key and location
+                if (materialList.size() > 1) {
+                    materialKey = materialKey.substring(0, materialKey.lastIndexOf(MATERIAL_ALTERNATIVE_TEXTURE_SUFFIX_SEPARATOR) + 1).concat(k + "").concat(materialKey.substring(materialKey.lastIndexOf(".")));
+                    materialLocation = materialLocation.substring(0, materialLocation.lastIndexOf(MATERIAL_ALTERNATIVE_TEXTURE_SUFFIX_SEPARATOR) + 1).concat(k + "").concat(materialLocation.substring(materialLocation.lastIndexOf(".")));
+                }
 
-                    // Save
-                    J3MExporter exporter = new J3MExporter();
-                    try (OutputStream out = Files.newOutputStream(Paths.get(materialLocation));
-                            BufferedOutputStream bout = new BufferedOutputStream(out)) {
-                        exporter.save(m, bout);
-                    }
+                // Set the material so that it realizes that it is a J3M file
+                m.setName(mat.getName());
+                m.setKey(new MaterialKey(materialKey));
 
-                    // Put the first one to the cache
-                    if (k == 0) {
-                        materialCache.put(mat, materialKey);
-                    }
+                // Save
+                J3MExporter exporter = new J3MExporter();
+                try (OutputStream out = Files.newOutputStream(Paths.get(materialLocation));
+                        BufferedOutputStream bout = new BufferedOutputStream(out)) {
+                    exporter.save(m, bout);
                 }
-            }
 
-            materials.put(i, materialList);
-            i++;
+                // Put the first one to the cache
+                if (k == 0) {
+                    materialCache.put(mat, materialKey);
+                }
+            }
         }
-        return materials;
+
+        return materialList;
     }
 
     /**
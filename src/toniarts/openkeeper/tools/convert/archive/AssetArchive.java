@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.tools.convert.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A single file archive of the converted assets. Loading thousands of loose
+ * files is slow on cold disks and with virus scanners, the archive is opened
+ * and memory mapped only once, the entries are slices of the mapping.<br>
+ * The file is LITTLE ENDIAN, like the originals:
+ * <pre>
+ * HEADER:
+ * OKAA
+ * int version
+ * int numberOfEntries
+ * ENTRY:
+ * short nameLength
+ * byte[] name, UTF-8, relative to the assets folder with / separators
+ * long offset
+ * int size
+ * DATA
+ * </pre>
+ * The opened archives are shared, safe to read from multiple threads at once.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class AssetArchive {
+
+    private static final String HEADER_IDENTIFIER = "OKAA";
+    private static final int VERSION = 1;
+
+    /**
+     * A single mapping can't be over 2 GB, bigger archives are mapped in
+     * several segments
+     */
+    private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+    private static final ConcurrentMap<Path, AssetArchive> ARCHIVES = new ConcurrentHashMap<>();
+
+    private final Path file;
+    private final Map<String, ByteBuffer> entries;
+    private final Map<String, ByteBuffer> entriesIgnoreCase;
+
+    private static final Logger LOGGER = Logger.getLogger(AssetArchive.class.getName());
+
+    private AssetArchive(Path file) throws IOException {
+        this.file = file;
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+
+            // Read the index
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), 12)).order(ByteOrder.LITTLE_ENDIAN);
+            byte[] identifier = new byte[4];
+            header.get(identifier);
+            if (!HEADER_IDENTIFIER.equals(new String(identifier, StandardCharsets.US_ASCII))) {
+                throw new IOException("Header should be " + HEADER_IDENTIFIER + " and it was " + new String(identifier, StandardCharsets.US_ASCII) + "!");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Version should be " + VERSION + " and it was " + version + "!");
+            }
+            int numberOfEntries = header.getInt();
+            List<String> names = new ArrayList<>(numberOfEntries);
+            long[] offsets = new long[numberOfEntries];
+            int[] sizes = new int[numberOfEntries];
+            ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, 12, Math.min(channel.size() - 12, MAX_SEGMENT_SIZE)).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < numberOfEntries; i++) {
+                byte[] name = new byte[index.getShort() & 0xFFFF];
+                index.get(name);
+                names.add(new String(name, StandardCharsets.UTF_8));
+                offsets[i] = index.getLong();
+                sizes[i] = index.getInt();
+            }
+
+            // Map the data, the entries are in offset order
+            // Start a new segment when the entry would not fit the current one
+            entries = new HashMap<>(numberOfEntries);
+            entriesIgnoreCase = new HashMap<>(numberOfEntries);
+            ByteBuffer segment = null;
+            long segmentStart = 0;
+            for (int i = 0; i < numberOfEntries; i++) {
+                if (segment == null || offsets[i] + sizes[i] > segmentStart + segment.capacity()) {
+                    segmentStart = offsets[i];
+                    segment = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, Math.min(channel.size() - segmentStart, MAX_SEGMENT_SIZE));
+                }
+                ByteBuffer data = segment.duplicate();
+                data.position((int) (offsets[i] - segmentStart));
+                data.limit(data.position() + sizes[i]);
+                data = data.slice();
+                entries.put(names.get(i), data);
+                entriesIgnoreCase.putIfAbsent(names.get(i).toLowerCase(Locale.ROOT), data);
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Failed to read the asset archive " + file + "!", e);
+        }
+    }
+
+    /**
+     * Opens an asset archive. The archives are opened only once, the same
+     * instance is returned for the same file
+     *
+     * @param file the archive file
+     * @return the archive
+     * @throws IOException if the archive can't be read
+     */
+    public static AssetArchive open(Path file) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        AssetArchive archive = ARCHIVES.get(key);
+        if (archive == null) {
+            archive = new AssetArchive(key);
+            AssetArchive existing = ARCHIVES.putIfAbsent(key, archive);
+            if (existing != null) {
+                archive = existing;
+            }
+        }
+
+        return archive;
+    }
+
+    /**
+     * Get an entry. The name is matched case insensitively if there is no
+     * exact match, like the files would on Windows
+     *
+     * @param name the asset name, relative to the assets folder
+     * @return a read only view of the entry data, or {@code null} if not
+     * found
+     */
+    public ByteBuffer getFileBuffer(String name) {
+        ByteBuffer data = entries.get(name);
+        if (data == null) {
+            data = entriesIgnoreCase.get(name.toLowerCase(Locale.ROOT));
+        }
+
+        return data != null ? data.duplicate() : null;
+    }
+
+    /**
+     * Get the number of entries in this archive
+     *
+     * @return entry count
+     */
+    public int getFileCount() {
+        return entries.size();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Deletes the archive, so that a stale archive is never used over newly
+     * converted files
+     *
+     * @param file the archive file
+     * @throws IOException may fail
+     */
+    public static void delete(Path file) throws IOException {
+        ARCHIVES.remove(file.toAbsolutePath().normalize());
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Packs the given asset folders into a single archive. Written to a
+     * temporary file first, so that a failure doesn't leave a broken archive
+     * behind
+     *
+     * @param root the assets folder, the entry names are relative to this
+     * @param folders the folders under the root to pack
+     * @param file the archive file
+     * @throws IOException may fail
+     */
+    public static void write(Path root, List<String> folders, Path file) throws IOException {
+
+        // Gather the files
+        List<Path> files = new ArrayList<>();
+        for (String folder : folders) {
+            Path dir = root.resolve(folder);
+            if (!Files.isDirectory(dir)) {
+                continue;
+            }
+            try (Stream<Path> stream = Files.walk(dir)) {
+                files.addAll(stream.filter(Files::isRegularFile).collect(Collectors.toList()));
+            }
+        }
+        Collections.sort(files);
+
+        // Create the index, the data follows right after it
+        List<byte[]> names = new ArrayList<>(files.size());
+        int indexSize = 12;
+        for (Path path : files) {
+            byte[] name = root.relativize(path).toString().replace(File.separatorChar, '/').getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            indexSize += 2 + name.length + 8 + 4;
+        }
+        ByteBuffer index = ByteBuffer.allocate(indexSize).order(ByteOrder.LITTLE_ENDIAN);
+        index.put(HEADER_IDENTIFIER.getBytes(StandardCharsets.US_ASCII));
+        index.putInt(VERSION);
+        index.putInt(files.size());
+        long offset = indexSize;
+        long[] sizes = new long[files.size()];
+        for (int i = 0; i < files.size(); i++) {
+            sizes[i] = Files.size(files.get(i));
+            if (sizes[i] > MAX_SEGMENT_SIZE) {
+                throw new IOException("File " + files.get(i) + " is too big for the asset archive!");
+            }
+            index.putShort((short) names.get(i).length);
+            index.put(names.get(i));
+            index.putLong(offset);
+            index.putInt((int) sizes[i]);
+            offset += sizes[i];
+        }
+        index.flip();
+
+        // Write
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (index.hasRemaining()) {
+                out.write(index);
+            }
+            for (int i = 0; i < files.size(); i++) {
+                try (FileChannel in = FileChannel.open(files.get(i), StandardOpenOption.READ)) {
+                    long position = 0;
+                    while (position < sizes[i]) {
+                        long transferred = in.transferTo(position, sizes[i] - position, out);
+                        if (transferred <= 0) {
+                            throw new IOException("File " + files.get(i) + " changed while packing!");
+                        }
+                        position += transferred;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        ARCHIVES.remove(file.toAbsolutePath().normalize());
+
+        LOGGER.log(Level.INFO, "Packed {0} assets to {1}", new Object[]{files.size(), file});
+    }
+
+}
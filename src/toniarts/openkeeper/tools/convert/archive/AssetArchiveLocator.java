@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.tools.convert.archive;
+
+import com.jme3.asset.AssetInfo;
+import com.jme3.asset.AssetKey;
+import com.jme3.asset.AssetLoadException;
+import com.jme3.asset.AssetManager;
+import com.jme3.asset.AssetLocator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+
+/**
+ * Locates assets from an asset archive. The root path is the archive file.
+ * The asset manager creates a locator per thread, but they all share the same
+ * opened archive.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class AssetArchiveLocator implements AssetLocator {
+
+    private AssetArchive archive;
+
+    @Override
+    public void setRootPath(String rootPath) {
+        try {
+            archive = AssetArchive.open(Paths.get(rootPath));
+        } catch (IOException e) {
+            throw new AssetLoadException("Failed to open the asset archive " + rootPath + "!", e);
+        }
+    }
+
+    @Override
+    public AssetInfo locate(AssetManager manager, AssetKey key) {
+        ByteBuffer data = archive.getFileBuffer(key.getName());
+        if (data == null) {
+            return null;
+        }
+
+        return new AssetInfo(manager, key) {
+
+            @Override
+            public InputStream openStream() {
+                return new ByteBufferInputStream(data.duplicate());
+            }
+
+        };
+    }
+
+    /**
+     * Reads straight from the mapped archive, no copying to the heap
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        public ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+    }
+
+}
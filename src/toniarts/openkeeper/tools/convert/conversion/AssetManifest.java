@@ -0,0 +1,439 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.tools.convert.conversion;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import toniarts.openkeeper.tools.convert.AssetsConverter.ConvertProcess;
+
+/**
+ * Keeps book of the converted assets, so that a reconversion only needs to
+ * redo what has actually changed. Every converted entry records the hash of
+ * its source data and the outputs it produced, with their hashes. Every
+ * conversion process records its version and the source files it read, by
+ * size and modification time, which is enough to notice a patched game
+ * without reading the files.<br>
+ * The output paths are relative to the assets folder, the source files are
+ * absolute. Safe to use from multiple threads.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class AssetManifest {
+
+    private static final String HEADER = "OpenKeeper asset manifest 1";
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Path file;
+    private final Path root;
+    private final Map<ConvertProcess, ProcessRecord> processes = new ConcurrentHashMap<>();
+
+    private static final Logger LOGGER = Logger.getLogger(AssetManifest.class.getName());
+
+    private AssetManifest(Path file, Path root) {
+        this.file = file;
+        this.root = root;
+    }
+
+    /**
+     * Loads the manifest. A missing or unreadable manifest is just empty, it
+     * only means that everything is converted again
+     *
+     * @param file the manifest file
+     * @param root the folder the outputs are relative to
+     * @return the manifest
+     */
+    public static AssetManifest load(Path file, Path root) {
+        AssetManifest manifest = new AssetManifest(file, root);
+        if (!Files.exists(file)) {
+            return manifest;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (!HEADER.equals(line)) {
+                throw new IOException("Header should be " + HEADER + " and it was " + line + "!");
+            }
+
+            // File format, tab separated, the records belong to the previous process or entry:
+            // P process version
+            // S sourceFile size lastModified
+            // E entry sourceHash
+            // O outputFile size hash
+            ProcessRecord process = null;
+            List<OutputRecord> outputs = null;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                switch (fields[0]) {
+                    case "P":
+                        process = new ProcessRecord(Integer.parseInt(fields[2]));
+                        manifest.processes.put(ConvertProcess.valueOf(fields[1]), process);
+                        break;
+                    case "S":
+                        process.sources.put(fields[1], new SourceRecord(Long.parseLong(fields[2]), Long.parseLong(fields[3])));
+                        break;
+                    case "E":
+                        outputs = new ArrayList<>();
+                        process.entries.put(fields[1], new EntryRecord(fields[2], outputs));
+                        break;
+                    case "O":
+                        outputs.add(new OutputRecord(fields[1], Long.parseLong(fields[2]), fields[3]));
+                        break;
+                    default:
+                        throw new IOException("Unknown record " + fields[0] + "!");
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to read the asset manifest " + file + ", converting everything!", e);
+            manifest.processes.clear();
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Saves the manifest. Written to a temporary file first, so that a crash
+     * doesn't leave a half written manifest behind
+     *
+     * @throws IOException may fail
+     */
+    public synchronized void save() throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Map.Entry<ConvertProcess, ProcessRecord> process : processes.entrySet()) {
+                writeLine(writer, "P", process.getKey().name(), Integer.toString(process.getValue().version));
+                for (Map.Entry<String, SourceRecord> source : process.getValue().sources.entrySet()) {
+                    writeLine(writer, "S", source.getKey(), Long.toString(source.getValue().size), Long.toString(source.getValue().lastModified));
+                }
+                for (Map.Entry<String, EntryRecord> entry : process.getValue().entries.entrySet()) {
+                    writeLine(writer, "E", entry.getKey(), entry.getValue().sourceHash);
+                    for (OutputRecord output : entry.getValue().outputs) {
+                        writeLine(writer, "O", output.path, Long.toString(output.size), output.hash);
+                    }
+                }
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeLine(BufferedWriter writer, String... fields) throws IOException {
+        writer.write(String.join("\t", fields));
+        writer.newLine();
+    }
+
+    /**
+     * Starts a conversion process. If the process was converted with another
+     * version, all of its entries are forgotten
+     *
+     * @param process the conversion process
+     * @return true if the earlier outputs of the process can be kept
+     */
+    public boolean beginProcess(ConvertProcess process) {
+        ProcessRecord record = processes.get(process);
+        if (record != null && record.version == process.getVersion()) {
+            return true;
+        }
+        processes.put(process, new ProcessRecord(process.getVersion()));
+
+        return false;
+    }
+
+    /**
+     * Quick check whether the process is still up to date, meant for every
+     * start up. Compares only the version and the source files by size and
+     * modification time. The outputs are not touched, they are verified when
+     * the process is converted. Processes we don't know about are considered
+     * up to date
+     *
+     * @param process the conversion process
+     * @return false if the process has something to reconvert
+     */
+    public boolean isUpToDate(ConvertProcess process) {
+        ProcessRecord record = processes.get(process);
+        if (record == null) {
+            return true;
+        }
+        if (record.version != process.getVersion()) {
+            return false;
+        }
+        for (Map.Entry<String, SourceRecord> source : record.sources.entrySet()) {
+            SourceRecord current = getSourceRecord(Paths.get(source.getKey()));
+            if (current == null || current.size != source.getValue().size || current.lastModified != source.getValue().lastModified) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Records a source file of the process
+     *
+     * @param process the conversion process
+     * @param sourceFile the source file
+     */
+    public void addSource(ConvertProcess process, Path sourceFile) {
+        SourceRecord record = getSourceRecord(sourceFile);
+        if (record != null) {
+            getProcessRecord(process).sources.put(sourceFile.toAbsolutePath().toString(), record);
+        }
+    }
+
+    /**
+     * Is the converted entry still valid, converted from the same source data
+     * and the outputs intact. The outputs are verified by their contents
+     *
+     * @param process the conversion process
+     * @param entry the entry
+     * @param sourceHash the hash of the current source data
+     * @return true if the entry doesn't need to be converted again
+     */
+    public boolean isUpToDate(ConvertProcess process, String entry, String sourceHash) {
+        ProcessRecord record = processes.get(process);
+        if (record == null || record.version != process.getVersion()) {
+            return false;
+        }
+        EntryRecord entryRecord = record.entries.get(entry);
+        if (entryRecord == null || !entryRecord.sourceHash.equals(sourceHash)) {
+            return false;
+        }
+        for (OutputRecord output : entryRecord.outputs) {
+            Path outputFile = root.resolve(output.path);
+            try {
+                if (!Files.exists(outputFile) || Files.size(outputFile) != output.size || !output.hash.equals(hash(outputFile))) {
+                    LOGGER.log(Level.INFO, "Output {0} of {1} has changed, converting again!", new Object[]{outputFile, entry});
+                    return false;
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to verify output " + outputFile + "!", e);
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Records a converted entry
+     *
+     * @param process the conversion process
+     * @param entry the entry
+     * @param sourceHash the hash of the source data
+     * @param outputs the files the entry was converted to
+     * @throws IOException if the outputs can't be read
+     */
+    public void putEntry(ConvertProcess process, String entry, String sourceHash, Collection<Path> outputs) throws IOException {
+        List<OutputRecord> outputRecords = new ArrayList<>(outputs.size());
+        for (Path output : outputs) {
+            outputRecords.add(new OutputRecord(getRelativePath(output), Files.size(output), hash(output)));
+        }
+        getProcessRecord(process).entries.put(entry, new EntryRecord(sourceHash, outputRecords));
+    }
+
+    /**
+     * Forgets the entries that are not present anymore and deletes their
+     * outputs
+     *
+     * @param process the conversion process
+     * @param entries the entries that are still present
+     */
+    public void retainEntries(ConvertProcess process, Set<String> entries) {
+        ProcessRecord record = processes.get(process);
+        if (record == null) {
+            return;
+        }
+
+        // Never delete an output that some present entry also has
+        Set<String> retainedOutputs = new HashSet<>();
+        for (String entry : entries) {
+            EntryRecord entryRecord = record.entries.get(entry);
+            if (entryRecord != null) {
+                for (OutputRecord output : entryRecord.outputs) {
+                    retainedOutputs.add(output.path);
+                }
+            }
+        }
+
+        Iterator<Map.Entry<String, EntryRecord>> iter = record.entries.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<String, EntryRecord> entry = iter.next();
+            if (entries.contains(entry.getKey())) {
+                continue;
+            }
+            for (OutputRecord output : entry.getValue().outputs) {
+                if (!retainedOutputs.contains(output.path)) {
+                    try {
+                        Files.deleteIfExists(root.resolve(output.path));
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, "Failed to delete stale output " + output.path + "!", e);
+                    }
+                }
+            }
+            iter.remove();
+        }
+    }
+
+    private ProcessRecord getProcessRecord(ConvertProcess process) {
+        return processes.computeIfAbsent(process, (p) -> new ProcessRecord(p.getVersion()));
+    }
+
+    private String getRelativePath(Path path) {
+        return root.relativize(path.toAbsolutePath()).toString().replace(File.separatorChar, '/');
+    }
+
+    private static SourceRecord getSourceRecord(Path file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return new SourceRecord(attributes.size(), attributes.lastModifiedTime().toMillis());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Hashes the given data. The buffer position is not changed
+     *
+     * @param data the data to hash
+     * @return the hash as a hex string
+     */
+    public static String hash(ByteBuffer data) {
+        MessageDigest digest = createDigest();
+        digest.update(data.duplicate());
+
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Hashes the contents of the given file
+     *
+     * @param file the file to hash
+     * @return the hash as a hex string
+     * @throws IOException if the file can't be read
+     */
+    public static String hash(Path file) throws IOException {
+
+        // Read, don't map, a mapping would keep the file locked on Windows until garbage collected
+        MessageDigest digest = createDigest();
+        byte[] buffer = new byte[HASH_BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+
+            // Every JVM has this
+            throw new RuntimeException("No " + HASH_ALGORITHM + " available!", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+
+        return new String(chars);
+    }
+
+    private static final class ProcessRecord {
+
+        private final int version;
+        private final Map<String, SourceRecord> sources = new ConcurrentHashMap<>();
+        private final Map<String, EntryRecord> entries = new ConcurrentHashMap<>();
+
+        public ProcessRecord(int version) {
+            this.version = version;
+        }
+
+    }
+
+    private static final class SourceRecord {
+
+        private final long size;
+        private final long lastModified;
+
+        public SourceRecord(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+    }
+
+    private static final class EntryRecord {
+
+        private final String sourceHash;
+        private final List<OutputRecord> outputs;
+
+        public EntryRecord(String sourceHash, List<OutputRecord> outputs) {
+            this.sourceHash = sourceHash;
+            this.outputs = Collections.unmodifiableList(outputs);
+        }
+
+    }
+
+    private static final class OutputRecord {
+
+        private final String path;
+        private final long size;
+        private final String hash;
+
+        public OutputRecord(String path, long size, String hash) {
+            this.path = path;
+            this.size = size;
+            this.hash = hash;
+        }
+
+    }
+
+}
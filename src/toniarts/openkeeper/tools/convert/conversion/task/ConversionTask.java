@@ -16,12 +16,23 @@
  */
 package toniarts.openkeeper.tools.convert.conversion.task;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import toniarts.openkeeper.tools.convert.AssetsConverter;
+import toniarts.openkeeper.tools.convert.conversion.AssetManifest;
 
 /**
- * Base class for conversion tasks
+ * Base class for conversion tasks<br>
+ * With an asset manifest the tasks can convert incrementally, only the entries
+ * whose source data or outputs have changed are converted again.
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
@@ -30,11 +41,16 @@ public abstract class ConversionTask implements IConversionTask {
     protected final String dungeonKeeperFolder;
     protected final String destination;
     protected final boolean overwriteData;
-    private boolean inError = false;
-    private Exception error;
+    private volatile boolean inError = false;
+    private volatile Exception error;
+    private AssetManifest manifest;
+    private boolean incremental = false;
+    private final Set<String> presentEntries = ConcurrentHashMap.newKeySet();
 
     private final List<IConversionTaskUpdate> listeners = new ArrayList<>();
 
+    private static final Logger LOGGER = Logger.getLogger(ConversionTask.class.getName());
+
     public ConversionTask(String dungeonKeeperFolder, String destination, boolean overwriteData) {
         this.dungeonKeeperFolder = dungeonKeeperFolder;
         this.destination = destination;
@@ -45,19 +61,39 @@ public abstract class ConversionTask implements IConversionTask {
 
     protected abstract void internalExecuteTask();
 
+    /**
+     * Set the asset manifest to keep book of the conversion in
+     *
+     * @param manifest the asset manifest
+     */
+    public void setManifest(AssetManifest manifest) {
+        this.manifest = manifest;
+    }
+
     @Override
     public final void executeTask() throws Exception {
+        if (manifest != null) {
+            incremental = manifest.beginProcess(getConvertProcess());
+        }
         try {
             internalExecuteTask();
         } catch (Exception e) {
+            saveManifest();
             handleError(e);
         }
 
         // See if errored
         if (isInError()) {
+            saveManifest();
             handleError(error);
         }
 
+        // Forget and remove what is not in the sources anymore
+        if (manifest != null) {
+            manifest.retainEntries(getConvertProcess(), presentEntries);
+            saveManifest();
+        }
+
         // Completed succesfully
         for (IConversionTaskUpdate listener : listeners) {
             listener.onComplete(getConvertProcess());
@@ -73,6 +109,93 @@ public abstract class ConversionTask implements IConversionTask {
         throw e;
     }
 
+    private void saveManifest() {
+        if (manifest == null) {
+            return;
+        }
+        try {
+            manifest.save();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save the asset manifest!", e);
+        }
+    }
+
+    /**
+     * Are the earlier outputs still there to convert incrementally on top of.
+     * If not, the task should start from a clean destination
+     *
+     * @return true if only the changed entries need to be converted
+     */
+    protected boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Record a source file read by the task, changes in the source files
+     * trigger a new conversion
+     *
+     * @param sourceFile the source file
+     */
+    protected void addSource(Path sourceFile) {
+        if (manifest != null) {
+            manifest.addSource(getConvertProcess(), sourceFile);
+        }
+    }
+
+    /**
+     * Checks whether an entry needs to be converted. Every entry of the task
+     * should be checked, the entries that are never checked are considered
+     * removed from the sources and their outputs are deleted
+     *
+     * @param entry the entry, unique within the task
+     * @param sourceHash hash of the entry source data
+     * @return true if the entry is already converted
+     */
+    protected boolean isUpToDate(String entry, String sourceHash) {
+        presentEntries.add(entry);
+
+        return incremental && manifest.isUpToDate(getConvertProcess(), entry, sourceHash);
+    }
+
+    /**
+     * Keep an entry as it is, without checking it
+     *
+     * @param entry the entry, unique within the task
+     */
+    protected void skipEntry(String entry) {
+        presentEntries.add(entry);
+    }
+
+    /**
+     * Record a converted entry
+     *
+     * @param entry the entry, unique within the task
+     * @param sourceHash hash of the entry source data
+     * @param outputs the files the entry was converted to
+     */
+    protected void addEntry(String entry, String sourceHash, Path... outputs) {
+        addEntry(entry, sourceHash, Arrays.asList(outputs));
+    }
+
+    /**
+     * Record a converted entry
+     *
+     * @param entry the entry, unique within the task
+     * @param sourceHash hash of the entry source data
+     * @param outputs the files the entry was converted to
+     */
+    protected void addEntry(String entry, String sourceHash, Collection<Path> outputs) {
+        presentEntries.add(entry);
+        if (manifest == null) {
+            return;
+        }
+        try {
+            manifest.putEntry(getConvertProcess(), entry, sourceHash, outputs);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to record entry " + entry + " to the asset manifest!", e);
+        }
+    }
+
     protected boolean isInError() {
         return inError;
     }
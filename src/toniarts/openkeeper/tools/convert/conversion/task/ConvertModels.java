@@ -23,14 +23,22 @@ import com.jme3.scene.Node;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
@@ -40,6 +48,8 @@ import static toniarts.openkeeper.tools.convert.AssetsConverter.getAssetsFolder;
 import toniarts.openkeeper.tools.convert.ConversionUtils;
 import toniarts.openkeeper.tools.convert.KmfAssetInfo;
 import toniarts.openkeeper.tools.convert.KmfModelLoader;
+import toniarts.openkeeper.tools.convert.conversion.AssetManifest;
+import toniarts.openkeeper.tools.convert.kmf.Grop;
 import toniarts.openkeeper.tools.convert.kmf.KmfFile;
 import toniarts.openkeeper.tools.convert.wad.WadFile;
 import toniarts.openkeeper.utils.AssetUtils;
@@ -48,7 +58,13 @@ import toniarts.openkeeper.utils.Utils;
 
 /**
  * Dungeon Keeper II models conversion. Converts KMF to jME internal optimized
- * format.
+ * format.<br>
+ * The models are converted in a pipeline, the WAD entries are parsed and
+ * turned into jME scenes in parallel, and then exported in parallel. The
+ * queues between the stages are bounded, when a stage falls behind, the
+ * previous one helps out instead of piling up models in memory. Groups are
+ * converted once the models they link to are done. Models that have not
+ * changed since the last conversion are skipped.
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
@@ -56,23 +72,41 @@ public class ConvertModels extends ConversionTask {
 
     private static final Logger LOGGER = Logger.getLogger(ConvertModels.class.getName());
 
+    /**
+     * Queued tasks per thread, for each stage
+     */
+    private static final int QUEUE_SIZE_PER_THREAD = 2;
+
     private final AssetManager assetManager;
+    private final ExecutorService converterService;
     private final ExecutorService executorService;
 
+    /**
+     * The converted models are recorded only after all the models are done,
+     * the shared material files may change until then
+     */
+    private final Queue<Runnable> pendingEntries = new ConcurrentLinkedQueue<>();
+
     public ConvertModels(String dungeonKeeperFolder, String destination, boolean overwriteData, AssetManager assetManager) {
         super(dungeonKeeperFolder, destination, overwriteData);
 
         this.assetManager = assetManager;
-        this.executorService = Executors.newFixedThreadPool(Utils.MAX_THREADS, new ThreadFactory() {
+        this.converterService = createExecutor("ModelConverter_");
+        this.executorService = createExecutor("ModelExporter_");
+    }
+
+    private static ExecutorService createExecutor(String threadName) {
+        return new ThreadPoolExecutor(Utils.MAX_THREADS, Utils.MAX_THREADS, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Utils.MAX_THREADS * QUEUE_SIZE_PER_THREAD), new ThreadFactory() {
 
             private final AtomicInteger threadIndex = new AtomicInteger(0);
 
             @Override
             public Thread newThread(Runnable r) {
-                return new Thread(r, "ModelExporter_" + threadIndex.incrementAndGet());
+                return new Thread(r, threadName + threadIndex.incrementAndGet());
             }
 
-        });
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
     }
 
     @Override
@@ -80,12 +114,17 @@ public class ConvertModels extends ConversionTask {
         try {
             convertModels(dungeonKeeperFolder, destination, assetManager);
         } finally {
-            executorService.shutdown();
-            try {
-                executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
-            } catch (InterruptedException ex) {
-                LOGGER.log(Level.SEVERE, "Failed to wait model saving complete!", ex);
-            }
+            shutdown(converterService);
+            shutdown(executorService);
+        }
+    }
+
+    private static void shutdown(ExecutorService executor) {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } catch (InterruptedException ex) {
+            LOGGER.log(Level.SEVERE, "Failed to wait model saving complete!", ex);
         }
     }
 
@@ -99,7 +138,9 @@ public class ConvertModels extends ConversionTask {
         LOGGER.log(Level.INFO, "Extracting models to: {0}", destination);
         updateStatus(null, null);
         Path dest = Paths.get(destination);
-        AssetUtils.deleteFolder(dest);
+        if (!isIncremental()) {
+            AssetUtils.deleteFolder(dest);
+        }
         try {
             Files.createDirectories(dest);
         } catch (IOException ex) {
@@ -107,8 +148,11 @@ public class ConvertModels extends ConversionTask {
         }
 
         // Create the materials folder or else the material file saving fails
+        // The materials are shared by the models, keep them when we don't convert all the models
         Path materialFolder = Paths.get(getAssetsFolder(), AssetsConverter.MATERIALS_FOLDER);
-        AssetUtils.deleteFolder(materialFolder);
+        if (!isIncremental()) {
+            AssetUtils.deleteFolder(materialFolder);
+        }
         try {
             Files.createDirectories(materialFolder);
         } catch (IOException ex) {
@@ -122,51 +166,94 @@ public class ConvertModels extends ConversionTask {
         } catch (IOException ex) {
             throw new RuntimeException("Could not open the meshes.wad archive!", ex);
         }
-        Map<String, KmfFile> kmfs = new LinkedHashMap<>(wad.getWadFileEntryCount());
+        addSource(wad.getFile());
         AtomicInteger progress = new AtomicInteger(0);
         int total = wad.getWadFileEntryCount();
+
+        // The conversions by model name, so that the groups can wait for their models
+        // Groups wait also for all the entries to be queued, only then we know all the models
+        Map<String, CompletableFuture<Void>> conversions = new ConcurrentHashMap<>(total);
+        CompletableFuture<Void> allQueued = new CompletableFuture<>();
+        List<CompletableFuture<Void>> tasks = new ArrayList<>(total);
         for (final String entry : wad.getWadFileEntries()) {
-            try {
 
-                // See if we already have this model
-                if (!overwriteData && Files.exists(Paths.get(destination, entry.substring(0, entry.length() - 4).concat(".j3o")))) {
-                    LOGGER.log(Level.INFO, "File {0} already exists, skipping!", entry);
-                    updateStatus(progress.incrementAndGet(), total);
-                    continue;
-                }
+            // See if model conversion already failed
+            if (isInError()) {
+                break;
+            }
 
-                // Parse
-                final KmfFile kmfFile = new KmfFile(wad.getFileData(entry));
+            // See if we already have this model
+            if (!overwriteData && Files.exists(Paths.get(destination, entry.substring(0, entry.length() - 4).concat(".j3o")))) {
+                LOGGER.log(Level.INFO, "File {0} already exists, skipping!", entry);
+                skipEntry(entry);
+                updateStatus(progress.incrementAndGet(), total);
+                continue;
+            }
 
-                // If it is a regular model or animation, process it straight away
-                // Leave groups for later (since linking)
-                if (kmfFile.getType() == KmfFile.Type.MESH || kmfFile.getType() == KmfFile.Type.ANIM) {
-                    convertModel(assetManager, entry, kmfFile, destination, total, progress);
-                } else {
+            // Parse and convert, leave groups for later (since linking)
+            // Unchanged models are left as they are
+            ByteBuffer data = wad.getFileBuffer(entry);
+            CompletableFuture<Void> task = CompletableFuture.supplyAsync(() -> AssetManifest.hash(data), converterService)
+                    .thenCompose((sourceHash) -> {
+                        if (isUpToDate(entry, sourceHash)) {
+                            updateStatus(progress.incrementAndGet(), total);
+                            return CompletableFuture.completedFuture(null);
+                        }
+                        KmfFile kmfFile = parseModel(entry, data);
+                        if (kmfFile.getType() == KmfFile.Type.GROP) {
+                            return allQueued.thenCompose((v) -> getDependencies(kmfFile, conversions))
+                                    .thenComposeAsync((v) -> convertModel(assetManager, entry, sourceHash, kmfFile, destination, total, progress), converterService);
+                        }
+                        return convertModel(assetManager, entry, sourceHash, kmfFile, destination, total, progress);
+                    });
+            conversions.put(entry.substring(0, entry.length() - 4), task);
+            tasks.add(task);
+        }
+        allQueued.complete(null);
 
-                    // For later processing
-                    kmfs.put(entry, kmfFile);
-                }
+        // Wait for all, the errors are already reported
+        try {
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException ex) {
+            LOGGER.log(Level.FINE, "Model conversion failed!", ex);
+        }
 
-                // See if model conversion already failed
-                if (isInError()) {
-                    return;
-                }
-            } catch (Exception ex) {
-                LOGGER.log(Level.SEVERE, "Failed to create a file for WAD entry " + entry + "!", ex);
-                throw ex;
-            }
+        // Record the converted models
+        Runnable pendingEntry;
+        while ((pendingEntry = pendingEntries.poll()) != null) {
+            pendingEntry.run();
         }
+    }
 
-        // And the groups (now they can be linked)
-        for (Map.Entry<String, KmfFile> entry : kmfs.entrySet()) {
-            convertModel(assetManager, entry.getKey(), entry.getValue(), destination, total, progress);
+    private KmfFile parseModel(String entry, ByteBuffer data) {
+        try {
+            return new KmfFile(data);
+        } catch (Exception ex) {
+            String msg = "Failed to create a file for WAD entry " + entry + "!";
+            LOGGER.log(Level.SEVERE, msg, ex);
+            onError(new RuntimeException(msg, ex));
+            throw ex;
+        }
+    }
 
-            // See if model conversion already failed
-            if (isInError()) {
-                return;
+    /**
+     * Get the conversions of the models linked by the group. The models not
+     * converted by us are expected to be there already.
+     *
+     * @param kmfFile the group
+     * @param conversions all the conversions
+     * @return completes when all the linked models are converted
+     */
+    private static CompletableFuture<Void> getDependencies(KmfFile kmfFile, Map<String, CompletableFuture<Void>> conversions) {
+        List<CompletableFuture<Void>> dependencies = new ArrayList<>(kmfFile.getGrops().size());
+        for (Grop grop : kmfFile.getGrops()) {
+            CompletableFuture<Void> dependency = conversions.get(grop.getName());
+            if (dependency != null) {
+                dependencies.add(dependency);
             }
         }
+
+        return CompletableFuture.allOf(dependencies.toArray(new CompletableFuture[0]));
     }
 
     /**
@@ -174,41 +261,55 @@ public class ConvertModels extends ConversionTask {
      *
      * @param assetManager assetManager, for finding stuff
      * @param name model name
+     * @param sourceHash hash of the model source data
      * @param model the loaded KMF model
      * @param destination destination directory
      * @param total the total amount to process
      * @param progress current progress
+     * @return completes when the model is saved
      * @throws RuntimeException May fail
      */
-    private void convertModel(AssetManager assetManager, String name, KmfFile model, String destination, int total, AtomicInteger progress) throws RuntimeException {
+    private CompletableFuture<Void> convertModel(AssetManager assetManager, String name, String sourceHash, KmfFile model, String destination, int total, AtomicInteger progress) throws RuntimeException {
 
         // Remove the file extension from the file
         KmfAssetInfo ai = new KmfAssetInfo(assetManager, new AssetKey(name), model, true);
         KmfModelLoader kmfModelLoader = new KmfModelLoader();
+        Node n;
         try {
-            Node n = (Node) kmfModelLoader.load(ai);
-
-            // Handle the saving to the disk in own thread pool
-            executorService.submit(() -> {
-                try {
-                    BinaryExporter exporter = BinaryExporter.getInstance();
-                    try (OutputStream out = Files.newOutputStream(Paths.get(destination, name.substring(0, name.length() - 4).concat(".j3o")));
-                            BufferedOutputStream bout = new BufferedOutputStream(out)) {
-                        exporter.save(n, bout);
-                    }
-
-                    updateStatus(progress.incrementAndGet(), total);
-                } catch (Exception ex) {
-                    String msg = "Failed to export KMF entry " + name + "!";
-                    LOGGER.log(Level.SEVERE, msg, ex);
-                    onError(new RuntimeException(msg, ex));
-                }
-            });
+            n = (Node) kmfModelLoader.load(ai);
         } catch (Exception ex) {
             String msg = "Failed to convert KMF entry " + name + "!";
             LOGGER.log(Level.SEVERE, msg, ex);
-            throw new RuntimeException(msg, ex);
+            RuntimeException error = new RuntimeException(msg, ex);
+            onError(error);
+            throw error;
         }
+
+        // Handle the saving to the disk in own thread pool
+        return CompletableFuture.runAsync(() -> {
+            try {
+                BinaryExporter exporter = BinaryExporter.getInstance();
+                Path file = Paths.get(destination, name.substring(0, name.length() - 4).concat(".j3o"));
+                try (OutputStream out = Files.newOutputStream(file);
+                        BufferedOutputStream bout = new BufferedOutputStream(out)) {
+                    exporter.save(n, bout);
+                }
+
+                // The materials are outputs too, so that they are verified and the stale ones removed
+                List<Path> outputs = new ArrayList<>();
+                outputs.add(file);
+                outputs.addAll(KmfModelLoader.getMaterialFiles(model));
+                pendingEntries.add(() -> addEntry(name, sourceHash, outputs));
+
+                updateStatus(progress.incrementAndGet(), total);
+            } catch (Exception ex) {
+                String msg = "Failed to export KMF entry " + name + "!";
+                LOGGER.log(Level.SEVERE, msg, ex);
+                RuntimeException error = new RuntimeException(msg, ex);
+                onError(error);
+                throw error;
+            }
+        }, executorService);
     }
 
     @Override
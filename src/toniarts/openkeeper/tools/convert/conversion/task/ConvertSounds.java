@@ -29,13 +29,15 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import toniarts.openkeeper.tools.convert.AssetsConverter;
 import toniarts.openkeeper.tools.convert.ConversionUtils;
+import toniarts.openkeeper.tools.convert.conversion.AssetManifest;
 import toniarts.openkeeper.tools.convert.sound.SdtFile;
 import toniarts.openkeeper.utils.AssetUtils;
 import toniarts.openkeeper.utils.PathUtils;
 
 /**
  * Dungeon Keeper II sounds conversion. Extracts all sounds to WAV and MP2
- * files.
+ * files. Sound archives that have not changed since the last conversion are
+ * skipped.
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
@@ -61,7 +63,9 @@ public class ConvertSounds extends ConversionTask {
     private void convertSounds(String dungeonKeeperFolder, String destination) {
         LOGGER.log(Level.INFO, "Extracting sounds to: {0}", destination);
         updateStatus(null, null);
-        AssetUtils.deleteFolder(Paths.get(destination));
+        if (!isIncremental()) {
+            AssetUtils.deleteFolder(Paths.get(destination));
+        }
         String dataDirectory = PathUtils.DKII_SFX_FOLDER;
 
         // Find all the sound files
@@ -95,8 +99,7 @@ public class ConvertSounds extends ConversionTask {
         for (Path file : sdtFiles) {
             updateStatus(i, total);
             i++;
-
-            SdtFile sdt = new SdtFile(file);
+            addSource(file);
 
             // Get a relative path
             Path path = Paths.get(file.toString().substring(0, file.toString().length() - 4));
@@ -104,10 +107,24 @@ public class ConvertSounds extends ConversionTask {
             String dest = destination;
             dest += relative.toString();
 
+            // See if the archive has changed
+            String entry = dataDir.relativize(file).toString();
+            String sourceHash;
+            try {
+                sourceHash = AssetManifest.hash(file);
+            } catch (IOException ex) {
+                throw new RuntimeException("Failed to read the sound archive " + file + "!", ex);
+            }
+            if (isUpToDate(entry, sourceHash)) {
+                continue;
+            }
+
+            SdtFile sdt = new SdtFile(file);
+
             // Remove the actual file name
             //dest = dest.substring(0, dest.length() - file.toPath().getFileName().toString().length());
             // Extract
-            sdt.extractFileData(dest);
+            addEntry(entry, sourceHash, sdt.extractFileData(dest));
         }
     }
 
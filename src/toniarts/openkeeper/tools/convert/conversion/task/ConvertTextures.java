@@ -24,6 +24,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
@@ -36,6 +37,7 @@ import java.util.regex.Pattern;
 import javax.imageio.ImageIO;
 import toniarts.openkeeper.tools.convert.AssetsConverter;
 import toniarts.openkeeper.tools.convert.ConversionUtils;
+import toniarts.openkeeper.tools.convert.conversion.AssetManifest;
 import toniarts.openkeeper.tools.convert.textures.enginetextures.EngineTexturesFile;
 import toniarts.openkeeper.tools.convert.textures.loadingscreens.LoadingScreenFile;
 import toniarts.openkeeper.tools.convert.wad.WadFile;
@@ -44,7 +46,10 @@ import toniarts.openkeeper.utils.PathUtils;
 import toniarts.openkeeper.utils.Utils;
 
 /**
- * Dungeon Keeper II textures conversion. Converts textures to PNG.
+ * Dungeon Keeper II textures conversion. Converts textures to PNG.<br>
+ * Every texture is decoded and written as its own job, the containers are
+ * read from multiple threads at once. Textures that have not changed since
+ * the last conversion are skipped.
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
@@ -92,7 +97,9 @@ public class ConvertTextures extends ConversionTask {
     private void convertTextures(String dungeonKeeperFolder, String destination) {
         LOGGER.log(Level.INFO, "Extracting textures to: {0}", destination);
         updateStatus(null, null);
-        AssetUtils.deleteFolder(Paths.get(destination));
+        if (!isIncremental()) {
+            AssetUtils.deleteFolder(Paths.get(destination));
+        }
         EngineTexturesFile etFile = getEngineTexturesFile(dungeonKeeperFolder);
         WadFile frontEnd;
         WadFile engineTextures;
@@ -102,20 +109,28 @@ public class ConvertTextures extends ConversionTask {
         } catch (IOException e) {
             throw new RuntimeException("Failed to open a WAD file!", e);
         }
+        addSource(etFile.getFile());
+        addSource(frontEnd.getFile());
+        addSource(engineTextures.getFile());
 
         AtomicInteger progress = new AtomicInteger(0);
         int total = etFile.getFileCount() + frontEnd.getWadFileEntries().size() + engineTextures.getWadFileEntries().size();
 
-        // Process each container in its own thread
-        executorService.submit(() -> {
-            extractEngineTextureContainer(progress, total, etFile, destination);
-        });
-        executorService.submit(() -> {
-            extractTextureContainer(progress, total, frontEnd, destination);
-        });
-        executorService.submit(() -> {
-            extractTextureContainer(progress, total, engineTextures, destination);
-        });
+        // Process each texture in its own job, the containers have thousands of them
+        ImageIO.setUseCache(false);
+        Pattern pattern = Pattern.compile("(?<name>\\w+)MM(?<mipmaplevel>\\d{1})");
+        for (String textureFile : etFile) {
+            executorService.submit(() -> {
+                extractEngineTexture(progress, total, etFile, textureFile, pattern, destination);
+            });
+        }
+        for (WadFile wad : Arrays.asList(frontEnd, engineTextures)) {
+            for (String entry : wad.getWadFileEntries()) {
+                executorService.submit(() -> {
+                    extractTexture(progress, total, wad, entry, destination);
+                });
+            }
+        }
     }
 
     /**
@@ -135,95 +150,106 @@ public class ConvertTextures extends ConversionTask {
         }
     }
 
-    private void extractEngineTextureContainer(AtomicInteger progress, int total, EngineTexturesFile etFile, String destination) throws NumberFormatException {
-        Pattern pattern = Pattern.compile("(?<name>\\w+)MM(?<mipmaplevel>\\d{1})");
-        for (String textureFile : etFile) {
+    /**
+     * Extracts a single engine texture and updates the progress bar
+     *
+     * @param progress the progress counter
+     * @param total total entry number
+     * @param etFile the engine textures file
+     * @param textureFile the texture entry
+     * @param pattern the mipmap level pattern
+     * @param destination destination directory
+     */
+    private void extractEngineTexture(AtomicInteger progress, int total, EngineTexturesFile etFile, String textureFile, Pattern pattern, String destination) {
 
-            // All are PNG files, and MipMap levels are present, we need only the
-            // highest quality one, so don't bother extracting the other mipmap levels
-            Matcher matcher = pattern.matcher(textureFile);
-            boolean found = matcher.find();
-            if (found && Integer.parseInt(matcher.group("mipmaplevel")) == 0) {
+        // All are PNG files, and MipMap levels are present, we need only the
+        // highest quality one, so don't bother extracting the other mipmap levels
+        Matcher matcher = pattern.matcher(textureFile);
+        boolean found = matcher.find();
+        if (found && Integer.parseInt(matcher.group("mipmaplevel")) != 0) {
+            updateStatus(progress.incrementAndGet(), total);
 
-                // Highest resolution, extract and rename
-                Path f = etFile.extractFileData(textureFile, destination, overwriteData);
-                Path newFile = Paths.get(f.toString().replaceFirst("MM" + matcher.group("mipmaplevel"), ""));
-                try {
-                    if (overwriteData && Files.exists(newFile)) {
-                        Files.delete(newFile);
-                    } else if (!overwriteData && Files.exists(newFile)) {
-
-                        // Delete the extracted file
-                        LOGGER.log(Level.INFO, "File {0} already exists, skipping!", newFile);
-                        Files.delete(f);
-                        updateStatus(progress.incrementAndGet(), total);
-
-                        return;
-                    }
-                    Files.move(f, newFile);
-                } catch (IOException ex) {
-                    LOGGER.log(Level.SEVERE, "Failed to handle " + textureFile + "!", ex);
-                    onError(new RuntimeException("Failed to handle " + textureFile + "!", ex));
+            return;
+        }
+        String entry = etFile.getFile().getFileName() + "/" + textureFile;
+        try {
+            String sourceHash = AssetManifest.hash(etFile.getFileBuffer(textureFile));
+            if (isUpToDate(entry, sourceHash)) {
+                updateStatus(progress.incrementAndGet(), total);
 
-                    return;
-                }
-            } else if (!found) {
-                try {
+                return;
+            }
+            Path f = etFile.extractFileData(textureFile, destination, overwriteData);
+            if (found) {
+
+                // Highest resolution, rename
+                Path newFile = Paths.get(f.toString().replaceFirst("MM" + matcher.group("mipmaplevel"), ""));
+                if (overwriteData && Files.exists(newFile)) {
+                    Files.delete(newFile);
+                } else if (!overwriteData && Files.exists(newFile)) {
 
-                    // No mipmap levels, just extract
-                    etFile.extractFileData(textureFile, destination, overwriteData);
-                } catch (Exception ex) {
-                    LOGGER.log(Level.SEVERE, "Failed to extract the texture file entry " + textureFile + "!", ex);
-                    onError(new RuntimeException("Failed to save the texture file entry " + textureFile + "!", ex));
+                    // Delete the extracted file
+                    LOGGER.log(Level.INFO, "File {0} already exists, skipping!", newFile);
+                    Files.delete(f);
+                    skipEntry(entry);
+                    updateStatus(progress.incrementAndGet(), total);
 
                     return;
                 }
+                Files.move(f, newFile);
+                f = newFile;
             }
-            updateStatus(progress.incrementAndGet(), total);
+            addEntry(entry, sourceHash, f);
+        } catch (Exception ex) {
+            LOGGER.log(Level.SEVERE, "Failed to extract the texture file entry " + textureFile + "!", ex);
+            onError(new RuntimeException("Failed to save the texture file entry " + textureFile + "!", ex));
+
+            return;
         }
+        updateStatus(progress.incrementAndGet(), total);
     }
 
     /**
-     * Extracts the wad files and updates the progress bar
+     * Extracts a single wad file entry and updates the progress bar
      *
-     * @param i current entry number
+     * @param progress the progress counter
      * @param total total entry number
      * @param wad wad file
+     * @param entry the wad file entry
      * @param destination destination directory
      */
-    private void extractTextureContainer(AtomicInteger progress, int total, WadFile wad, String destination) {
-        ImageIO.setUseCache(false);
-        for (final String entry : wad.getWadFileEntries()) {
+    private void extractTexture(AtomicInteger progress, int total, WadFile wad, String entry, String destination) {
+        String manifestEntry = wad.getFile().getFileName() + "/" + entry;
+        try {
+            String sourceHash = AssetManifest.hash(wad.getFileBuffer(entry));
+            if (isUpToDate(manifestEntry, sourceHash)) {
+                updateStatus(progress.incrementAndGet(), total);
+
+                return;
+            }
 
             // Some of these archives contain .444 files, convert these to PNGs
+            Path destFile;
             if (entry.endsWith(".444")) {
                 LoadingScreenFile lsf = new LoadingScreenFile(wad.getFileData(entry));
-                try {
-                    Path destFile = Paths.get(destination, entry.substring(0, entry.length() - 3).concat("png"));
-                    Files.createDirectories(destFile.getParent());
-                    try (OutputStream os = Files.newOutputStream(destFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-                            BufferedOutputStream bos = new BufferedOutputStream(os)) {
-                        ImageIO.write(lsf.getImage(), "png", bos);
-                    }
-                } catch (IOException ex) {
-                    LOGGER.log(Level.SEVERE, "Failed to save the wad entry " + entry + "!", ex);
-                    onError(new RuntimeException("Failed to save the wad entry " + entry + "!", ex));
-
-                    return;
+                destFile = Paths.get(destination, entry.substring(0, entry.length() - 3).concat("png"));
+                Files.createDirectories(destFile.getParent());
+                try (OutputStream os = Files.newOutputStream(destFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+                        BufferedOutputStream bos = new BufferedOutputStream(os)) {
+                    ImageIO.write(lsf.getImage(), "png", bos);
                 }
             } else {
-                try {
-                    wad.extractFileData(entry, destination);
-                } catch (Exception ex) {
-                    LOGGER.log(Level.SEVERE, "Failed to extract the wad entry " + entry + "!", ex);
-                    onError(new RuntimeException("Failed to save the wad entry " + entry + "!", ex));
-
-                    return;
-                }
+                destFile = wad.extractFileData(entry, destination);
             }
+            addEntry(manifestEntry, sourceHash, destFile);
+        } catch (Exception ex) {
+            LOGGER.log(Level.SEVERE, "Failed to extract the wad entry " + entry + "!", ex);
+            onError(new RuntimeException("Failed to save the wad entry " + entry + "!", ex));
 
-            updateStatus(progress.incrementAndGet(), total);
+            return;
         }
+
+        updateStatus(progress.incrementAndGet(), total);
     }
 
     @Override
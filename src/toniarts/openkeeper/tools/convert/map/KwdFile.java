@@ -18,17 +18,21 @@ package toniarts.openkeeper.tools.convert.map;
 
 import java.awt.Color;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import toniarts.openkeeper.tools.convert.ConversionUtils;
@@ -131,12 +135,34 @@ public final class KwdFile {
     private boolean loaded = false;
     private Creature imp;
     private Creature dwarf;
+    private Terrain water;
+    private Terrain lava;
     private final String basePath;
     private GameObject levelGem;
 
     private final Object loadingLock = new Object();
     private static final Logger LOGGER = Logger.getLogger(KwdFile.class.getName());
 
+    /**
+     * The global catalogs that are the same for every level using the same
+     * file. These are parsed once per process and shared by all the KWD files,
+     * as read only maps. Any override must copy the map before modifying it.
+     */
+    private static final Set<MapDataTypeEnum> CATALOG_TYPES = EnumSet.of(MapDataTypeEnum.TERRAIN, MapDataTypeEnum.ROOMS,
+            MapDataTypeEnum.TRAPS, MapDataTypeEnum.DOORS, MapDataTypeEnum.KEEPER_SPELLS, MapDataTypeEnum.CREATURE_SPELLS,
+            MapDataTypeEnum.CREATURES, MapDataTypeEnum.OBJECTS, MapDataTypeEnum.EFFECT_ELEMENTS, MapDataTypeEnum.SHOTS,
+            MapDataTypeEnum.EFFECTS);
+    private static final ConcurrentMap<Path, Catalog> CATALOGS = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs an empty holder for a global catalog
+     *
+     * @param basePath path to DK II main path
+     */
+    private KwdFile(String basePath) {
+        this.basePath = basePath;
+    }
+
     /**
      * Constructs a new KWD file reader<br>
      * Reads the whole map and its catalogs (either standard ones or custom
@@ -227,6 +253,14 @@ public final class KwdFile {
                             readFilePath(path);
                         }
                     }
+
+                    // See that we have water & lava set, the terrain may come from the shared catalog
+                    if (map.getWater() == null) {
+                        map.setWater(water);
+                    }
+                    if (map.getLava() == null) {
+                        map.setLava(lava);
+                    }
                     loaded = true;
                 }
             }
@@ -237,12 +271,117 @@ public final class KwdFile {
         Path file = null;
         try {
             file = Paths.get(ConversionUtils.getRealFileName(basePath, path.getPath()));
-            readFileContents(file);
+            if (CATALOG_TYPES.contains(path.getId())) {
+                linkCatalog(getCatalog(file));
+            } else {
+                readFileContents(file);
+            }
         } catch (Exception e) {
             throw new RuntimeException("Failed to read the file " + file + "!", e);
         }
     }
 
+    /**
+     * Get a parsed global catalog file, parses it if it is not already cached
+     * or the file has changed
+     *
+     * @param file the catalog file
+     * @return the parsed catalog
+     * @throws IOException may fail reading
+     */
+    private KwdFile getCatalog(Path file) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        long lastModified = Files.getLastModifiedTime(key).toMillis();
+        long size = Files.size(key);
+        Catalog catalog = CATALOGS.get(key);
+        if (catalog == null || catalog.lastModified != lastModified || catalog.size != size) {
+            KwdFile data = new KwdFile(basePath);
+            data.readFileContents(key);
+            data.freezeCatalogs();
+            catalog = new Catalog(lastModified, size, data);
+            CATALOGS.put(key, catalog);
+        }
+
+        return catalog.data;
+    }
+
+    private void freezeCatalogs() {
+        terrainTiles = freeze(terrainTiles);
+        doors = freeze(doors);
+        traps = freeze(traps);
+        rooms = freeze(rooms);
+        roomsByTerrainId = freeze(roomsByTerrainId);
+        creatures = freeze(creatures);
+        objects = freeze(objects);
+        creatureSpells = freeze(creatureSpells);
+        effectElements = freeze(effectElements);
+        effects = freeze(effects);
+        keeperSpells = freeze(keeperSpells);
+        shots = freeze(shots);
+    }
+
+    private static <K, V> Map<K, V> freeze(Map<K, V> map) {
+        return map != null ? Collections.unmodifiableMap(map) : null;
+    }
+
+    /**
+     * Take the catalogs from a shared catalog file, the same way as if the
+     * file was read by us
+     *
+     * @param catalog the parsed catalog file
+     */
+    private void linkCatalog(KwdFile catalog) {
+        terrainTiles = link(terrainTiles, catalog.terrainTiles);
+        doors = link(doors, catalog.doors);
+        traps = link(traps, catalog.traps);
+        rooms = link(rooms, catalog.rooms);
+        roomsByTerrainId = link(roomsByTerrainId, catalog.roomsByTerrainId);
+        creatures = link(creatures, catalog.creatures);
+        objects = link(objects, catalog.objects);
+        creatureSpells = link(creatureSpells, catalog.creatureSpells);
+        effectElements = link(effectElements, catalog.effectElements);
+        effects = link(effects, catalog.effects);
+        keeperSpells = link(keeperSpells, catalog.keeperSpells);
+        shots = link(shots, catalog.shots);
+        if (imp == null) {
+            imp = catalog.imp;
+        }
+        if (dwarf == null) {
+            dwarf = catalog.dwarf;
+        }
+        if (water == null) {
+            water = catalog.water;
+        }
+        if (lava == null) {
+            lava = catalog.lava;
+        }
+        if (levelGem == null) {
+            levelGem = catalog.levelGem;
+        }
+    }
+
+    private static <K, V> Map<K, V> link(Map<K, V> own, Map<K, V> catalog) {
+        if (catalog == null) {
+            return own;
+        }
+        if (own == null) {
+            return catalog;
+        }
+
+        // Overrides, never touch the shared one
+        Map<K, V> result = new HashMap<>(own);
+        result.putAll(catalog);
+
+        return result;
+    }
+
+    /**
+     * Clear the shared global catalogs, the next load will parse them again
+     */
+    public static void clearCatalogCache() {
+        CATALOGS.clear();
+    }
+
     /**
      * Reads the common KWD header
      *
@@ -588,6 +727,7 @@ public final class KwdFile {
             terrainTiles = new HashMap<>(header.getItemCount());
         } else {
             LOGGER.warning("Overrides terrain!");
+            terrainTiles = new HashMap<>(terrainTiles);
         }
 
         IResourceChunkReader reader = file.readChunk(header.dataSize);
@@ -651,12 +791,12 @@ public final class KwdFile {
             // Add to the hash by the terrain ID
             terrainTiles.put(terrain.getTerrainId(), terrain);
 
-            // See that we have water & lava set
-            if (map.getWater() == null && terrain.getFlags().contains(Terrain.TerrainFlag.WATER)) {
-                map.setWater(terrain);
+            // Remember the water & lava, they are set to the map once everything is loaded
+            if (water == null && terrain.getFlags().contains(Terrain.TerrainFlag.WATER)) {
+                water = terrain;
             }
-            if (map.getLava() == null && terrain.getFlags().contains(Terrain.TerrainFlag.LAVA)) {
-                map.setLava(terrain);
+            if (lava == null && terrain.getFlags().contains(Terrain.TerrainFlag.LAVA)) {
+                lava = terrain;
             }
 
             // Check file offset
@@ -798,6 +938,7 @@ public final class KwdFile {
             doors = new HashMap<>(header.getItemCount());
         } else {
             LOGGER.warning("Overrides doors!");
+            doors = new HashMap<>(doors);
         }
 
         IResourceChunkReader reader = file.readChunk(header.dataSize);
@@ -864,6 +1005,7 @@ public final class KwdFile {
             traps = new HashMap<>(header.getItemCount());
         } else {
             LOGGER.warning("Overrides traps!");
+            traps = new HashMap<>(traps);
         }
 
         IResourceChunkReader reader = file.readChunk(header.dataSize);
@@ -944,6 +1086,8 @@ public final class KwdFile {
             roomsByTerrainId = new HashMap<>(header.getItemCount());
         } else {
             LOGGER.warning("Overrides rooms!");
+            rooms = new HashMap<>(rooms);
+            roomsByTerrainId = new HashMap<>(roomsByTerrainId);
         }
 
         IResourceChunkReader reader = file.readChunk(header.dataSize);
@@ -1187,6 +1331,7 @@ public final class KwdFile {
             creatures = new HashMap<>(header.getItemCount());
         } else {
             LOGGER.warning("Overrides creatures!");
+            creatures = new HashMap<>(creatures);
         }
 
         IResourceChunkReader reader = file.readChunk(header.dataSize);
@@ -1558,6 +1703,7 @@ public final class KwdFile {
             objects = new HashMap<>(header.getItemCount());
         } else {
             LOGGER.warning("Overrides objects!");
+            objects = new HashMap<>(objects);
         }
 
         IResourceChunkReader reader = file.readChunk(header.dataSize);
@@ -1636,6 +1782,7 @@ public final class KwdFile {
             creatureSpells = new HashMap<>(header.getItemCount());
         } else {
             LOGGER.warning("Overrides creature spells!");
+            creatureSpells = new HashMap<>(creatureSpells);
         }
 
         IResourceChunkReader reader = file.readChunk(header.dataSize);
@@ -1692,6 +1839,7 @@ public final class KwdFile {
             effectElements = new HashMap<>(header.getItemCount());
         } else {
             LOGGER.warning("Overrides effect elements!");
+            effectElements = new HashMap<>(effectElements);
         }
 
         IResourceChunkReader reader = file.readChunk(header.dataSize);
@@ -1748,6 +1896,7 @@ public final class KwdFile {
             effects = new HashMap<>(header.getItemCount());
         } else {
             LOGGER.warning("Overrides effects!");
+            effects = new HashMap<>(effects);
         }
 
         IResourceChunkReader reader = file.readChunk(header.dataSize);
@@ -1825,6 +1974,7 @@ public final class KwdFile {
             keeperSpells = new HashMap<>(header.getItemCount());
         } else {
             LOGGER.warning("Overrides keeper spells!");
+            keeperSpells = new HashMap<>(keeperSpells);
         }
 
         IResourceChunkReader reader = file.readChunk(header.dataSize);
@@ -2209,6 +2359,7 @@ public final class KwdFile {
             shots = new HashMap<>(header.getItemCount());
         } else {
             LOGGER.warning("Overrides shots!");
+            shots = new HashMap<>(shots);
         }
 
         IResourceChunkReader reader = file.readChunk(header.dataSize);
@@ -3261,6 +3412,23 @@ public final class KwdFile {
         }
     }
 
+    /**
+     * A parsed global catalog file and the file version it was parsed from
+     */
+    private static final class Catalog {
+
+        private final long lastModified;
+        private final long size;
+        private final KwdFile data;
+
+        public Catalog(long lastModified, long size, KwdFile data) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.data = data;
+        }
+
+    }
+
     /**
      * Kwd header, few different kinds, handles all
      */
@@ -23,6 +23,8 @@ import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import toniarts.openkeeper.tools.convert.ConversionUtils;
@@ -105,19 +107,26 @@ public class SdtFile {
      * Extract all the files to a given location
      *
      * @param destination destination directory
+     * @return the extracted files
      */
-    public void extractFileData(String destination) {
+    public List<Path> extractFileData(String destination) {
+        List<Path> files = new ArrayList<>(entries.length);
 
         // Open the SDT for extraction
         try (IResourceReader rawSdt = new FileResourceReader(file)) {
             for (SdtFileEntry entry : entries) {
-                extractFileData(entry, destination, rawSdt);
+                Path destinationFile = extractFileData(entry, destination, rawSdt);
+                if (destinationFile != null) {
+                    files.add(destinationFile);
+                }
             }
         } catch (Exception e) {
 
             // Fug
             throw new RuntimeException("Faile to read the SDT file!", e);
         }
+
+        return files;
     }
 
     /**
@@ -126,10 +135,11 @@ public class SdtFile {
      * @param fileName file to extract
      * @param destination destination directory
      * @param rawSdt the opened SDT file
+     * @return the extracted file, or {@code null} for a blank entry
      */
-    private void extractFileData(SdtFileEntry entry, String destination, IResourceReader rawSdt) {
+    private Path extractFileData(SdtFileEntry entry, String destination, IResourceReader rawSdt) {
         if (entry == null) {
-            return;
+            return null;
         }
 
         // Fix file extension
@@ -150,6 +160,8 @@ public class SdtFile {
         } catch (IOException e) {
             throw new RuntimeException("Failed to write to " + destinationFile + "!", e);
         }
+
+        return destinationFile;
     }
 
     /**
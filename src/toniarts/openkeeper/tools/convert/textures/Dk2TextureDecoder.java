@@ -438,8 +438,25 @@ public abstract class Dk2TextureDecoder {
     protected abstract void decompress_block(ByteBuffer out, int stride, boolean alphaFlag);
 
     public byte[] dd_texture(long[] buf, int stride, int width, int height, boolean alphaFlag) {
-        int x, y;
         ByteBuffer out = ByteBuffer.allocate(width * height * 4);
+        dd_texture(buf, stride, width, height, alphaFlag, out);
+
+        return out.array();
+    }
+
+    /**
+     * Decodes the texture straight to the given buffer, the pixels are written
+     * as RGBA bytes
+     *
+     * @param buf the compressed texture data read as uint32 items
+     * @param stride bytes per row
+     * @param width texture width
+     * @param height texture height
+     * @param alphaFlag whether the texture has alpha
+     * @param out the buffer to write to, at least stride * height bytes
+     */
+    public void dd_texture(long[] buf, int stride, int width, int height, boolean alphaFlag, ByteBuffer out) {
+        int x, y;
         out.order(ByteOrder.LITTLE_ENDIAN);
 
         initialize_dd(buf);
@@ -450,6 +467,5 @@ public abstract class Dk2TextureDecoder {
                 decompress_block(out, stride, alphaFlag);
             }
         }
-        return out.array();
     }
 }
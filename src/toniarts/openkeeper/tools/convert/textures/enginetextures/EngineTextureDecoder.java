@@ -60,6 +60,18 @@ public class EngineTextureDecoder extends Dk2TextureDecoder {
     private static final float float_7af014 = 1.602f;
     private static final float float_7af018 = 2.0250001f;
     private static final double double_7af048 = 6.75539944108852e15;
+    private static final ThreadLocal<EngineTextureDecoder> DECODERS = ThreadLocal.withInitial(EngineTextureDecoder::new);
+
+    /**
+     * Get the decoder of the current thread. The decoder keeps its working
+     * state in the instance, so one can't be shared between threads, but
+     * there is no need to create one for every texture either.
+     *
+     * @return the decoder for the current thread
+     */
+    public static EngineTextureDecoder getInstance() {
+        return DECODERS.get();
+    }
 
     @Override
     protected void decompress_block(ByteBuffer out, int stride, boolean alphaFlag) {
@@ -18,20 +18,33 @@ package toniarts.openkeeper.tools.convert.textures.enginetextures;
 
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.imageio.ImageIO;
+import toniarts.openkeeper.tools.convert.ByteArrayResourceReader;
 import toniarts.openkeeper.tools.convert.ConversionUtils;
 import toniarts.openkeeper.tools.convert.FileResourceReader;
 import toniarts.openkeeper.tools.convert.IResourceChunkReader;
@@ -40,8 +53,12 @@ import toniarts.openkeeper.tools.convert.IResourceReader;
 /**
  * Reads Dungeon Keeper II EngineTextures.dat file to a structure<br>
  * Also reads EngineTextures.dir for the texture names<br>
- * The file is LITTLE ENDIAN I might say
- *
+ * The file is LITTLE ENDIAN I might say<br>
+ * The texture data is memory mapped once, and the textures are decoded
+ * straight to the image rasters. Safe to decode from multiple threads at once.
+ * The mapping is released only when this is garbage collected, until then the
+ * file can't be modified or deleted on Windows. Only meant for the original
+ * game files.
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
@@ -54,7 +71,7 @@ public class EngineTexturesFile implements Iterable<String> {
     private final int version;
 
     private final Path file;
-    private EngineTextureDecoder decoder;
+    private final ByteBuffer rawTextures;
     private final Map<String, EngineTextureEntry> engineTextureEntries;
 
     private static final Logger LOGGER = Logger.getLogger(EngineTexturesFile.class.getName());
@@ -62,6 +79,15 @@ public class EngineTexturesFile implements Iterable<String> {
     public EngineTexturesFile(Path file) {
         this.file = file;
 
+        // Map the texture data, the mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            rawTextures = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+
+            // Fug
+            throw new RuntimeException("Failed to open the file " + file + "!", e);
+        }
+
         // Read the names from the DIR file in the same folder
         Path dirFile = Paths.get(file.toString().substring(0, file.toString().length() - 3) + "dir");
         try (IResourceReader rawDir = new FileResourceReader(dirFile)) {
@@ -88,7 +114,7 @@ public class EngineTexturesFile implements Iterable<String> {
             engineTextureEntries = new HashMap<>(numberOfEntries);
 
             dirReader = rawDir.readChunk(size);
-            try (IResourceReader rawTextures = new FileResourceReader(file)) {
+            try (IResourceReader rawTextures = new ByteArrayResourceReader(this.rawTextures)) {
                 do {
                     String name = ConversionUtils.convertFileSeparators(dirReader.readVaryingLengthStrings(1).get(0));
                     int offset = dirReader.readUnsignedInteger();
@@ -122,6 +148,10 @@ public class EngineTexturesFile implements Iterable<String> {
         }
     }
 
+    public Path getFile() {
+        return file;
+    }
+
     /**
      * Get the number of texture entries
      *
@@ -137,17 +167,8 @@ public class EngineTexturesFile implements Iterable<String> {
      * @param destination destination directory
      */
     public void extractFileData(String destination) {
-
-        // Open the Texture file for extraction
-        try (IResourceReader rawTextures = new FileResourceReader(file)) {
-
-            for (String textureEntry : engineTextureEntries.keySet()) {
-                extractFileData(textureEntry, destination, rawTextures, true);
-            }
-        } catch (IOException e) {
-
-            //Fug
-            throw new RuntimeException("Failed to open the file " + file + "!", e);
+        for (String textureEntry : engineTextureEntries.keySet()) {
+            extractFileData(textureEntry, destination, true);
         }
     }
 
@@ -161,27 +182,6 @@ public class EngineTexturesFile implements Iterable<String> {
      */
     public Path extractFileData(String textureEntry, String destination, boolean overwrite) {
 
-        // Open the Texture file for extraction
-        try (IResourceReader rawTextures = new FileResourceReader(file)) {
-            return extractFileData(textureEntry, destination, rawTextures, overwrite);
-        } catch (IOException e) {
-
-            // Fug
-            throw new RuntimeException("Failed to open the file " + file + "!", e);
-        }
-    }
-
-    /**
-     * Extract a single file to a given location
-     *
-     * @param textureEntry texture to extract
-     * @param destination destination directory
-     * @param rawTextures the opened EngineTextures file
-     * @param overwrite overwrite destination file
-     *
-     */
-    private Path extractFileData(String textureEntry, String destination, IResourceReader rawTextures, boolean overwrite) {
-
         // See that the destination is formatted correctly and create it if it does not exist
         Path destinationFile = Paths.get(destination, textureEntry.concat(".png"));
 
@@ -201,7 +201,7 @@ public class EngineTexturesFile implements Iterable<String> {
         // Write to the file
         try (OutputStream out = Files.newOutputStream(destinationFile);
                 BufferedOutputStream bout = new BufferedOutputStream(out)) {
-            getFileData(textureEntry, rawTextures).writeTo(bout);
+            ImageIO.write(getImage(textureEntry), "png", bout);
         } catch (IOException e) {
             throw new RuntimeException("Failed to write to " + destinationFile + "!", e);
         }
@@ -210,54 +210,60 @@ public class EngineTexturesFile implements Iterable<String> {
     }
 
     /**
-     * Extract a single file
+     * Get the compressed data of a single texture. The data is a read only
+     * slice of the mapped file, no data is copied.
      *
-     * @param textureEntry the texture to extract
-     * @param rawTextures the opened EngineTextures file
-     * @return the file data
+     * @param textureEntry the texture
+     * @return the compressed texture data, little endian
      */
-    private ByteArrayOutputStream getFileData(String textureEntry, IResourceReader rawTextures) {
-        ByteArrayOutputStream result = null;
-
-        // Get the file
+    public ByteBuffer getFileBuffer(String textureEntry) {
         EngineTextureEntry engineTextureEntry = engineTextureEntries.get(textureEntry);
         if (engineTextureEntry == null) {
             throw new RuntimeException("File " + textureEntry + " not found from the texture archive!");
         }
 
-        ImageIO.setUseCache(false);
-        try {
+        return getFileBuffer(engineTextureEntry);
+    }
 
-            // We should decompress the texture
-            BufferedImage image;
-            if (DECOMPRESSION_ENABLED) {
+    private ByteBuffer getFileBuffer(EngineTextureEntry engineTextureEntry) {
 
-                // Seek to the file we want and read it
-                rawTextures.seek(engineTextureEntry.getDataStartLocation());
+        // Never touch the position of the shared buffer, work on a duplicate
+        ByteBuffer data = rawTextures.duplicate();
+        data.position((int) engineTextureEntry.getDataStartLocation());
+        data.limit(data.position() + engineTextureEntry.getSize());
 
-                IResourceChunkReader rawTexturesReader = rawTextures.readChunk(engineTextureEntry.getSize());
-                int count = (engineTextureEntry.getSize()) / 4;
-                long[] buf = new long[count];
-                for (int i = 0; i < count; i++) {
-                    buf[i] = rawTexturesReader.readUnsignedIntegerAsLong();
-                }
+        return data.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
 
-                // Use the monstrous decompression routine
-                image = decompressTexture(buf, engineTextureEntry);
-            } else {
+    /**
+     * Decode a single texture
+     *
+     * @param textureEntry the texture to decode
+     * @return the texture image
+     */
+    public BufferedImage getImage(String textureEntry) {
 
-                // Use our chess board texture
-                image = generateChessBoard(engineTextureEntry);
+        // Get the file
+        EngineTextureEntry engineTextureEntry = engineTextureEntries.get(textureEntry);
+        if (engineTextureEntry == null) {
+            throw new RuntimeException("File " + textureEntry + " not found from the texture archive!");
+        }
+
+        // We should decompress the texture
+        if (DECOMPRESSION_ENABLED) {
+            ByteBuffer data = getFileBuffer(engineTextureEntry);
+            int count = (engineTextureEntry.getSize()) / 4;
+            long[] buf = new long[count];
+            for (int i = 0; i < count; i++) {
+                buf[i] = Integer.toUnsignedLong(data.getInt(i * 4));
             }
-            result = new ByteArrayOutputStream();
-            ImageIO.write(image, "png", result);
-        } catch (IOException e) {
 
-            // Fug
-            throw new RuntimeException("Faile to read the engine texture file!", e);
+            // Use the monstrous decompression routine
+            return decompressTexture(buf, engineTextureEntry);
         }
 
-        return result;
+        // Use our chess board texture
+        return generateChessBoard(engineTextureEntry);
     }
 
     /**
@@ -298,30 +304,25 @@ public class EngineTexturesFile implements Iterable<String> {
      *
      * @param buf the compressed texture data read as uint32 items
      * @param engineTextureEntry the texture entry
-     * @return
+     * @return the decoded texture
      */
     private BufferedImage decompressTexture(long[] buf, EngineTextureEntry engineTextureEntry) {
-        BufferedImage img = new BufferedImage(engineTextureEntry.getResX(), engineTextureEntry.getResY(), engineTextureEntry.isAlphaFlag() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        int width = engineTextureEntry.getResX();
+        int height = engineTextureEntry.getResY();
+        int stride = width * (32 / 8)/*(bpp / 8 = bytes per pixel)*/;
+
+        // The decoder writes RGBA bytes, use a raster of the same layout so the
+        // pixels can be decoded in place. Without alpha the fourth byte is just skipped
+        boolean alpha = engineTextureEntry.isAlphaFlag();
+        ColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), alpha, false, alpha ? Transparency.TRANSLUCENT : Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+        int[] bandOffsets = alpha ? new int[]{0, 1, 2, 3} : new int[]{0, 1, 2};
+        DataBufferByte pixels = new DataBufferByte(stride * height);
+        WritableRaster raster = Raster.createWritableRaster(new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, width, height, 4, stride, bandOffsets), pixels, null);
 
         // Decompress the texture
-        if (decoder == null) {
-            decoder = new EngineTextureDecoder();
-        }
-        byte[] pixels = decoder.dd_texture(buf, engineTextureEntry.getResX() * (32 / 8)/*(bpp / 8 = bytes per pixel)*/, engineTextureEntry.getResX(), engineTextureEntry.getResY(), engineTextureEntry.isAlphaFlag());
-
-        // Draw the image, pixel by pixel
-        for (int x = 0; x < engineTextureEntry.getResX(); x++) {
-            for (int y = 0; y < engineTextureEntry.getResY(); y++) {
-                int base = engineTextureEntry.getResX() * y * 4 + x * 4;
-                int r = ConversionUtils.toUnsignedByte(pixels[base]);
-                int g = ConversionUtils.toUnsignedByte(pixels[base + 1]);
-                int b = ConversionUtils.toUnsignedByte(pixels[base + 2]);
-                int a = ConversionUtils.toUnsignedByte(pixels[base + 3]);
-                int col = (a << 24) | (r << 16) | (g << 8) | b;
-                img.setRGB(x, y, col);
-            }
-        }
-        return img;
+        EngineTextureDecoder.getInstance().dd_texture(buf, stride, width, height, alpha, ByteBuffer.wrap(pixels.getData()));
+
+        return new BufferedImage(colorModel, raster, false, null);
     }
 
     @Override
@@ -16,29 +16,35 @@
  */
 package toniarts.openkeeper.tools.convert.wad;
 
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import toniarts.openkeeper.tools.convert.ByteArrayResourceReader;
 import toniarts.openkeeper.tools.convert.ConversionUtils;
-import toniarts.openkeeper.tools.convert.FileResourceReader;
 import toniarts.openkeeper.tools.convert.IResourceChunkReader;
 import toniarts.openkeeper.tools.convert.IResourceReader;
 
 /**
  * Stores the wad file structure and contains the methods to handle the WAD archive<br>
  * The file is LITTLE ENDIAN I might say<br>
+ * The archive is memory mapped once, the entries are slices of the mapping.
+ * Safe to read from multiple threads at once. There is no way to release the
+ * mapping explicitly, it is released when this and the extracted buffers are
+ * garbage collected. Until then the file can't be modified or deleted on
+ * Windows, which is fine for the original game files.<br>
  * Converted to JAVA from C code, C code by:
  * <li>Tomasz Lis</li>
  * <li>Anonymous</li>
@@ -48,6 +54,7 @@ import toniarts.openkeeper.tools.convert.IResourceReader;
 public class WadFile {
 
     private final Path file;
+    private final ByteBuffer wad;
     private final Map<String, WadFileEntry> wadFileEntries;
     private static final String WAD_HEADER_IDENTIFIER = "DWFB";
     private static final int WAD_HEADER_VERSION = 2;
@@ -63,8 +70,17 @@ public class WadFile {
     public WadFile(Path file) {
         this.file = file;
 
+        // Map the file, the mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            wad = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+
+            //Fug
+            throw new RuntimeException("Failed to open the file " + file + "!", e);
+        }
+
         // Read the file
-        try (IResourceReader rawWad = new FileResourceReader(file)) {
+        try (IResourceReader rawWad = new ByteArrayResourceReader(wad)) {
 
             // Check the header
             IResourceChunkReader reader = rawWad.readChunk(8);
@@ -112,12 +128,12 @@ public class WadFile {
             // If the file has a path, carry that path all the way to next entry with path
             // The file names itself aren't unique, but with the path they are
             rawWad.seek(nameOffset);
-            byte[] nameArray = rawWad.read(nameSize);
+            reader = rawWad.readChunk(nameSize);
             wadFileEntries = new LinkedHashMap<>(files);
             String path = "";
             for (WadFileEntry entry : entries) {
-                int offset = entry.getNameOffset() - nameOffset;
-                String name = ConversionUtils.toString(Arrays.copyOfRange(nameArray, offset, offset + entry.getNameSize())).trim();
+                reader.position(entry.getNameOffset() - nameOffset);
+                String name = ConversionUtils.toString(reader.read(entry.getNameSize())).trim();
 
                 // The path
                 name = ConversionUtils.convertFileSeparators(name);
@@ -146,6 +162,10 @@ public class WadFile {
         return new ArrayList(wadFileEntries.keySet());
     }
 
+    public Path getFile() {
+        return file;
+    }
+
     /**
      * Return the file count in this WAD archive
      *
@@ -161,17 +181,8 @@ public class WadFile {
      * @param destination destination directory
      */
     public void extractFileData(String destination) {
-
-        // Open the WAD for extraction
-        try (IResourceReader rawWad = new FileResourceReader(file)) {
-
-            for (String fileName : wadFileEntries.keySet()) {
-                extractFileData(fileName, destination, rawWad);
-            }
-        } catch (Exception e) {
-
-            // Fug
-            throw new RuntimeException("Failed to read the WAD file!", e);
+        for (String fileName : wadFileEntries.keySet()) {
+            extractFileData(fileName, destination);
         }
     }
 
@@ -180,9 +191,9 @@ public class WadFile {
      *
      * @param fileName file to extract
      * @param destination destination directory
-     * @param rawWad the opened WAD file
+     * @return the file for the extracted contents
      */
-    private Path extractFileData(String fileName, String destination, IResourceReader rawWad) {
+    public Path extractFileData(String fileName, String destination) {
 
         // See that the destination is formatted correctly and create it if it does not exist
         Path destinationFile = Paths.get(destination, fileName);
@@ -194,9 +205,11 @@ public class WadFile {
         }
 
         // Write to the file
-        try (OutputStream out = Files.newOutputStream(destinationFile);
-                BufferedOutputStream bout = new BufferedOutputStream(out)) {
-            getFileData(fileName, rawWad).writeTo(bout);
+        ByteBuffer data = getFileBuffer(fileName);
+        try (SeekableByteChannel out = Files.newByteChannel(destinationFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (data.hasRemaining()) {
+                out.write(data);
+            }
         } catch (IOException e) {
             throw new RuntimeException("Failed to write to " + destinationFile + "!", e);
         }
@@ -205,33 +218,14 @@ public class WadFile {
     }
 
     /**
-     * Extract a single file to a given location
-     *
-     * @param fileName file to extract
-     * @param destination destination directory
-     * @return the file for the extracted contents
-     */
-    public Path extractFileData(String fileName, String destination) {
-
-        // Open the WAD for extraction
-        try (IResourceReader rawWad = new FileResourceReader(file)) {
-            return extractFileData(fileName, destination, rawWad);
-        } catch (Exception e) {
-
-            // Fug
-            throw new RuntimeException("Failed to read the WAD file!", e);
-        }
-    }
-
-    /**
-     * Extract a single file
+     * Get a single file. Stored files are read only slices of the mapped
+     * archive, no data is copied. Compressed files are decompressed to a new
+     * buffer.
      *
-     * @param fileName the file to extract
-     * @param rawWad the opened WAD file
-     * @return the file data
+     * @param fileName the file to get
+     * @return the file data, little endian
      */
-    private ByteArrayOutputStream getFileData(String fileName, IResourceReader rawWad) {
-        ByteArrayOutputStream result = null;
+    public ByteBuffer getFileBuffer(String fileName) {
 
         // Get the file
         WadFileEntry fileEntry = wadFileEntries.get(fileName);
@@ -239,28 +233,18 @@ public class WadFile {
             throw new RuntimeException("File " + fileName + " not found from the WAD archive!");
         }
 
-        try {
-
-            // Seek to the file we want and read it
-            rawWad.seek(fileEntry.getOffset());
-            byte[] bytes = rawWad.read(fileEntry.getCompressedSize());
-
-            result = new ByteArrayOutputStream();
-
-            // See if the file is compressed
-            if (fileEntry.isCompressed()) {
-                result.write(decompressFileData(bytes, fileName));
-            } else {
-                result.write(bytes);
-            }
-
-        } catch (Exception e) {
+        // Never touch the position of the shared buffer, work on a duplicate
+        ByteBuffer data = wad.duplicate();
+        data.position(fileEntry.getOffset());
+        data.limit(fileEntry.getOffset() + fileEntry.getCompressedSize());
+        data = data.slice();
 
-            // Fug
-            throw new RuntimeException("Failed to read the WAD file!", e);
+        // See if the file is compressed
+        if (fileEntry.isCompressed()) {
+            data = ByteBuffer.wrap(decompressFileData(data, fileName));
         }
 
-        return result;
+        return data.order(ByteOrder.LITTLE_ENDIAN);
     }
 
     /**
@@ -270,49 +254,49 @@ public class WadFile {
      * @return the file data
      */
     public byte[] getFileData(String fileName) {
+        ByteBuffer data = getFileBuffer(fileName);
+        if (data.hasArray() && data.arrayOffset() == 0 && data.array().length == data.remaining()) {
+            return data.array();
+        }
 
-        // Open the WAD for extraction
-        try (IResourceReader rawWad = new FileResourceReader(file)) {
-            return getFileData(fileName, rawWad).toByteArray();
-        } catch (Exception e) {
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
 
-            // Fug
-            throw new RuntimeException("Failed to read the WAD file!", e);
-        }
+        return bytes;
     }
 
     /**
      * Some file entries in the WAD are compressed (type 4?), this decompresses the file data
      *
-     * @param bytes the compressed bytes
+     * @param src the compressed bytes, from position 0 to limit
      * @param fileName just for logging
      * @return the decompressed bytes
      */
-    private byte[] decompressFileData(byte[] src, String fileName) {
+    private static byte[] decompressFileData(ByteBuffer src, String fileName) {
         int i = 0, j = 0;
-        if ((src[i++] & 1) != 0) {
+        if ((src.get(i++) & 1) != 0) {
             i += 3;
         }
         i++; // <<skip second byte
         // <decompressed size packed into 3 bytes
 
-        int decsize = (ConversionUtils.toUnsignedByte(src[i]) << 16) + (ConversionUtils.toUnsignedByte(src[i + 1]) << 8) + ConversionUtils.toUnsignedByte(src[i + 2]);
+        int decsize = (ConversionUtils.toUnsignedByte(src.get(i)) << 16) + (ConversionUtils.toUnsignedByte(src.get(i + 1)) << 8) + ConversionUtils.toUnsignedByte(src.get(i + 2));
         byte[] dest = new byte[decsize];
         i += 3;
         byte flag; // The flag byte read at the beginning of each main loop iteration
         int counter; // Counter for all loops
         boolean finished = false;
         while (!finished) {
-            if (i >= src.length) {
+            if (i >= src.limit()) {
                 break;
             }
-            flag = src[i++]; // Get flag byte
+            flag = src.get(i++); // Get flag byte
             if ((ConversionUtils.toUnsignedByte(flag) & 0x80) == 0) {
-                byte tmp = src[i++];
+                byte tmp = src.get(i++);
                 counter = ConversionUtils.toUnsignedByte(flag) & 3; // mod 4
                 while (counter-- != 0) // Copy literally
                 {
-                    dest[j] = src[i++];
+                    dest[j] = src.get(i++);
                     j++;
                 }
                 int k = j; // Get the destbuf position
@@ -326,12 +310,12 @@ public class WadFile {
                     j++;
                 } while (counter-- != 0); // Correct decrement
             } else if ((ConversionUtils.toUnsignedByte(flag) & 0x40) == 0) {
-                byte tmp = src[i++];
-                byte tmp2 = src[i++];
+                byte tmp = src.get(i++);
+                byte tmp2 = src.get(i++);
                 counter = (ConversionUtils.toUnsignedByte(tmp)) >> 6;
                 while (counter-- != 0) // Copy literally
                 {
-                    dest[j] = src[i++];
+                    dest[j] = src.get(i++);
                     j++;
                 }
                 int k = j;
@@ -344,13 +328,13 @@ public class WadFile {
                     j++;
                 } while (counter-- != 0); // Correct postfix decrement
             } else if ((ConversionUtils.toUnsignedByte(flag) & 0x20) == 0) {
-                byte localtemp = src[i++];
-                byte tmp2 = src[i++];
-                byte tmp3 = src[i++];
+                byte localtemp = src.get(i++);
+                byte tmp2 = src.get(i++);
+                byte tmp3 = src.get(i++);
                 counter = ConversionUtils.toUnsignedByte(flag) & 3;
                 while (counter-- != 0) // Copy literally
                 {
-                    dest[j] = src[i++];
+                    dest[j] = src.get(i++);
                     j++;
                 }
                 int k = j;
@@ -372,7 +356,7 @@ public class WadFile {
                     counter = ConversionUtils.toUnsignedByte(flag) & 3;
                 }
                 while (counter-- != 0) { // Copy literally
-                    dest[j] = src[i++];
+                    dest[j] = src.get(i++);
                     j++;
                 }
             }
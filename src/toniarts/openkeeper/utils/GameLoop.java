@@ -16,24 +16,62 @@
  */
 package toniarts.openkeeper.utils;
 
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * A game loop. This is a fork of Paul Speeds class of a same name.
+ * A game loop. This is a fork of Paul Speeds class of a same name.<br>
+ * By default the loop ticks with whatever time has elapsed since the last
+ * tick. In the fixed timestep mode every tick is exactly the update rate long,
+ * the loop catches up with extra ticks if it falls behind. If it falls too
+ * much behind, the {@link OverloadPolicy} decides what to do.<br>
+ * The loop runs on its own thread, or on a shared executor. With an executor
+ * many loops can share a bounded number of threads, each tick is scheduled
+ * separately and a loop never runs two ticks at once.
  *
  * @author Toni Helenius <helenius.toni@gmail.com>
  */
 public class GameLoop {
 
     public static final long INTERVAL_FPS_60 = 16666667L;
+    public static final int DEFAULT_MAX_CATCH_UP_STEPS = 5;
     private static final String DEFAULT_NAME = "GameLoopThread";
+    private static final long DEFAULT_SPIN_TIME = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * What to do when the loop can't keep up even with the catch up ticks.
+     * Either way every tick stays the same length
+     */
+    public enum OverloadPolicy {
+
+        /**
+         * Forget the missed time, the game runs slower than the real time
+         */
+        DROP_BACKLOG,
+        /**
+         * Keep the missed time, up to the catch up ticks of one frame, and
+         * run it in the following frames. Short hiccups are caught up with,
+         * only longer ones are forgotten
+         */
+        CARRY_BACKLOG
+    }
 
     private final IGameLoopManager gameLoopManager;
     private final Runner loop;
+    private final ScheduledTicker ticker;
+    private final GameLoopMetrics metrics;
 
     private long updateRate;
-    private long idleSleepTime = 0;
+    private volatile boolean fixedTimestep = false;
+    private volatile int maxCatchUpSteps = DEFAULT_MAX_CATCH_UP_STEPS;
+    private volatile OverloadPolicy overloadPolicy = OverloadPolicy.DROP_BACKLOG;
+    private volatile long spinTime = DEFAULT_SPIN_TIME;
     private final AtomicBoolean pauseFlag = new AtomicBoolean(false);
+    private long lastTime;
+    private long accumulator;
 
     public GameLoop(IGameLoopManager gameLoopManager) {
         this(gameLoopManager, INTERVAL_FPS_60); // 60 FPS
@@ -47,11 +85,22 @@ public class GameLoop {
         this(gameLoopManager, updateRateNanos, name, null);
     }
 
-    public GameLoop(IGameLoopManager gameLoopManager, long updateRateNanos, String name, Long idleSleepTime) {
+    /**
+     * Create a game loop
+     *
+     * @param gameLoopManager the manager to tick
+     * @param updateRateNanos the update rate, in nanoseconds
+     * @param name name of the loop
+     * @param executor executor to run the ticks on, {@code null} to run on
+     * an own thread
+     */
+    public GameLoop(IGameLoopManager gameLoopManager, long updateRateNanos, String name, ScheduledExecutorService executor) {
         this.gameLoopManager = gameLoopManager;
         this.updateRate = updateRateNanos;
-        this.loop = new Runner(name);
-        setIdleSleepTime(idleSleepTime);
+        this.loop = executor == null ? new Runner(name) : null;
+        this.ticker = executor != null ? new ScheduledTicker(executor) : null;
+        this.metrics = new GameLoopMetrics(name);
+        gameLoopManager.setMetrics(metrics);
     }
 
     /**
@@ -61,7 +110,11 @@ public class GameLoop {
      * thread.
      */
     public void start() {
-        loop.start();
+        if (loop != null) {
+            loop.start();
+        } else {
+            ticker.start();
+        }
     }
 
     /**
@@ -71,58 +124,152 @@ public class GameLoop {
      * loop background thread.
      */
     public void stop() {
-        loop.close();
+        if (loop != null) {
+            loop.close();
+        } else {
+            ticker.close();
+        }
     }
 
     /**
-     * Sets the period of time in milliseconds that the update loop will wait
-     * between time interval checks. This defaults to 0 because on Windows the
-     * default 60 FPS update rate will cause frame drops for a idle sleep time
-     * of 1 or more. However, 0 causes the loop to consume a noticable amount of
-     * CPU. For lower framerates, 1 is recommended and will be set automically
-     * based on the current frame rate interval if null is specified.
+     * Use fixed length ticks. The loop ticks exactly at the update rate and
+     * runs extra ticks to catch up if it falls behind.
      *
-     * @param millis
+     * @param fixedTimestep use fixed timestep
+     * @param maxCatchUpSteps maximum number of ticks to run at once when
+     * catching up
+     * @param overloadPolicy what to do if even that is not enough
      */
-    public final void setIdleSleepTime(Long millis) {
-        if (millis == null) {
-
-            // Configure a reasonable default
-            if (updateRate > INTERVAL_FPS_60) {
+    public void setFixedTimestep(boolean fixedTimestep, int maxCatchUpSteps, OverloadPolicy overloadPolicy) {
+        this.maxCatchUpSteps = Math.max(1, maxCatchUpSteps);
+        this.overloadPolicy = overloadPolicy;
+        this.fixedTimestep = fixedTimestep;
+    }
 
-                // Can probably get away with more sleep
-                this.idleSleepTime = 1;
-            } else {
+    public boolean isFixedTimestep() {
+        return fixedTimestep;
+    }
 
-                // Else on Windows, sleep > 0 will take almost as long as
-                // a frame
-                this.idleSleepTime = 0;
-            }
-        } else {
-            this.idleSleepTime = millis;
-        }
+    /**
+     * Sets the time before the next tick when the loop stops parking and
+     * starts spinning. Parking is not accurate, especially on Windows, so a
+     * bit of spinning keeps the ticks on time. The rest of the time the thread
+     * doesn't consume any CPU.
+     *
+     * @param nanos the spin time in nanoseconds
+     */
+    public void setSpinTime(long nanos) {
+        this.spinTime = Math.max(0, nanos);
     }
 
-    public Long getIdleSleepTime() {
-        return idleSleepTime;
+    public long getSpinTime() {
+        return spinTime;
     }
 
     public void pause() {
         pauseFlag.set(true);
     }
 
+    /**
+     * Get the performance metrics of this loop
+     *
+     * @return the metrics
+     */
+    public GameLoopMetrics getMetrics() {
+        return metrics;
+    }
+
     public void resume() {
         pauseFlag.set(false);
         synchronized (pauseFlag) {
             pauseFlag.notify();
         }
+        if (ticker != null) {
+            ticker.resume();
+        }
+    }
+
+    private void begin() {
+        metrics.register();
+        gameLoopManager.start();
+        reset();
+    }
+
+    private void end() {
+        gameLoopManager.stop();
+        metrics.unregister();
+    }
+
+    private void reset() {
+        lastTime = System.nanoTime();
+        accumulator = 0;
+    }
+
+    /**
+     * Run the ticks that are due
+     *
+     * @return time until the next tick, in nanoseconds
+     */
+    private long update() {
+        long time = System.nanoTime();
+        long delta = time - lastTime;
+
+        if (fixedTimestep) {
+            lastTime = time;
+            accumulator += delta;
+
+            // Tick as many times as we need, within limits
+            int steps = 0;
+            while (accumulator >= updateRate && steps < maxCatchUpSteps) {
+                processTick(updateRate);
+                accumulator -= updateRate;
+                steps++;
+            }
+
+            // Still behind, we can't keep up
+            if (accumulator >= updateRate) {
+                long backlog = overloadPolicy == OverloadPolicy.CARRY_BACKLOG ? Math.min(accumulator, maxCatchUpSteps * updateRate) : 0;
+                long skippedTicks = (accumulator - backlog) / updateRate;
+                if (skippedTicks > 0) {
+                    metrics.recordSkippedTicks(skippedTicks);
+                    accumulator -= skippedTicks * updateRate;
+                }
+            }
+
+            return updateRate - accumulator - (System.nanoTime() - lastTime);
+        }
+
+        if (delta >= updateRate) {
+
+            // Time to update
+            lastTime = time;
+            processTick(delta);
+
+            return updateRate - (System.nanoTime() - lastTime);
+        }
+
+        return updateRate - delta;
+    }
+
+    private void processTick(long delta) {
+        long start = System.nanoTime();
+        long allocated = TickStatistics.getAllocatedBytes();
+        GameLoopMetrics previous = GameLoopMetrics.setCurrent(metrics);
+        try {
+            gameLoopManager.processTick(delta);
+        } finally {
+            GameLoopMetrics.setCurrent(previous);
+        }
+        long tickTime = System.nanoTime() - start;
+        metrics.recordTick(tickTime, allocated >= 0 ? TickStatistics.getAllocatedBytes() - allocated : -1, tickTime > updateRate);
     }
 
     /**
      * Use our own thread instead of a java executor because we need more
      * control over the update loop. ScheduledThreadPoolExecutor will try to
-     * call makeup frames if it gets behind and we'd rather just drop them.
-     * Furthermore, this allows us to 'busy wait' for the next 'frame'.
+     * call makeup frames if it gets behind and we'd rather decide ourselves.
+     * Furthermore, this allows us to 'busy wait' for the last moments before
+     * the next 'frame'.
      */
     protected class Runner extends Thread {
 
@@ -135,6 +282,7 @@ public class GameLoop {
         public void close() {
             go.set(false);
             GameLoop.this.resume();
+            LockSupport.unpark(this);
             try {
                 join();
             } catch (InterruptedException e) {
@@ -144,9 +292,7 @@ public class GameLoop {
 
         @Override
         public void run() {
-            gameLoopManager.start();
-
-            long lastTime = System.nanoTime();
+            begin();
             while (go.get()) {
 
                 // Check pause
@@ -157,7 +303,7 @@ public class GameLoop {
                         while (pauseFlag.get()) {
                             try {
                                 pauseFlag.wait();
-                                lastTime = System.nanoTime();
+                                reset();
                             } catch (InterruptedException e) {
                                 throw new RuntimeException("Interrupted sleeping", e);
                             }
@@ -166,50 +312,96 @@ public class GameLoop {
                     }
                 }
 
-                long time = System.nanoTime();
-                long delta = time - lastTime;
+                waitForNextTick(update());
+            }
+            end();
+        }
 
-                if (delta >= updateRate) {
+        /**
+         * Park the thread for most of the time, and spin the last moments.
+         * Thread.sleep() and parking rely on the operating system's thread
+         * scheduler which will have a minimum granularity. On Windows, it can
+         * take as long as 15 ms to return. Spinning is accurate but consumes
+         * the whole CPU core, so do it only for a short while.
+         *
+         * @param remaining time until the next tick, in nanoseconds
+         */
+        private void waitForNextTick(long remaining) {
+            if (remaining > spinTime) {
+                LockSupport.parkNanos(remaining - spinTime);
+            } else if (remaining > 0) {
+                Thread.onSpinWait();
+            }
+        }
+    }
 
-                    // Time to update
-                    lastTime = time;
-                    gameLoopManager.processTick(delta);
-                    continue;
-                }
+    /**
+     * Runs the loop on an executor. Each tick schedules the next one, so
+     * there are no makeup ticks from the executor and no waiting on the
+     * shared threads. A paused loop simply doesn't schedule anything.
+     */
+    private class ScheduledTicker implements Runnable {
 
-                // Wait just a little.  This is an important enough thread
-                // that we'll poll instead of smart-sleep but we also don't
-                // want to consume 100% of a CPU core.
-                // Thread.sleep(0) relies on the operating systems thread
-                // scheduler which will have a minimum granularity.  On Windows,
-                // Thread.sleep(0) can take as long as 15 ms to return.  Thus
-                // note that if we devolve into a case where the delta is more
-                // than the update rate then we never hit this code.
-                //
-                // And if the delta since last poll was kind of large
-                // we won't sleep at all... In this case, if the delta was
-                // more than half the updateRate... we'll skip sleeping.
-                // Which probably means that on Windows, we'll be responsive
-                // every other loop iteration.  It's an imperfect world and
-                // the only alternative is true CPU heating busy-waiting.
-                if (delta * 2 > updateRate) {
-                    continue;
-                }
-                try {
-
-                    // More then 0 here and we underflow constantly.
-                    // 0 and we gobble up noticable CPU.  Slower update
-                    // rates could probably get away with the longer sleep
-                    // but 60 FPS can't keep up on Windows.  So we'll let
-                    // the sleep time be externally defined for cases
-                    // where the caller knows  better.
-                    Thread.sleep(idleSleepTime);
-                } catch (InterruptedException e) {
-                    throw new RuntimeException("Interrupted sleeping", e);
+        private final ScheduledExecutorService executor;
+        private boolean running = false;
+        private boolean waiting = false;
+        private ScheduledFuture<?> future;
+
+        public ScheduledTicker(ScheduledExecutorService executor) {
+            this.executor = executor;
+        }
+
+        public synchronized void start() {
+            if (running) {
+                return;
+            }
+            running = true;
+            future = executor.schedule(() -> {
+                synchronized (this) {
+                    if (running) {
+                        begin();
+                        run();
+                    }
                 }
+            }, 0, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public synchronized void run() {
+            if (!running) {
+                return;
+            }
+            if (pauseFlag.get()) {
+                waiting = true;
+                return;
             }
 
-            gameLoopManager.stop();
+            future = executor.schedule(this, Math.max(0, update()), TimeUnit.NANOSECONDS);
+        }
+
+        public synchronized void resume() {
+            if (running && waiting) {
+                waiting = false;
+                reset();
+                future = executor.schedule(this, 0, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        /**
+         * Stops the loop, waits for the tick being run to finish. The
+         * managers are stopped on the calling thread.
+         */
+        public synchronized void close() {
+            if (!running) {
+                return;
+            }
+            running = false;
+            waiting = false;
+            if (future != null) {
+                future.cancel(false);
+                future = null;
+            }
+            end();
         }
     }
 }
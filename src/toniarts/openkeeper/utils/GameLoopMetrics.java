@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.utils;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Performance metrics of a single game loop. The loop records the total tick
+ * times and overruns, the loop manager the times of the individual systems.
+ * The metrics of the loop currently ticking are bound to the ticking thread,
+ * so that thread global things, like the entity changes, can be attributed to
+ * the right loop. Available as a JMX MBean while the loop is running.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class GameLoopMetrics implements GameLoopMetricsMXBean {
+
+    private static final AtomicInteger ID_GENERATOR = new AtomicInteger();
+    private static final ThreadLocal<GameLoopMetrics> CURRENT = new ThreadLocal<>();
+    private static final Logger LOGGER = Logger.getLogger(GameLoopMetrics.class.getName());
+
+    private final String name;
+    private final TickStatistics tickStatistics;
+    private final AtomicLong overruns = new AtomicLong();
+    private final AtomicLong skippedTicks = new AtomicLong();
+    private final List<TickStatistics> systemStatistics = new CopyOnWriteArrayList<>();
+    private final Map<Class<?>, LongAdder> entityChanges = new ConcurrentHashMap<>();
+    private ObjectName objectName;
+
+    public GameLoopMetrics(String name) {
+        this.name = name;
+        this.tickStatistics = new TickStatistics(name);
+    }
+
+    /**
+     * Record a game loop tick
+     *
+     * @param duration the tick duration, in nanoseconds
+     * @param allocated bytes allocated during the tick, negative if not known
+     * @param overrun whether the tick took longer than the tick interval
+     */
+    public void recordTick(long duration, long allocated, boolean overrun) {
+        tickStatistics.record(duration, allocated);
+        if (overrun) {
+            overruns.incrementAndGet();
+        }
+    }
+
+    /**
+     * Record ticks that the loop didn't run because it couldn't keep up
+     *
+     * @param count number of ticks skipped
+     */
+    public void recordSkippedTicks(long count) {
+        skippedTicks.addAndGet(count);
+    }
+
+    /**
+     * Create statistics for a system run by the loop
+     *
+     * @param systemName name of the system
+     * @return statistics for the system to record to
+     */
+    public TickStatistics createSystemStatistics(String systemName) {
+        String uniqueName = systemName;
+        for (int i = 2; hasSystem(uniqueName); i++) {
+            uniqueName = systemName + "#" + i;
+        }
+        TickStatistics statistics = new TickStatistics(uniqueName);
+        systemStatistics.add(statistics);
+
+        return statistics;
+    }
+
+    private boolean hasSystem(String systemName) {
+        for (TickStatistics statistics : systemStatistics) {
+            if (statistics.getName().equals(systemName)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Record an entity component change
+     *
+     * @param type the component type
+     */
+    public void recordEntityChange(Class<?> type) {
+        entityChanges.computeIfAbsent(type, (t) -> new LongAdder()).increment();
+    }
+
+    /**
+     * Get the metrics of the loop ticking on the current thread
+     *
+     * @return the metrics, {@code null} if the current thread is not ticking
+     * a game loop
+     */
+    public static GameLoopMetrics getCurrent() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Bind the metrics to the current thread for the duration of a tick, or
+     * a part of it
+     *
+     * @param metrics the metrics of the loop ticking, {@code null} when done
+     * @return the previously bound metrics, to be restored afterwards
+     */
+    public static GameLoopMetrics setCurrent(GameLoopMetrics metrics) {
+        GameLoopMetrics previous = CURRENT.get();
+        if (metrics != null) {
+            CURRENT.set(metrics);
+        } else {
+            CURRENT.remove();
+        }
+
+        return previous;
+    }
+
+    /**
+     * Register as a JMX MBean
+     */
+    public synchronized void register() {
+        if (objectName != null) {
+            return;
+        }
+        try {
+            objectName = new ObjectName("toniarts.openkeeper:type=GameLoop,name=" + ObjectName.quote(name) + ",id=" + ID_GENERATOR.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Failed to register the game loop metrics!", e);
+            objectName = null;
+        }
+    }
+
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Failed to unregister the game loop metrics!", e);
+        }
+        objectName = null;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getTickCount() {
+        return tickStatistics.getCount();
+    }
+
+    @Override
+    public long getOverrunCount() {
+        return overruns.get();
+    }
+
+    @Override
+    public long getSkippedTickCount() {
+        return skippedTicks.get();
+    }
+
+    @Override
+    public double getTickP50Millis() {
+        return TickStatistics.toMillis(tickStatistics.getPercentile(50));
+    }
+
+    @Override
+    public double getTickP99Millis() {
+        return TickStatistics.toMillis(tickStatistics.getPercentile(99));
+    }
+
+    @Override
+    public double getTickMaxMillis() {
+        return TickStatistics.toMillis(tickStatistics.getMax());
+    }
+
+    @Override
+    public Map<String, Double> getSystemP50Millis() {
+        return getSystemValues((statistics) -> statistics.getPercentile(50));
+    }
+
+    @Override
+    public Map<String, Double> getSystemP99Millis() {
+        return getSystemValues((statistics) -> statistics.getPercentile(99));
+    }
+
+    @Override
+    public Map<String, Double> getSystemMaxMillis() {
+        return getSystemValues(TickStatistics::getMax);
+    }
+
+    private Map<String, Double> getSystemValues(ToLongFunction<TickStatistics> value) {
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (TickStatistics statistics : systemStatistics) {
+            result.put(statistics.getName(), TickStatistics.toMillis(value.applyAsLong(statistics)));
+        }
+
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getSystemAllocatedBytesPerTick() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (TickStatistics statistics : systemStatistics) {
+            result.put(statistics.getName(), statistics.getAllocatedBytesPerTick());
+        }
+
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getEntityChangesPerTick() {
+        long ticks = Math.max(1, getTickCount());
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<Class<?>, LongAdder> entry : entityChanges.entrySet()) {
+            result.put(entry.getKey().getSimpleName(), entry.getValue().sum() / ticks);
+        }
+
+        return result;
+    }
+
+    @Override
+    public String getReport() {
+        StringBuilder sb = new StringBuilder(tickStatistics.toString());
+        sb.append(", ").append(getTickCount()).append(" ticks, ").append(getOverrunCount()).append(" overruns, ").append(getSkippedTickCount()).append(" skipped");
+        for (TickStatistics statistics : systemStatistics) {
+            sb.append("\n    ").append(statistics);
+        }
+        Map<String, Long> changes = getEntityChangesPerTick();
+        if (!changes.isEmpty()) {
+            sb.append("\n    Entity changes per tick: ").append(changes);
+        }
+
+        return sb.toString();
+    }
+
+    @Override
+    public void reset() {
+        tickStatistics.reset();
+        overruns.set(0);
+        skippedTicks.set(0);
+        for (TickStatistics statistics : systemStatistics) {
+            statistics.reset();
+        }
+        entityChanges.clear();
+    }
+
+    @Override
+    public String toString() {
+        return getReport();
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.utils;
+
+import java.util.Map;
+
+/**
+ * JMX view to the game loop metrics. The durations are in milliseconds, the
+ * maps are keyed by the system name.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public interface GameLoopMetricsMXBean {
+
+    String getName();
+
+    long getTickCount();
+
+    long getOverrunCount();
+
+    long getSkippedTickCount();
+
+    double getTickP50Millis();
+
+    double getTickP99Millis();
+
+    double getTickMaxMillis();
+
+    Map<String, Double> getSystemP50Millis();
+
+    Map<String, Double> getSystemP99Millis();
+
+    Map<String, Double> getSystemMaxMillis();
+
+    Map<String, Long> getSystemAllocatedBytesPerTick();
+
+    /**
+     * Entity component changes per tick, keyed by the component type
+     *
+     * @return the changes per tick
+     */
+    Map<String, Long> getEntityChangesPerTick();
+
+    String getReport();
+
+    void reset();
+
+}
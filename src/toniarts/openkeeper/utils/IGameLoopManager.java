@@ -41,4 +41,14 @@ public interface IGameLoopManager {
      */
     public void processTick(long delta);
 
+    /**
+     * Set the metrics of the game loop running this manager. The manager can
+     * record more detailed statistics there, e.g. per system
+     *
+     * @param metrics the game loop metrics
+     */
+    public default void setMetrics(GameLoopMetrics metrics) {
+
+    }
+
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs several game loop managers in phases from a single game loop. Each
+ * phase has its own update rate and is ticked with fixed steps whenever it is
+ * due, in the order the phases were added. So the managers never run
+ * concurrently with each other and need no own threads.<br>
+ * The game loop running this should tick at least at the rate of the fastest
+ * phase, see {@link #getUpdateRate()}.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public class PhasedGameLoopManager implements IGameLoopManager {
+
+    private final List<Phase> phases = new ArrayList<>();
+
+    /**
+     * Add a phase, the phases are run in the order they are added
+     *
+     * @param gameLoopManager the manager to run
+     * @param updateRateNanos the update rate of the phase, in nanoseconds
+     * @return this, for chaining
+     */
+    public PhasedGameLoopManager addPhase(IGameLoopManager gameLoopManager, long updateRateNanos) {
+        phases.add(new Phase(gameLoopManager, updateRateNanos));
+
+        return this;
+    }
+
+    /**
+     * Get the update rate of the fastest phase
+     *
+     * @return the update rate, in nanoseconds
+     */
+    public long getUpdateRate() {
+        long updateRate = GameLoop.INTERVAL_FPS_60;
+        for (Phase phase : phases) {
+            updateRate = Math.min(updateRate, phase.updateRate);
+        }
+
+        return updateRate;
+    }
+
+    @Override
+    public void start() {
+        for (Phase phase : phases) {
+            phase.accumulator = 0;
+            phase.gameLoopManager.start();
+        }
+    }
+
+    @Override
+    public void stop() {
+        for (int i = phases.size() - 1; i >= 0; i--) {
+            phases.get(i).gameLoopManager.stop();
+        }
+    }
+
+    @Override
+    public void processTick(long delta) {
+        for (Phase phase : phases) {
+            phase.accumulator += delta;
+            int steps = 0;
+            while (phase.accumulator >= phase.updateRate && steps < GameLoop.DEFAULT_MAX_CATCH_UP_STEPS) {
+                phase.gameLoopManager.processTick(phase.updateRate);
+                phase.accumulator -= phase.updateRate;
+                steps++;
+            }
+
+            // Can't keep up, the phase just runs slower
+            if (phase.accumulator >= phase.updateRate) {
+                phase.accumulator %= phase.updateRate;
+            }
+        }
+    }
+
+    @Override
+    public void setMetrics(GameLoopMetrics metrics) {
+        for (Phase phase : phases) {
+            phase.gameLoopManager.setMetrics(metrics);
+        }
+    }
+
+    private static final class Phase {
+
+        private final IGameLoopManager gameLoopManager;
+        private final long updateRate;
+        private long accumulator = 0;
+
+        public Phase(IGameLoopManager gameLoopManager, long updateRate) {
+            this.gameLoopManager = gameLoopManager;
+            this.updateRate = updateRate;
+        }
+
+    }
+
+}
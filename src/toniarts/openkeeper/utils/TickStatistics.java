@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2014-2020 OpenKeeper
+ *
+ * OpenKeeper is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenKeeper is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with OpenKeeper.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package toniarts.openkeeper.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * Tick durations and allocations of a single thing over the latest ticks. The
+ * recording is cheap, the percentiles are calculated only when asked.<br>
+ * Synchronized, so it is safe to read and reset from any thread while the
+ * loop is recording. The lock is practically uncontended.
+ *
+ * @author Toni Helenius <helenius.toni@gmail.com>
+ */
+public final class TickStatistics {
+
+    /**
+     * How many latest ticks to keep, power of two
+     */
+    private static final int WINDOW_SIZE = 1024;
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+    private static final boolean ALLOCATIONS_SUPPORTED = isAllocationCountingSupported();
+
+    private final String name;
+    private final long[] durations = new long[WINDOW_SIZE];
+    private long count = 0;
+    private long maxDuration = 0;
+    private long allocatedBytes = 0;
+
+    public TickStatistics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Record a tick
+     *
+     * @param duration the tick duration, in nanoseconds
+     * @param allocated the bytes allocated during the tick, negative if not
+     * known
+     */
+    public synchronized void record(long duration, long allocated) {
+        durations[(int) (count & (WINDOW_SIZE - 1))] = duration;
+        if (duration > maxDuration) {
+            maxDuration = duration;
+        }
+        if (allocated > 0) {
+            allocatedBytes += allocated;
+        }
+        count++;
+    }
+
+    /**
+     * Get the total number of ticks recorded
+     *
+     * @return the tick count
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Get a percentile of the latest tick durations
+     *
+     * @param percentile the percentile, 0 - 100
+     * @return the duration, in nanoseconds
+     */
+    public synchronized long getPercentile(double percentile) {
+        int size = (int) Math.min(count, WINDOW_SIZE);
+        if (size == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(durations, size);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+
+        return sorted[Math.max(0, Math.min(size - 1, index))];
+    }
+
+    /**
+     * Get the maximum tick duration ever recorded
+     *
+     * @return the duration, in nanoseconds
+     */
+    public synchronized long getMax() {
+        return maxDuration;
+    }
+
+    /**
+     * Get the average bytes allocated per tick
+     *
+     * @return bytes per tick, 0 if allocations are not tracked
+     */
+    public synchronized long getAllocatedBytesPerTick() {
+        return count > 0 ? allocatedBytes / count : 0;
+    }
+
+    public synchronized void reset() {
+        count = 0;
+        maxDuration = 0;
+        allocatedBytes = 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(name);
+        sb.append(": p50 ").append(toMillis(getPercentile(50)));
+        sb.append(" ms, p99 ").append(toMillis(getPercentile(99)));
+        sb.append(" ms, max ").append(toMillis(getMax())).append(" ms");
+        if (ALLOCATIONS_SUPPORTED) {
+            sb.append(", ").append(getAllocatedBytesPerTick() / 1024).append(" kB/tick");
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Get the bytes allocated by the current thread so far
+     *
+     * @return allocated bytes, or -1 if the JVM doesn't tell
+     */
+    public static long getAllocatedBytes() {
+        if (!ALLOCATIONS_SUPPORTED) {
+            return -1;
+        }
+
+        return ((com.sun.management.ThreadMXBean) THREAD_MX_BEAN).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static double toMillis(long nanos) {
+        return Math.round(nanos / 10000.0) / 100.0;
+    }
+
+    private static boolean isAllocationCountingSupported() {
+        try {
+            if (THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) THREAD_MX_BEAN;
+                return threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled();
+            }
+        } catch (LinkageError e) {
+            // Not a HotSpot JVM
+        }
+
+        return false;
+    }
+
+}